@@ -7,6 +7,33 @@ public class Config {
   public int STORAGE_GROUP_SIZE = 20;
   public String REST_PORT = "6666";
   public int MAX_ROLLUP = 100;
+  public int ROLLUP_THREADS = 2;
+  public long ROLLUP_DELAY = 0;
+  public int ROLLUP_BATCH_WINDOWS = 100;
+  public int ROLLUP_BACKFILL_THREADS = 2;
+  public long ROLLUP_BACKFILL_POINTS_PER_SECOND = 1000000;
+  public long ROLLUP_REPAIR_INTERVAL = 600000;
+  public int QUERY_THREADS = 8;
+  public int QUERY_CHUNK_THREADS = 8;
+  public long QUERY_CHUNK_POINTS = 200000;
+  public int QUERY_MAX_CHUNKS = 16;
+  public long QUERY_MAX_ESTIMATED_POINTS = 100000000;
+  public long QUERY_GLOBAL_ESTIMATED_POINTS = 500000000;
+  public long QUERY_ADMISSION_TIMEOUT = 30000;
+  public double QUERY_DEFAULT_SERIES_RATE = 1.0;
+  public long QUERY_TIMEOUT = 60000;
+  public double PERCENTILE_COMPRESSION = 100;
+  public int PERCENTILE_EXACT_POINTS = 1000;
+  public int QUERY_AGGREGATION_THREADS = Runtime.getRuntime().availableProcessors();
+  public int QUERY_PARALLEL_BUCKET_POINTS = 1000000;
+  public int QUERY_PARALLEL_SERIES_POINTS = 100000;
+  public int COUNT_DISTINCT_EXACT_VALUES = 1000;
+  public int COUNT_DISTINCT_PRECISION = 12;
+  public int DELETE_THREADS = 4;
+  public int DELETE_BATCH_SERIES = 100;
+  public int DELETE_JOB_THREADS = 1;
+  public int DELETE_MAX_SERIES_PER_SECOND = 1000;
+  public boolean DELETE_TIME_RANGE = false;
 
   Config() {
 
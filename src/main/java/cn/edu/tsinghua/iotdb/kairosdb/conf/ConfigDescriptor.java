@@ -46,6 +46,33 @@ public class ConfigDescriptor {
         config.REST_PORT = properties.getProperty("REST_PORT", "localhost");
         config.STORAGE_GROUP_SIZE = Integer.parseInt(properties.getProperty("STORAGE_GROUP_SIZE", "50"));
         config.MAX_ROLLUP = Integer.parseInt(properties.getProperty("MAX_ROLLUP", config.MAX_ROLLUP + ""));
+        config.ROLLUP_THREADS = Integer.parseInt(properties.getProperty("ROLLUP_THREADS", config.ROLLUP_THREADS + ""));
+        config.ROLLUP_DELAY = Long.parseLong(properties.getProperty("ROLLUP_DELAY", config.ROLLUP_DELAY + ""));
+        config.ROLLUP_BATCH_WINDOWS = Integer.parseInt(properties.getProperty("ROLLUP_BATCH_WINDOWS", config.ROLLUP_BATCH_WINDOWS + ""));
+        config.ROLLUP_BACKFILL_THREADS = Integer.parseInt(properties.getProperty("ROLLUP_BACKFILL_THREADS", config.ROLLUP_BACKFILL_THREADS + ""));
+        config.ROLLUP_BACKFILL_POINTS_PER_SECOND = Long.parseLong(properties.getProperty("ROLLUP_BACKFILL_POINTS_PER_SECOND", config.ROLLUP_BACKFILL_POINTS_PER_SECOND + ""));
+        config.ROLLUP_REPAIR_INTERVAL = Long.parseLong(properties.getProperty("ROLLUP_REPAIR_INTERVAL", config.ROLLUP_REPAIR_INTERVAL + ""));
+        config.QUERY_THREADS = Integer.parseInt(properties.getProperty("QUERY_THREADS", config.QUERY_THREADS + ""));
+        config.QUERY_CHUNK_THREADS = Integer.parseInt(properties.getProperty("QUERY_CHUNK_THREADS", config.QUERY_CHUNK_THREADS + ""));
+        config.QUERY_CHUNK_POINTS = Long.parseLong(properties.getProperty("QUERY_CHUNK_POINTS", config.QUERY_CHUNK_POINTS + ""));
+        config.QUERY_MAX_CHUNKS = Integer.parseInt(properties.getProperty("QUERY_MAX_CHUNKS", config.QUERY_MAX_CHUNKS + ""));
+        config.QUERY_MAX_ESTIMATED_POINTS = Long.parseLong(properties.getProperty("QUERY_MAX_ESTIMATED_POINTS", config.QUERY_MAX_ESTIMATED_POINTS + ""));
+        config.QUERY_GLOBAL_ESTIMATED_POINTS = Long.parseLong(properties.getProperty("QUERY_GLOBAL_ESTIMATED_POINTS", config.QUERY_GLOBAL_ESTIMATED_POINTS + ""));
+        config.QUERY_ADMISSION_TIMEOUT = Long.parseLong(properties.getProperty("QUERY_ADMISSION_TIMEOUT", config.QUERY_ADMISSION_TIMEOUT + ""));
+        config.QUERY_DEFAULT_SERIES_RATE = Double.parseDouble(properties.getProperty("QUERY_DEFAULT_SERIES_RATE", config.QUERY_DEFAULT_SERIES_RATE + ""));
+        config.QUERY_TIMEOUT = Long.parseLong(properties.getProperty("QUERY_TIMEOUT", config.QUERY_TIMEOUT + ""));
+        config.PERCENTILE_COMPRESSION = Double.parseDouble(properties.getProperty("PERCENTILE_COMPRESSION", config.PERCENTILE_COMPRESSION + ""));
+        config.PERCENTILE_EXACT_POINTS = Integer.parseInt(properties.getProperty("PERCENTILE_EXACT_POINTS", config.PERCENTILE_EXACT_POINTS + ""));
+        config.QUERY_AGGREGATION_THREADS = Integer.parseInt(properties.getProperty("QUERY_AGGREGATION_THREADS", config.QUERY_AGGREGATION_THREADS + ""));
+        config.QUERY_PARALLEL_BUCKET_POINTS = Integer.parseInt(properties.getProperty("QUERY_PARALLEL_BUCKET_POINTS", config.QUERY_PARALLEL_BUCKET_POINTS + ""));
+        config.QUERY_PARALLEL_SERIES_POINTS = Integer.parseInt(properties.getProperty("QUERY_PARALLEL_SERIES_POINTS", config.QUERY_PARALLEL_SERIES_POINTS + ""));
+        config.COUNT_DISTINCT_EXACT_VALUES = Integer.parseInt(properties.getProperty("COUNT_DISTINCT_EXACT_VALUES", config.COUNT_DISTINCT_EXACT_VALUES + ""));
+        config.COUNT_DISTINCT_PRECISION = Integer.parseInt(properties.getProperty("COUNT_DISTINCT_PRECISION", config.COUNT_DISTINCT_PRECISION + ""));
+        config.DELETE_THREADS = Integer.parseInt(properties.getProperty("DELETE_THREADS", config.DELETE_THREADS + ""));
+        config.DELETE_BATCH_SERIES = Integer.parseInt(properties.getProperty("DELETE_BATCH_SERIES", config.DELETE_BATCH_SERIES + ""));
+        config.DELETE_JOB_THREADS = Integer.parseInt(properties.getProperty("DELETE_JOB_THREADS", config.DELETE_JOB_THREADS + ""));
+        config.DELETE_MAX_SERIES_PER_SECOND = Integer.parseInt(properties.getProperty("DELETE_MAX_SERIES_PER_SECOND", config.DELETE_MAX_SERIES_PER_SECOND + ""));
+        config.DELETE_TIME_RANGE = Boolean.parseBoolean(properties.getProperty("DELETE_TIME_RANGE", config.DELETE_TIME_RANGE + ""));
       } catch (IOException e) {
         LOGGER.error("load properties error: ", e);
       }
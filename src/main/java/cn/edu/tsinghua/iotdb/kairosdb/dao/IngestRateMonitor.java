@@ -0,0 +1,74 @@
+package cn.edu.tsinghua.iotdb.kairosdb.dao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks how many data points per second are written into every metric, so the cost of a query
+ * can be estimated before it runs.
+ */
+public class IngestRateMonitor {
+
+  // The length of the window over which the points are counted
+  private static final long WINDOW_MILLIS = 60_000L;
+
+  // <metric name, ingest rate>
+  private static final Map<String, IngestRate> rates = new ConcurrentHashMap<>();
+
+  private IngestRateMonitor() {
+  }
+
+  /**
+   * Record that some points of a metric have been written.
+   *
+   * @param metricName The name of the metric
+   * @param points The number of written points
+   */
+  public static void record(String metricName, long points) {
+    rates.computeIfAbsent(metricName, name -> new IngestRate()).add(points);
+  }
+
+  /**
+   * Get the recent ingest rate of a metric.
+   *
+   * @param metricName The name of the metric
+   * @return The points per second, or a negative number if no full window has been observed
+   */
+  public static double getPointsPerSecond(String metricName) {
+    IngestRate rate = rates.get(metricName);
+    if (rate == null) {
+      return -1;
+    }
+    return rate.get();
+  }
+
+  private static class IngestRate {
+
+    private long windowStart = System.currentTimeMillis();
+    private long points;
+    private double pointsPerSecond = -1;
+
+    synchronized void add(long count) {
+      roll();
+      points += count;
+    }
+
+    synchronized double get() {
+      roll();
+      return pointsPerSecond;
+    }
+
+    private void roll() {
+      long now = System.currentTimeMillis();
+      long elapsed = now - windowStart;
+      if (elapsed < WINDOW_MILLIS) {
+        return;
+      }
+      double observed = points * 1000.0 / elapsed;
+      pointsPerSecond = pointsPerSecond < 0 ? observed : (pointsPerSecond + observed) / 2;
+      windowStart = now;
+      points = 0;
+    }
+  }
+
+}
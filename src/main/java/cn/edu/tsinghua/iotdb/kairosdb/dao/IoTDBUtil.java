@@ -4,6 +4,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +22,10 @@ public class IoTDBUtil {
 
   private static Connection connection;
 
+  // Idle connections shared by the query, chunk, delete and roll-up threads and the ingestion. It
+  // holds at most as many connections as have been borrowed at the same time
+  private static final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+
   private IoTDBUtil() {
   }
 
@@ -42,11 +48,44 @@ public class IoTDBUtil {
     return connection;
   }
 
+  /**
+   * Borrow a connection which is used by only one thread at a time. It must be given back by
+   * {@link #releaseConnection(Connection)}, or by {@link #discardConnection(Connection)} if it may
+   * have been broken.
+   */
+  public static Connection borrowConnection() throws SQLException, ClassNotFoundException {
+    Connection conn = idleConnections.poll();
+    while (conn != null && conn.isClosed()) {
+      conn = idleConnections.poll();
+    }
+    return conn == null ? getNewConnection() : conn;
+  }
+
+  public static void releaseConnection(Connection conn) {
+    if (conn != null) {
+      idleConnections.offer(conn);
+    }
+  }
+
+  public static void discardConnection(Connection conn) {
+    try {
+      if (conn != null) {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      LOGGER.error(e.getMessage());
+    }
+  }
+
   public static void closeConnection() {
     try {
       if (connection != null) {
         connection.close();
       }
+      Connection conn;
+      while ((conn = idleConnections.poll()) != null) {
+        conn.close();
+      }
     } catch (SQLException e) {
       LOGGER.error(e.getMessage());
     }
@@ -5,6 +5,7 @@ import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.DeleteSqlBuilder;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUp;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpException;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpRecovery;
@@ -41,6 +42,8 @@ public class MetricsManager {
   // The SQL will be used to create rollup persistence data
   private static final String ROLLUP_CREATE_SQL = "CREATE TIMESERIES root.SYSTEM.ROLLUP.%s WITH DATATYPE=%s, ENCODING=%s";
   private static final String JSON = "json";
+  private static final String WATERMARK = "watermark";
+  private static final String[] BACKFILL = {"backfill_start", "backfill_end", "backfill_done"};
 
   // The constants of encoding methods
   private static final String TEXT_ENCODING = "PLAIN";
@@ -99,6 +102,23 @@ public class MetricsManager {
           System.exit(1);
         }
 
+        // Databases created before the rollup watermarks and backfills don't have their
+        // TIMESERIES yet
+        try {
+          statement.execute(
+              String.format(ROLLUP_CREATE_SQL, WATERMARK, "INT64", INT64_ENCODING));
+        } catch (SQLException ignore) {
+          // Already created
+        }
+        for (String backfill : BACKFILL) {
+          try {
+            statement.execute(
+                String.format(ROLLUP_CREATE_SQL, backfill, "INT64", INT64_ENCODING));
+          } catch (SQLException ignore) {
+            // Already created
+          }
+        }
+
         // Read the rollup tasks
         RollUpStoreImpl rollUpStore = new RollUpStoreImpl();
 
@@ -138,6 +158,10 @@ public class MetricsManager {
 
         // Create timeseries to persistence rollup tasks
         statement.execute(String.format(ROLLUP_CREATE_SQL, JSON, "TEXT", TEXT_ENCODING));
+        statement.execute(String.format(ROLLUP_CREATE_SQL, WATERMARK, "INT64", INT64_ENCODING));
+        for (String backfill : BACKFILL) {
+          statement.execute(String.format(ROLLUP_CREATE_SQL, backfill, "INT64", INT64_ENCODING));
+        }
       }
 
     } catch (SQLException e) {
@@ -189,11 +213,28 @@ public class MetricsManager {
   }
 
   public static void addDataPoints(MetricResult metric, String metricName) {
-    try (Connection conn = IoTDBUtil.getNewConnection()) {
+    try {
+      writeDataPoints(metric, metricName);
+    } catch (SQLException | ClassNotFoundException e) {
+      LOGGER.error(String.format(ERROR_OUTPUT_FORMATTER, e.getClass().getName(), e.getMessage()));
+    }
+  }
 
+  /**
+   * Write the data points of a query result as the metric, one batch of inserts per series, on a
+   * pooled connection.
+   *
+   * @throws SQLException if a batch failed, the points of the next series are not written then
+   */
+  public static void writeDataPoints(MetricResult metric, String metricName)
+      throws SQLException, ClassNotFoundException {
+    Connection conn = IoTDBUtil.borrowConnection();
+    boolean broken = true;
+    try {
       for (MetricValueResult valueResult : metric.getResults()) {
         if ((valueResult.isTextType() && metric.getResults().size() > 1)
-            || valueResult.getDatapoints() == null || valueResult.getDatapoints().get(0) == null) {
+            || valueResult.getDatapoints() == null || valueResult.getDatapoints().isEmpty()
+            || valueResult.getDatapoints().get(0) == null) {
           continue;
         }
         Map<String, String> tag = new HashMap<>();
@@ -203,70 +244,106 @@ public class MetricsManager {
 
         String path = generatePath(tag, orderTagKeyMap);
 
-        Statement statement = conn.createStatement();
-
-        for (QueryDataPoint point : valueResult.getDatapoints()) {
-          String insertingSql = String
-              .format("insert into root.%s%s(timestamp,%s) values(%s,%s);",
-                  getStorageGroupName(path),
-                  path, metricName, point.getTimestamp(), point.getAsString());
-          statement.addBatch(insertingSql);
-        }
-
-        String type;
-        switch (valueResult.getDatapoints().get(0).getType()) {
-          case Types.INTEGER:
-            type = "long";
-            break;
-          case Types.DOUBLE:
-            type = "double";
-            break;
-          default:
-            type = "text";
-            break;
-        }
-
-        createNewMetricAndIgnoreErrors(metricName, path, type);
+        try (Statement statement = conn.createStatement()) {
+          for (QueryDataPoint point : valueResult.getDatapoints()) {
+            // Text values are quoted, and must not hold single quotes
+            String value = point.getType() == Types.VARCHAR ? "'" + point.getAsString() + "'"
+                : point.getAsString();
+            String insertingSql = String
+                .format("insert into root.%s%s(timestamp,%s) values(%s,%s);",
+                    getStorageGroupName(path),
+                    path, metricName, point.getTimestamp(), value);
+            statement.addBatch(insertingSql);
+          }
 
-        statement.executeBatch();
+          String type;
+          switch (valueResult.getDatapoints().get(0).getType()) {
+            case Types.INTEGER:
+              type = "long";
+              break;
+            case Types.DOUBLE:
+              type = "double";
+              break;
+            default:
+              type = "text";
+              break;
+          }
 
-        statement.close();
+          createNewMetricAndIgnoreErrors(metricName, path, type);
 
+          statement.executeBatch();
+        }
+      }
+      broken = false;
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(conn);
+      } else {
+        IoTDBUtil.releaseConnection(conn);
       }
-
-    } catch (SQLException | ClassNotFoundException e) {
-      LOGGER.error(String.format(ERROR_OUTPUT_FORMATTER, e.getClass().getName(), e.getMessage()));
     }
   }
 
-  public static void deleteMetric(String metricName) {
-    try (Connection conn = IoTDBUtil.getNewConnection()) {
-
-      Statement statement = conn.createStatement();
-
-      Map<String, Integer> mapping = tagOrder.getOrDefault(metricName, null);
-
-      if (mapping == null) {
-        return;
-      }
+  /**
+   * Add all the series of the metric, at every depth of its tags, to the series to delete.
+   *
+   * @return false if the metric is unknown
+   * @throws SQLException if the series can't be listed, so that none of them is missed
+   */
+  public static boolean appendMetricSeries(String metricName, DeleteSqlBuilder builder)
+      throws SQLException, ClassNotFoundException {
+    Map<String, Integer> mapping = tagOrder.getOrDefault(metricName, null);
 
-      int size = mapping.size();
+    if (mapping == null) {
+      return false;
+    }
 
-      for (int i = 0; i <= size; i++) {
-        StringBuilder builder = new StringBuilder("DELETE TIMESERIES root.*");
-        builder.append(".");
-        for (int j = 0; j < i; j++) {
-          builder.append("*.");
+    Connection connection = null;
+    // The connection is given back only if it is still usable
+    boolean broken = true;
+    try {
+      connection = IoTDBUtil.borrowConnection();
+      try (Statement statement = connection.createStatement()) {
+        int size = mapping.size();
+
+        for (int i = 0; i <= size; i++) {
+          StringBuilder path = new StringBuilder("root.*");
+          path.append(".");
+          for (int j = 0; j < i; j++) {
+            path.append("*.");
+          }
+          path.append(metricName);
+          try {
+            statement.execute(String.format("SHOW TIMESERIES %s", path));
+          } catch (SQLException e) {
+            // A path without series fails, any other failure is one of the connection or the
+            // server, which also fails on the system series that always exist
+            statement.execute(String.format("SHOW TIMESERIES root.%s", "SYSTEM"));
+            continue;
+          }
+          ResultSet rs = statement.getResultSet();
+          while (rs.next()) {
+            builder.appendSeries(rs.getString(1));
+          }
         }
-        builder.append(metricName);
-        executeAndIgnoreException(statement, builder.toString());
       }
+      broken = false;
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
+    }
 
-      tagOrder.remove(metricName);
+    return true;
+  }
 
-    } catch (SQLException | ClassNotFoundException e) {
-      LOGGER.error(String.format(ERROR_OUTPUT_FORMATTER, e.getClass().getName(), e.getMessage()));
-    }
+  /**
+   * Forget the tag order of a metric whose series have been deleted.
+   */
+  public static void removeMetric(String metricName) {
+    tagOrder.remove(metricName);
   }
 
   /**
@@ -369,14 +446,6 @@ public class MetricsManager {
     return String.format("%s%s", STORAGE_GROUP_PREFIX, Math.abs(hashCode) % storageGroupSize);
   }
 
-  private static void executeAndIgnoreException(Statement statement, String sql) {
-    try {
-      statement.execute(sql);
-    } catch (SQLException ignore) {
-      // Ignore
-    }
-  }
-
   /**
    * Close the statement no matter whether it is open and ignore any exception.
    *
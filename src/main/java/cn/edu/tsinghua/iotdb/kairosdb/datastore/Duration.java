@@ -52,7 +52,7 @@ public class Duration {
   public Duration() {
   }
 
-  public Duration(int value, TimeUnit unit) {
+  public Duration(long value, TimeUnit unit) {
     this.value = value;
     this.unit = unit;
   }
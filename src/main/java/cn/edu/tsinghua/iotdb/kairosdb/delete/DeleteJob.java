@@ -0,0 +1,137 @@
+package cn.edu.tsinghua.iotdb.kairosdb.delete;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.DeleteSqlBuilder;
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A delete running in the background and its progress, which is serialized as the response of
+ * the status endpoint. The counters are updated by the threads deleting from the storage groups.
+ */
+public class DeleteJob {
+
+  public enum Status {
+    @SerializedName("queued")
+    QUEUED,
+    @SerializedName("running")
+    RUNNING,
+    @SerializedName("done")
+    DONE,
+    @SerializedName("failed")
+    FAILED
+  }
+
+  @SerializedName("id")
+  private final String id;
+
+  // datapoints or metric
+  @SerializedName("type")
+  private final String type;
+
+  @SerializedName("status")
+  private volatile Status status = Status.QUEUED;
+
+  @SerializedName("series_total")
+  private int seriesTotal;
+
+  @SerializedName("series_processed")
+  private int seriesProcessed;
+
+  @SerializedName("submitted_time")
+  private long submittedTime = System.currentTimeMillis();
+
+  // From the start of the job to its end, or to now while it runs
+  @SerializedName("elapsed_ms")
+  private long elapsed;
+
+  @SerializedName("failures")
+  private final List<String> failures = new ArrayList<>();
+
+  private transient long startTime;
+  private transient long endTime;
+
+  private final transient SeriesResolver resolver;
+  private final transient Runnable onSuccess;
+
+  DeleteJob(String id, String type, SeriesResolver resolver, Runnable onSuccess) {
+    this.id = id;
+    this.type = type;
+    this.resolver = resolver;
+    this.onSuccess = onSuccess;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  SeriesResolver getResolver() {
+    return resolver;
+  }
+
+  Runnable getOnSuccess() {
+    return onSuccess;
+  }
+
+  synchronized void start() {
+    startTime = System.currentTimeMillis();
+    status = Status.RUNNING;
+  }
+
+  synchronized void setSeriesTotal(int seriesTotal) {
+    this.seriesTotal = seriesTotal;
+  }
+
+  synchronized void recordProcessed(int series) {
+    seriesProcessed += series;
+  }
+
+  synchronized void recordFailure(String failure) {
+    failures.add(failure);
+  }
+
+  synchronized boolean hasFailed() {
+    return !failures.isEmpty();
+  }
+
+  synchronized void finish() {
+    endTime = System.currentTimeMillis();
+    status = failures.isEmpty() ? Status.DONE : Status.FAILED;
+  }
+
+  boolean isFinished() {
+    return status == Status.DONE || status == Status.FAILED;
+  }
+
+  /**
+   * Take a consistent copy of the progress to serialize.
+   */
+  synchronized DeleteJob snapshot() {
+    DeleteJob copy = new DeleteJob(id, type, null, null);
+    copy.submittedTime = submittedTime;
+    copy.status = status;
+    copy.seriesTotal = seriesTotal;
+    copy.seriesProcessed = seriesProcessed;
+    copy.failures.addAll(failures);
+    if (startTime > 0) {
+      copy.elapsed = (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+    return copy;
+  }
+
+  /**
+   * Resolves the series a job deletes from when it starts, not when it is submitted.
+   */
+  interface SeriesResolver {
+
+    /**
+     * @return the builder holding the series and the statements to run on them
+     */
+    DeleteSqlBuilder resolve() throws Exception;
+  }
+
+}
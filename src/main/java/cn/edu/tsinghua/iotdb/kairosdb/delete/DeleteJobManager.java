@@ -0,0 +1,267 @@
+package cn.edu.tsinghua.iotdb.kairosdb.delete;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryExecutor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.DeleteSqlBuilder;
+import cn.edu.tsinghua.iotdb.kairosdb.util.RateLimiter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the deletes of data points and metrics as background jobs, so a large delete doesn't hold
+ * the request until it is done. The jobs run one at a time by default, their storage groups are
+ * deleted from concurrently by a few low priority threads, and the series deleted per second are
+ * capped for all jobs together, so deletes don't starve the ingestion.
+ *
+ * <p>The last jobs are kept with their progress, see {@link #getJob(String)}.
+ */
+public class DeleteJobManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeleteJobManager.class);
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  private static final int MAX_KEPT_JOBS = 1000;
+
+  private static final String TYPE_DATA_POINTS = "datapoints";
+  private static final String TYPE_METRIC = "metric";
+
+  private final ExecutorService jobPool = Executors
+      .newFixedThreadPool(config.DELETE_JOB_THREADS, new DeleteThreadFactory("delete-job-"));
+
+  // Deletes from the storage groups of the running jobs
+  private final ExecutorService storageGroupPool = Executors
+      .newFixedThreadPool(config.DELETE_THREADS, new DeleteThreadFactory("delete-worker-"));
+
+  // Shared by all the jobs, in series per second
+  private final RateLimiter throttle = new RateLimiter(config.DELETE_MAX_SERIES_PER_SECOND);
+
+  // <id, job>, in submission order
+  private final Map<String, DeleteJob> jobs = new LinkedHashMap<String, DeleteJob>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, DeleteJob> eldest) {
+      return size() > MAX_KEPT_JOBS && eldest.getValue().isFinished();
+    }
+  };
+
+  private static class DeleteJobManagerHolder {
+
+    private static final DeleteJobManager INSTANCE = new DeleteJobManager();
+  }
+
+  public static DeleteJobManager getInstance() {
+    return DeleteJobManagerHolder.INSTANCE;
+  }
+
+  private DeleteJobManager() {
+  }
+
+  /**
+   * Submit the delete of the data points a query selects.
+   *
+   * @return the id of the job
+   */
+  public String submitDataPoints(QueryExecutor executor) {
+    return submit(TYPE_DATA_POINTS, () -> {
+      DeleteSqlBuilder builder = new DeleteSqlBuilder(executor.getStartTime(),
+          executor.getEndTime());
+      executor.appendDeletedSeries(builder);
+      return builder;
+    }, null);
+  }
+
+  /**
+   * Submit the delete of all the series of a metric. Its tags are forgotten once all of them have
+   * been deleted, so a job which failed can be submitted again.
+   *
+   * @return the id of the job
+   */
+  public String submitMetric(String metricName) {
+    return submit(TYPE_METRIC, () -> {
+      DeleteSqlBuilder builder = new DeleteSqlBuilder();
+      if (!MetricsManager.appendMetricSeries(metricName, builder)) {
+        LOGGER.info("Metric {} of delete job is unknown, there is nothing to delete", metricName);
+      }
+      return builder;
+    }, () -> MetricsManager.removeMetric(metricName));
+  }
+
+  /**
+   * @return a copy of the progress of the job, or null if it is unknown
+   */
+  public DeleteJob getJob(String id) {
+    DeleteJob job;
+    synchronized (jobs) {
+      job = jobs.get(id);
+    }
+    return job == null ? null : job.snapshot();
+  }
+
+  private String submit(String type, DeleteJob.SeriesResolver resolver, Runnable onSuccess) {
+    DeleteJob job = new DeleteJob(UUID.randomUUID().toString(), type, resolver, onSuccess);
+    synchronized (jobs) {
+      jobs.put(job.getId(), job);
+    }
+    jobPool.submit(() -> run(job));
+    return job.getId();
+  }
+
+  private void run(DeleteJob job) {
+    job.start();
+    // Set once the series are resolved and every batch of every storage group is deleted
+    boolean complete = false;
+    try {
+      DeleteSqlBuilder builder = job.getResolver().resolve();
+      job.setSeriesTotal(builder.size());
+
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (Map.Entry<String, List<List<String>>> entry : builder
+          .batch(config.DELETE_BATCH_SERIES).entrySet()) {
+        futures.add(storageGroupPool
+            .submit(() -> deleteStorageGroup(job, builder, entry.getKey(), entry.getValue())));
+      }
+      complete = true;
+      // Wait for all the storage groups, even after one of them has failed
+      for (Future<Boolean> future : futures) {
+        try {
+          complete &= future.get();
+        } catch (ExecutionException e) {
+          LOGGER.error("Failed to run delete job {}", job.getId(), e.getCause());
+          job.recordFailure(e.getCause().getMessage());
+          complete = false;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      job.recordFailure("Delete has been interrupted");
+      complete = false;
+    } catch (Exception e) {
+      LOGGER.error("Failed to resolve the series of delete job {}", job.getId(), e);
+      job.recordFailure(String.format("Failed to resolve the series: %s", e.getMessage()));
+    }
+
+    if (complete && job.getOnSuccess() != null) {
+      job.getOnSuccess().run();
+    }
+    job.finish();
+    LOGGER.info("Delete job {} has finished: {}", job.getId(), job.getStatus());
+  }
+
+  /**
+   * Run the batches of one storage group in order. A failed batch is recorded and the next ones
+   * still run.
+   *
+   * @return true if every batch has been deleted
+   */
+  private boolean deleteStorageGroup(DeleteJob job, DeleteSqlBuilder builder,
+      String storageGroup, List<List<String>> batches) {
+    boolean complete = true;
+    Connection connection = null;
+    // The connection is given back only if it is still usable
+    boolean broken = true;
+    try {
+      connection = IoTDBUtil.borrowConnection();
+      try (Statement statement = connection.createStatement()) {
+        for (List<String> batch : batches) {
+          throttle.acquire(batch.size());
+          try {
+            if (builder.hasLowerBound() && !config.DELETE_TIME_RANGE) {
+              writeTombstones(statement, builder, batch);
+            } else {
+              statement.execute(builder.toSql(batch));
+            }
+          } catch (SQLException e) {
+            LOGGER.error("Failed to delete from {}: {}", storageGroup, e.getMessage());
+            job.recordFailure(
+                String.format("Failed to delete from %s: %s", storageGroup, e.getMessage()));
+            complete = false;
+          }
+          job.recordProcessed(batch.size());
+        }
+      }
+      broken = false;
+    } catch (SQLException | ClassNotFoundException e) {
+      job.recordFailure(
+          String.format("Failed to delete from %s: %s", storageGroup, e.getMessage()));
+      complete = false;
+    } catch (InterruptedException e) {
+      broken = false;
+      Thread.currentThread().interrupt();
+      job.recordFailure("Delete has been interrupted");
+      complete = false;
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * Overwrite the points of the range of every series of a batch by tombstones, on the servers
+   * which can't delete a time range.
+   */
+  private static void writeTombstones(Statement statement, DeleteSqlBuilder builder,
+      List<String> batch) throws SQLException {
+    for (String path : batch) {
+      statement.execute(builder.toSelectSql(path));
+      List<String> timestamps = new ArrayList<>();
+      int type;
+      try (ResultSet rs = statement.getResultSet()) {
+        type = rs.getMetaData().getColumnType(2);
+        while (rs.next()) {
+          if (rs.getString(2) != null) {
+            timestamps.add(rs.getString(1));
+          }
+        }
+      }
+      if (timestamps.isEmpty()) {
+        continue;
+      }
+      for (String timestamp : timestamps) {
+        statement.addBatch(DeleteSqlBuilder.toTombstoneSql(path, timestamp, type));
+      }
+      statement.executeBatch();
+    }
+  }
+
+  private static class DeleteThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    DeleteThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  }
+
+}
@@ -3,6 +3,7 @@ package cn.edu.tsinghua.iotdb.kairosdb.http.rest;
 import static cn.edu.tsinghua.iotdb.kairosdb.http.rest.MetricsResource.setHeaders;
 
 import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryStats;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -46,4 +47,17 @@ public class HealthCheckResource {
     return setHeaders(responseBuilder).build();
   }
 
+  @GET
+  @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+  @Path("query_stats")
+  public Response queryStats() {
+    String body = String.format(
+        "{\"executed\":%s,\"rejected\":%s,\"timed_out\":%s,\"cancelled\":%s}",
+        QueryStats.getExecuted(), QueryStats.getRejected(), QueryStats.getTimedOut(),
+        QueryStats.getCancelled());
+    Response.ResponseBuilder responseBuilder = Response.status(Status.OK)
+        .entity(body);
+    return setHeaders(responseBuilder).build();
+  }
+
 }
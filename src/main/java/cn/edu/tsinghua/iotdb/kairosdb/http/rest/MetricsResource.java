@@ -1,26 +1,35 @@
 package cn.edu.tsinghua.iotdb.kairosdb.http.rest;
 
 import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.delete.DeleteJob;
+import cn.edu.tsinghua.iotdb.kairosdb.delete.DeleteJobManager;
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.DataPointsParser;
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.ErrorResponse;
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.JsonResponseBuilder;
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.ValidationErrors;
 import cn.edu.tsinghua.iotdb.kairosdb.query.Query;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryCancelledException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryExecutor;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryParser;
-import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryRejectedException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryResultWriter;
 import com.alibaba.fastjson.JSON;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.MalformedJsonException;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,6 +43,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
@@ -41,6 +51,9 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +64,8 @@ public class MetricsResource {
 
   private static final String QUERY_URL = "/datapoints/query";
 
+  private static final String DELETE_URL = "/datapoints/delete";
+
   private static final String NO_CACHE = "no-cache";
 
   //These two are used to track rate of ingestion
@@ -60,6 +75,10 @@ public class MetricsResource {
   //Used for parsing incoming metrics
   private final Gson gson;
 
+  // The HTTP request being served, whose connection is aborted if a streamed result fails
+  @Context
+  private Request request;
+
   @Inject
   public MetricsResource() {
     GsonBuilder builder = new GsonBuilder();
@@ -150,23 +169,47 @@ public class MetricsResource {
 
 
 
+  /**
+   * Submit the delete of the data points the query selects as a background job. The response
+   * holds the id of the job, whose progress is given by {@link #getDeleteJob(String)}.
+   */
   @POST
   @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
-  @Path("/datapoints/delete")
+  @Path(DELETE_URL)
   public Response delete(String queryJson) {
     if (queryJson == null) {
       return setHeaders(Response.status(Status.BAD_REQUEST)).build();
     }
 
+    Query query;
     try {
       QueryParser parser = new QueryParser();
-      Query query = parser.parseQueryMetric(queryJson);
-      new QueryExecutor(query).delete();
+      query = parser.parseQueryMetric(queryJson);
     } catch (QueryException | BeanValidationException e) {
       return setHeaders(Response.status(Status.BAD_REQUEST)).build();
     }
 
-    return setHeaders(Response.status(Status.NO_CONTENT)).build();
+    String id = DeleteJobManager.getInstance().submitDataPoints(new QueryExecutor(query));
+    return createDeleteJobResponse(id);
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+  @Path(DELETE_URL + "/{id}")
+  public Response getDeleteJob(@PathParam("id") String id) {
+    DeleteJob job = DeleteJobManager.getInstance().getJob(id);
+    if (job == null) {
+      JsonResponseBuilder builder = new JsonResponseBuilder(Status.NOT_FOUND);
+      return builder.addError("Delete job not found for id " + id).build();
+    }
+    return setHeaders(Response.status(Status.OK).entity(gson.toJson(job))).build();
+  }
+
+  private Response createDeleteJobResponse(String id) {
+    Map<String, String> entity = new LinkedHashMap<>();
+    entity.put("id", id);
+    entity.put("status_url", "/api/v1" + DELETE_URL + "/" + id);
+    return setHeaders(Response.status(Status.ACCEPTED).entity(gson.toJson(entity))).build();
   }
 
   @GET
@@ -194,8 +237,8 @@ public class MetricsResource {
       QueryParser parser = new QueryParser();
       Query query = parser.parseQueryMetric(jsonStr);
       QueryExecutor executor = new QueryExecutor(query);
-      QueryResult result = executor.execute();
-      String entity = parser.parseResultToJson(result);
+      Connection<?> connection = request.getContext().getConnection();
+      StreamingOutput entity = output -> streamQueryResult(executor, connection, output);
       return Response.status(Status.OK)
           .header("Access-Control-Allow-Origin", "*")
           .header("Pragma", NO_CACHE)
@@ -213,6 +256,77 @@ public class MetricsResource {
     }
   }
 
+  /**
+   * Write the result of every metric as soon as it is computed. Nothing is written before the
+   * first metric is done, so a query failing before it is answered with a proper error response.
+   * Once a part of the result has been sent, the status can't change anymore, so a failure aborts
+   * the connection rather than ending the truncated document as if it were complete.
+   */
+  private void streamQueryResult(QueryExecutor executor, Connection<?> connection,
+      OutputStream output) throws IOException {
+    SentOutputStream sent = new SentOutputStream(output);
+    QueryResultWriter writer = new QueryResultWriter(new BufferedWriter(
+        new OutputStreamWriter(sent, StandardCharsets.UTF_8)));
+    try {
+      executor.execute(writer::writeMetricResult);
+      writer.endQueries();
+    } catch (QueryException | IOException | RuntimeException e) {
+      if (sent.isSent()) {
+        logger.error("Query failed after a part of its result has been sent, aborting", e);
+        connection.terminateSilently();
+        throw new IOException("Query result has been aborted", e);
+      }
+      throw toWebApplicationException(e);
+    }
+    writer.close();
+  }
+
+  private static WebApplicationException toWebApplicationException(Exception e) {
+    Status status;
+    if (e instanceof QueryCancelledException) {
+      status = ((QueryCancelledException) e).isTimedOut() ? Status.GATEWAY_TIMEOUT
+          : Status.SERVICE_UNAVAILABLE;
+    } else if (e instanceof QueryRejectedException) {
+      status = ((QueryRejectedException) e).isRetryable() ? Status.SERVICE_UNAVAILABLE
+          : Status.BAD_REQUEST;
+    } else if (e instanceof QueryException) {
+      status = Status.BAD_REQUEST;
+    } else {
+      logger.error("Query failed", e);
+      status = Status.INTERNAL_SERVER_ERROR;
+    }
+    JsonResponseBuilder builder = new JsonResponseBuilder(status);
+    return new WebApplicationException(e, builder.addError(e.getMessage()).build());
+  }
+
+  /**
+   * Records whether anything has been written to the response.
+   */
+  private static class SentOutputStream extends FilterOutputStream {
+
+    private boolean sent;
+
+    SentOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    boolean isSent() {
+      return sent;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      sent = true;
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      sent = true;
+      out.write(b, off, len);
+    }
+  }
+
   @GET
   @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
   @Path("/metricnames")
@@ -240,8 +354,7 @@ public class MetricsResource {
   @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
   @Path("/metric/{metricName}")
   public Response metricDelete(@PathParam("metricName") String metricName) {
-    MetricsManager.deleteMetric(metricName);
-    return setHeaders(Response.status(Response.Status.NO_CONTENT)).build();
+    return createDeleteJobResponse(DeleteJobManager.getInstance().submitMetric(metricName));
   }
 
 }
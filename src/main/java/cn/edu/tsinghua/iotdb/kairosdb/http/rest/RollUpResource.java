@@ -6,11 +6,16 @@ import static cn.edu.tsinghua.iotdb.kairosdb.util.Preconditions.checkNotNullOrEm
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.ErrorResponse;
 import cn.edu.tsinghua.iotdb.kairosdb.http.rest.json.JsonResponseBuilder;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUp;
+import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpBackfill;
+import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpBackfillExecutor;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpParser;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpStore;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpStoreImpl;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpsExecutor;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpResponse;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import java.util.Map;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -34,6 +39,7 @@ public class RollUpResource {
   private RollUpStore store = new RollUpStoreImpl();
   private static final String RESOURCE_URL = "/api/v1/rollups/";
   private static final String RESOURCE_NOT_FOUND = "Resource not found for id ";
+  private static final String BACKFILL_URL = "/backfill";
 
   @POST
   @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
@@ -115,6 +121,7 @@ public class RollUpResource {
       checkNotNullOrEmpty(id);
       if (RollUpsExecutor.getInstance().containsRollup(id)) {
         RollUpsExecutor.getInstance().delete(id);
+        RollUpBackfillExecutor.getInstance().cancel(id);
         store.remove(id);
         return setHeaders(Response.status(Status.NO_CONTENT)).build();
       } else {
@@ -154,6 +161,63 @@ public class RollUpResource {
     }
   }
 
+  /**
+   * Roll up the history of the task, from start_absolute to end_absolute, or to where the task
+   * started rolling up when end_absolute is omitted. The backfill runs in the background; without
+   * start_absolute the last backfill of the task is resumed if it has not finished.
+   */
+  @POST
+  @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+  @Path("{id}" + BACKFILL_URL)
+  public Response backfill(@PathParam("id") String id, String json) {
+    checkNotNullOrEmpty(id);
+    try {
+      if (!RollUpsExecutor.getInstance().containsRollup(id)) {
+        JsonResponseBuilder builder = new JsonResponseBuilder(Status.BAD_REQUEST);
+        return builder.addError(RESOURCE_NOT_FOUND + id).build();
+      }
+      RollUp task = store.read(id);
+      JsonObject range = json == null || json.trim().isEmpty() ? new JsonObject()
+          : new JsonParser().parse(json).getAsJsonObject();
+
+      RollUpBackfill backfill;
+      if (range.has("start_absolute")) {
+        Long end = range.has("end_absolute") ? range.get("end_absolute").getAsLong() : null;
+        backfill = RollUpBackfillExecutor.getInstance()
+            .start(task, range.get("start_absolute").getAsLong(), end);
+      } else {
+        backfill = RollUpBackfillExecutor.getInstance().resume(task);
+        if (backfill == null) {
+          JsonResponseBuilder builder = new JsonResponseBuilder(Status.BAD_REQUEST);
+          return builder.addError("No unfinished backfill to resume for id " + id).build();
+        }
+      }
+      return setHeaders(Response.status(Status.ACCEPTED).entity(parser.getGson().toJson(backfill)))
+          .build();
+    } catch (JsonParseException | IllegalArgumentException | IllegalStateException e) {
+      JsonResponseBuilder builder = new JsonResponseBuilder(Status.BAD_REQUEST);
+      return builder.addError(e.getMessage()).build();
+    } catch (Exception e) {
+      logger.error("Failed to backfill roll-up.", e);
+      JsonResponseBuilder builder = new JsonResponseBuilder(Status.INTERNAL_SERVER_ERROR);
+      return builder.addError(e.getMessage()).build();
+    }
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+  @Path("{id}" + BACKFILL_URL)
+  public Response getBackfill(@PathParam("id") String id) {
+    checkNotNullOrEmpty(id);
+    RollUpBackfill backfill = RollUpBackfillExecutor.getInstance().get(id);
+    if (backfill == null) {
+      return setHeaders(Response.status(Status.NOT_FOUND)
+          .entity(new ErrorResponse(RESOURCE_NOT_FOUND + id))).build();
+    }
+    return setHeaders(Response.status(Status.OK).entity(parser.getGson().toJson(backfill)))
+        .build();
+  }
+
   private RollUpResponse createResponse(RollUp task) {
     return new RollUpResponse(task.getId(), task.getName(), RESOURCE_URL + task.getId());
   }
@@ -1,7 +1,9 @@
 package cn.edu.tsinghua.iotdb.kairosdb.http.rest.json;
 
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IngestRateMonitor;
 import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
 import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.rollup.ContinuousRollUps;
 import cn.edu.tsinghua.iotdb.kairosdb.util.Util;
 import cn.edu.tsinghua.iotdb.kairosdb.util.ValidationException;
 import cn.edu.tsinghua.iotdb.kairosdb.util.Validator;
@@ -17,7 +19,9 @@ import java.io.IOException;
 import java.io.Reader;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +39,10 @@ public class DataPointsParser {
   private Map<String, Map<String, String>> tableMap = new HashMap<>();
   // <path, type>
   private Map<String, String> seriesPaths = new HashMap<>();
+  // <metric, number of points>, reported to the IngestRateMonitor
+  private Map<String, Long> metricPointCounts = new HashMap<>();
+  // The points of the metrics continuous roll-ups read, fed to them once written
+  private List<RollUpPoint> rollUpPoints = new ArrayList<>();
 
   private static final String TABLE_MAP_KEY_SPLIT = "%";
 
@@ -87,15 +95,19 @@ public class DataPointsParser {
     //LOGGER.info("请求id:{}, 解析整个写入请求的JSON时间: {} ms", id, ingestTime);
 
     //start = System.currentTimeMillis();
+    boolean sent = false;
     try {
       sendMetricsData();
+      sent = true;
     } catch (SQLException e) {
       try {
         createTimeSeries();
         sendMetricsData();
+        sent = true;
       } catch (SQLException ex) {
         try {
           sendMetricsData();
+          sent = true;
         } catch (SQLException exc) {
           LOGGER.error("Exception occur:", exc);
         }
@@ -104,6 +116,15 @@ public class DataPointsParser {
             String.format("%s: %s", ex.getClass().getName(), ex.getMessage()));
       }
     }
+    for (Map.Entry<String, Long> entry : metricPointCounts.entrySet()) {
+      IngestRateMonitor.record(entry.getKey(), entry.getValue());
+    }
+    if (sent) {
+      for (RollUpPoint point : rollUpPoints) {
+        ContinuousRollUps.getInstance()
+            .offer(point.name, point.tags, point.timestamp, point.value, point.integer);
+      }
+    }
     //long elapse = System.currentTimeMillis() - start;
     //LOGGER.info("请求id:{}, IoTDB JDBC 执行时间: {} ms", id, elapse);
 
@@ -220,6 +241,19 @@ public class DataPointsParser {
       metricValueMap.put(name, value);
       tableMap.put(tableMapKey, metricValueMap);
     }
+    metricPointCounts.merge(name, 1L, Long::sum);
+
+    if ((type.equals("long") || type.equals("double"))
+        && ContinuousRollUps.getInstance().isWatched(name)) {
+      try {
+        // A long is parsed as IoTDB parses an INT64, so e.g. 1e3 is rejected by both
+        boolean integer = type.equals("long");
+        double number = integer ? Long.parseLong(value) : Double.parseDouble(value);
+        rollUpPoints.add(new RollUpPoint(name, tags, timestamp, number, integer));
+      } catch (NumberFormatException ignore) {
+        // Not a number, which IoTDB rejects as well
+      }
+    }
 
     return validationErrors;
   }
@@ -460,6 +494,24 @@ public class DataPointsParser {
     }
   }
 
+  private static class RollUpPoint {
+
+    private final String name;
+    private final Map<String, String> tags;
+    private final long timestamp;
+    private final double value;
+    private final boolean integer;
+
+    RollUpPoint(String name, Map<String, String> tags, long timestamp, double value,
+        boolean integer) {
+      this.name = name;
+      this.tags = tags;
+      this.timestamp = timestamp;
+      this.value = value;
+      this.integer = integer;
+    }
+  }
+
   private static class NewMetric {
 
     private String name;
@@ -0,0 +1,711 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregator;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlign;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlignable;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorSampling;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorType;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupBy;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByTags;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByType;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.PointGrouper;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryProfile;
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.DeleteSqlBuilder;
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.QuerySqlBuilder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the sub-query of a single metric. Every instance owns the tag mapping of its metric, so
+ * the metrics of one query can be executed concurrently.
+ */
+class MetricQueryExecutor implements Callable<MetricResult> {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // Fetches the time chunks of long sub-queries, separate from the query pool to avoid starvation
+  private static final ExecutorService CHUNK_POOL = Executors.newFixedThreadPool(
+      config.QUERY_CHUNK_THREADS, new QueryExecutor.QueryThreadFactory("query-chunk-worker-"));
+
+  // The number of rows read between two checks of the deadline
+  private static final int CHECK_INTERVAL = 4096;
+
+  private final QueryMetric metric;
+
+  private final long startTime;
+  private final long endTime;
+
+  // The time filter of the SQL excludes both ends, so an inclusive start is read from 1 ms earlier
+  private boolean startInclusive;
+
+  private final QueryContext context;
+
+  // Shared by all the results computed for the metric, so every thread records into it
+  private final QueryProfile profile = new QueryProfile();
+
+  // The scan key of this sub-query and the metrics read by its scans, see
+  // QueryContext.getScanMetrics
+  private String scanKey;
+  private List<String> scanMetrics;
+
+  // The points read by the scans, including those of the other metrics of shared scans
+  private final AtomicLong scannedPoints = new AtomicLong();
+
+  private Map<String, Integer> tag2pos;
+  private Map<Integer, String> pos2tag;
+
+  // The reverse of tag2pos, used to name the tags found in the result paths
+  private Map<Integer, String> allPos2tag;
+
+  // The tags of the group_by tags clauses, the series are grouped by their values
+  private List<String> groupByTags;
+
+  MetricQueryExecutor(QueryMetric metric, long startTime, long endTime) {
+    this(metric, startTime, endTime, new QueryContext(0));
+  }
+
+  MetricQueryExecutor(QueryMetric metric, long startTime, long endTime, QueryContext context) {
+    this.metric = metric;
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.context = context;
+  }
+
+  void setStartInclusive(boolean startInclusive) {
+    this.startInclusive = startInclusive;
+  }
+
+  String getMetricName() {
+    return metric.getName();
+  }
+
+  private long getSqlStartTime() {
+    return startInclusive ? startTime - 1 : startTime;
+  }
+
+  @Override
+  public MetricResult call() throws QueryException {
+    if (!getMetricMapping()) {
+      return MetricResult.createVoidResult(metric.getName());
+    }
+
+    List<QueryAggregator> aggregators = metric.getAggregators();
+    for (QueryAggregator aggregator : aggregators) {
+      if (aggregator instanceof QueryAggregatorAlignable) {
+        ((QueryAggregatorAlignable) aggregator).setStartTimestamp(startTime);
+        ((QueryAggregatorAlignable) aggregator).setEndTimestamp(endTime);
+      }
+    }
+
+    QuerySqlBuilder sqlBuilder = buildSqlBuilder();
+    int chunkAggregatorCount = getChunkAggregatorCount(aggregators);
+    long chunkStep = getChunkStep(aggregators, chunkAggregatorCount);
+    scanKey = getScanKey(sqlBuilder, chunkStep);
+    scanMetrics = context.getScanMetrics(scanKey, metric.getName());
+    String densityKey = getDensityKey(sqlBuilder, scanMetrics);
+
+    long[] boundaries = QueryChunkPlanner.split(densityKey, startTime, endTime, chunkStep);
+
+    profile.setChunks(boundaries.length - 1);
+    MetricResult metricResult;
+    if (boundaries.length > 2) {
+      metricResult = fetchChunks(sqlBuilder, boundaries,
+          aggregators.subList(0, chunkAggregatorCount));
+    } else {
+      metricResult = fetch(sqlBuilder.generateSql(scanMetrics, getSqlStartTime(), endTime));
+      chunkAggregatorCount = 0;
+    }
+
+    QueryChunkPlanner.recordDensity(densityKey, scannedPoints.get(), startTime, endTime);
+
+    if (metricResult.getSampleSize() == 0) {
+      MetricResult voidResult = MetricResult.createVoidResult(metric.getName());
+      voidResult.setProfile(profile);
+      return voidResult;
+    }
+
+    return aggregateGroups(metricResult,
+        aggregators.subList(chunkAggregatorCount, aggregators.size()));
+  }
+
+  /**
+   * Apply the aggregators to every group of series in parallel. Save_as writes the result of all
+   * groups together and top_k and bottom_k rank all groups against each other, so they and the
+   * aggregators after them run once the groups are merged again.
+   */
+  private MetricResult aggregateGroups(MetricResult result, List<QueryAggregator> aggregators)
+      throws QueryException {
+    int groupAggregatorCount = 0;
+    while (groupAggregatorCount < aggregators.size()
+        && !isWholeResultAggregator(aggregators.get(groupAggregatorCount))) {
+      groupAggregatorCount++;
+    }
+
+    List<MetricValueResult> groups = result.getResults();
+    if (groups.size() < 2 || groupAggregatorCount == 0) {
+      return doAggregations(result, aggregators);
+    }
+
+    List<QueryAggregator> groupAggregators = aggregators.subList(0, groupAggregatorCount);
+    List<Future<MetricResult>> futures = new ArrayList<>(groups.size());
+    for (MetricValueResult group : groups) {
+      MetricResult groupResult = new MetricResult();
+      groupResult.setProfile(profile);
+      groupResult.setSampleSize(result.getSampleSize());
+      groupResult.addResult(group);
+      futures.add(CHUNK_POOL.submit(() -> doAggregations(groupResult, groupAggregators)));
+    }
+
+    List<MetricValueResult> aggregatedGroups = new LinkedList<>();
+    try {
+      for (Future<MetricResult> future : futures) {
+        aggregatedGroups.addAll(QueryExecutor.getResult(future, context).getResults());
+      }
+    } finally {
+      for (Future<MetricResult> future : futures) {
+        future.cancel(true);
+      }
+    }
+    result.setResults(aggregatedGroups);
+
+    return doAggregations(result, aggregators.subList(groupAggregatorCount, aggregators.size()));
+  }
+
+  private static boolean isWholeResultAggregator(QueryAggregator aggregator) {
+    switch (aggregator.getType()) {
+      case SAVE_AS:
+      case TOP_K:
+      case BOTTOM_K:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Fetch the chunks of the time range in parallel and apply the leading aggregators to every
+   * chunk on its own. The chunks are aligned with the sampling of those aggregators, so each
+   * bucket is complete within one chunk and the partial results only need to be concatenated.
+   */
+  private MetricResult fetchChunks(QuerySqlBuilder sqlBuilder, long[] boundaries,
+      List<QueryAggregator> chunkAggregators) throws QueryException {
+    int chunkCount = boundaries.length - 1;
+    List<Future<MetricResult>> futures = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      // The time filter excludes both ends, so the inner chunks start one millisecond earlier
+      long low = i == 0 ? getSqlStartTime() : boundaries[i] - 1;
+      String sql = sqlBuilder.generateSql(scanMetrics, low, boundaries[i + 1]);
+      futures.add(CHUNK_POOL.submit(() -> {
+        MetricResult chunk = fetch(sql);
+        if (chunk.getSampleSize() == 0) {
+          return chunk;
+        }
+        return doAggregations(chunk, chunkAggregators);
+      }));
+    }
+
+    MetricResult metricResult = new MetricResult();
+    metricResult.setProfile(profile);
+    // <key of the group, merged result of the group>
+    Map<List<Object>, MetricValueResult> mergedValueResults = new HashMap<>();
+    long sampleSize = 0;
+    try {
+      for (Future<MetricResult> future : futures) {
+        MetricResult chunk = QueryExecutor.getResult(future, context);
+        sampleSize += chunk.getSampleSize();
+        for (MetricValueResult valueResult : chunk.getResults()) {
+          List<Object> group = PointGrouper.getGroupKey(valueResult);
+          MetricValueResult mergedValueResult = mergedValueResults.get(group);
+          if (mergedValueResult == null) {
+            mergedValueResults.put(group, valueResult);
+            metricResult.addResult(valueResult);
+          } else {
+            mergedValueResult.getDatapoints().addAll(valueResult.getDatapoints());
+            mergeTags(mergedValueResult, valueResult);
+          }
+        }
+      }
+    } finally {
+      for (Future<MetricResult> future : futures) {
+        future.cancel(true);
+      }
+    }
+    metricResult.setSampleSize(sampleSize);
+    return metricResult;
+  }
+
+  private void mergeTags(MetricValueResult target, MetricValueResult source) {
+    for (Map.Entry<String, List<String>> entry : source.getTags().entrySet()) {
+      List<String> values = target.getTags().get(entry.getKey());
+      if (values == null) {
+        target.setTag(entry.getKey(), entry.getValue());
+        continue;
+      }
+      for (String value : entry.getValue()) {
+        if (!values.contains(value)) {
+          values.add(value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Count the leading aggregators which give the same result when applied to every chunk of the
+   * time range separately: any per-point aggregators followed by the first sampling aggregator,
+   * as long as its buckets are aligned to the start time rather than to the first point.
+   */
+  private static int getChunkAggregatorCount(List<QueryAggregator> aggregators) {
+    int count = 0;
+    for (QueryAggregator aggregator : aggregators) {
+      switch (aggregator.getType()) {
+        case FILTER:
+        case DIV:
+          count++;
+          break;
+        default:
+          if (aggregator instanceof QueryAggregatorSampling
+              && aggregator instanceof QueryAggregatorAlignable
+              && ((QueryAggregatorSampling) aggregator).getSampling() != null
+              && ((QueryAggregatorAlignable) aggregator).getAlign()
+              != QueryAggregatorAlign.ALIGN_SAMPLING) {
+            return count + 1;
+          }
+          // Without a sampling aggregator the chunks are merged before any aggregation
+          return 0;
+      }
+    }
+    return 0;
+  }
+
+  private static long getChunkStep(List<QueryAggregator> aggregators, int chunkAggregatorCount) {
+    if (chunkAggregatorCount == 0) {
+      return 1L;
+    }
+    QueryAggregator last = aggregators.get(chunkAggregatorCount - 1);
+    return Math.max(1L, ((QueryAggregatorSampling) last).getSampling().toTimestamp());
+  }
+
+  /**
+   * Get the SQL builder of this sub-query without running it, used to estimate its cost.
+   *
+   * @return the SQL builder, or null if the metric or one of its tags is unknown
+   */
+  QuerySqlBuilder getSqlBuilder() {
+    if (!getMetricMapping()) {
+      return null;
+    }
+    return buildSqlBuilder();
+  }
+
+  /**
+   * Add the series selected by the metric and its tags to the series to delete from. The paths
+   * of the query are resolved into the series which exist, so that every series is deleted from
+   * by exact path.
+   *
+   * @throws QueryException if the series can't be resolved
+   */
+  void appendDeletedSeries(DeleteSqlBuilder builder) throws QueryException {
+    if (!getMetricMapping()) {
+      return;
+    }
+
+    Connection connection = null;
+    boolean broken = true;
+    try {
+      connection = IoTDBUtil.borrowConnection();
+      try (Statement statement = connection.createStatement()) {
+        for (String path : buildSqlBuilder().getSeriesPaths()) {
+          statement.execute(String.format("SHOW TIMESERIES %s", path));
+          ResultSet rs = statement.getResultSet();
+          while (rs.next()) {
+            builder.appendSeries(rs.getString(1));
+          }
+        }
+      }
+      broken = false;
+    } catch (SQLException | ClassNotFoundException e) {
+      throw new QueryException(
+          String.format("Failed to resolve the series of %s: %s", metric.getName(),
+              e.getMessage()), e);
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
+    }
+  }
+
+  private boolean getMetricMapping() {
+    tag2pos = MetricsManager.getTagOrder(metric.getName());
+    pos2tag = new HashMap<>();
+
+    if (tag2pos == null) {
+      return false;
+    } else {
+      for (Map.Entry<String, List<String>> tag : metric.getTags().entrySet()) {
+        String tmpKey = tag.getKey();
+        Integer tempPosition = tag2pos.getOrDefault(tmpKey, null);
+        if (tempPosition == null) {
+          return false;
+        }
+        pos2tag.put(tempPosition, tmpKey);
+      }
+      allPos2tag = new HashMap<>();
+      for (Map.Entry<String, Integer> entry : tag2pos.entrySet()) {
+        allPos2tag.put(entry.getValue(), entry.getKey());
+      }
+      groupByTags = new ArrayList<>();
+      for (GroupBy groupBy : metric.getGroupBy()) {
+        if (groupBy instanceof GroupByTags && ((GroupByTags) groupBy).getTags() != null) {
+          for (String tag : ((GroupByTags) groupBy).getTags()) {
+            if (!groupByTags.contains(tag)) {
+              groupByTags.add(tag);
+            }
+          }
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private QuerySqlBuilder buildSqlBuilder() {
+    QuerySqlBuilder sqlBuilder = new QuerySqlBuilder(metric.getName());
+
+    int maxPath = tag2pos.size();
+    for (int i = 0; i < maxPath; i++) {
+      String tmpKey = pos2tag.getOrDefault(i, null);
+      if (tmpKey == null) {
+        sqlBuilder.append("*");
+      } else {
+        sqlBuilder.append(metric.getTags().get(tmpKey));
+      }
+    }
+
+    return sqlBuilder;
+  }
+
+  /**
+   * Get the key of the scans of this sub-query. The sub-queries of a query with the same key read
+   * the same paths in the same chunks, whatever their metrics, so they can read all their series
+   * with one SQL per chunk.
+   *
+   * @return the key, or null if the metric or one of its tags is unknown
+   */
+  String getScanKey() {
+    if (!getMetricMapping()) {
+      return null;
+    }
+    List<QueryAggregator> aggregators = metric.getAggregators();
+    return getScanKey(buildSqlBuilder(),
+        getChunkStep(aggregators, getChunkAggregatorCount(aggregators)));
+  }
+
+  private static String getScanKey(QuerySqlBuilder sqlBuilder, long chunkStep) {
+    return sqlBuilder.getFromClause() + "@" + chunkStep;
+  }
+
+  /**
+   * Get the key the density of the scans of this sub-query is recorded under, see {@link
+   * QueryChunkPlanner}. Must be called once all the metrics of the query have been added to the
+   * context.
+   *
+   * @return the key, or null if the metric or one of its tags is unknown
+   */
+  String getDensityKey() {
+    if (!getMetricMapping()) {
+      return null;
+    }
+    QuerySqlBuilder sqlBuilder = buildSqlBuilder();
+    List<QueryAggregator> aggregators = metric.getAggregators();
+    String key = getScanKey(sqlBuilder,
+        getChunkStep(aggregators, getChunkAggregatorCount(aggregators)));
+    return getDensityKey(sqlBuilder, context.getScanMetrics(key, metric.getName()));
+  }
+
+  // The metrics of a shared scan have the density of the scan, so they are split into the same
+  // chunks
+  private static String getDensityKey(QuerySqlBuilder sqlBuilder, List<String> scanMetrics) {
+    return sqlBuilder.getSql(scanMetrics);
+  }
+
+  /**
+   * Fetch the result of the SQL. When other metrics of the query are stored under the same paths,
+   * the SQL selects all of them and runs once, then every metric builds its result from its own
+   * columns.
+   */
+  private MetricResult fetch(String sql) throws QueryException {
+    ScanResult scan;
+    if (context.isSharedScan(scanKey)) {
+      scan = context.shareScan(sql, () -> scan(sql));
+    } else {
+      scan = scan(sql);
+    }
+    scannedPoints.addAndGet(scan.size());
+    return buildResult(scan);
+  }
+
+  /**
+   * Run the SQL and collect its points in one pass, each with the column it has been read from.
+   *
+   * @return the points read, which are those read before the failure if the SQL fails
+   * @throws QueryCancelledException if the query is stopped while the points are read
+   */
+  private ScanResult scan(String sql) throws QueryCancelledException {
+    ScanResult scan = ScanResult.EMPTY;
+
+    Connection connection = null;
+    // The connection is given back only if no statement of it failed or has been cancelled
+    boolean broken = true;
+    try {
+      connection = IoTDBUtil.borrowConnection();
+      try (Statement statement = connection.createStatement()) {
+        context.register(statement);
+        try {
+          statement.execute(sql);
+          ResultSet rs = statement.getResultSet();
+          scan = new ScanResult(rs.getMetaData());
+          int columnCount = scan.getColumnNames().length + 1;
+          int rows = 0;
+          while (rs.next()) {
+            if (++rows % CHECK_INTERVAL == 0) {
+              context.check();
+            }
+            long timestamp = rs.getLong(1);
+            for (int i = 2; i <= columnCount; i++) {
+              String value = rs.getString(i);
+              if (value == null || DeleteSqlBuilder.isTombstone(value)) {
+                continue;
+              }
+              QueryDataPoint dataPoint = null;
+              switch (findType(value)) {
+                case Types.INTEGER:
+                  int intValue = rs.getInt(i);
+                  dataPoint = new QueryDataPoint(timestamp, intValue);
+                  break;
+                case Types.DOUBLE:
+                  double doubleValue = rs.getDouble(i);
+                  dataPoint = new QueryDataPoint(timestamp, doubleValue);
+                  break;
+                case Types.VARCHAR:
+                  dataPoint = new QueryDataPoint(timestamp, value);
+                  break;
+                default:
+                  QueryExecutor.LOGGER.error("QueryExecutor.execute: invalid type");
+              }
+              scan.add(i - 2, dataPoint);
+            }
+          }
+        } finally {
+          context.unregister(statement);
+        }
+      }
+      broken = false;
+    } catch (SQLException | ClassNotFoundException e) {
+      // A statement cancelled by the context fails, report why it was cancelled
+      context.check();
+      QueryExecutor.LOGGER
+          .warn(String.format("QueryExecutor.%s: %s", e.getClass().getName(), e.getMessage()));
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
+    }
+
+    return scan;
+  }
+
+  /**
+   * Build the result of the metric from its columns of the scan: a value result per group of
+   * series, each tagged with the tag values of its paths which returned any point. Without
+   * group_by tags all series are in the same group. The groups are then split by the group_by
+   * time, value and bin clauses.
+   */
+  private MetricResult buildResult(ScanResult scan) {
+    MetricResult metricResult = new MetricResult();
+    metricResult.setProfile(profile);
+    String[] columnNames = scan.getColumnNames();
+
+    // The columns of the other metrics of a shared scan are the series of their own paths
+    QuerySqlBuilder sqlBuilder = buildSqlBuilder();
+    boolean[] ownColumns = new boolean[columnNames.length];
+    for (int c = 0; c < columnNames.length; c++) {
+      ownColumns[c] = scanMetrics.size() == 1 || sqlBuilder.isSeriesPath(columnNames[c]);
+    }
+
+    List<Map<String, String>> groups = new ArrayList<>();
+    int[] columnGroups = mapColumnsToGroups(columnNames, groups);
+    List<MetricValueResult> groupResults = new ArrayList<>();
+    for (int g = 0; g < groups.size(); g++) {
+      groupResults.add(new MetricValueResult(metric.getName()));
+    }
+
+    boolean[] paths = new boolean[columnNames.length];
+    long sampleSize = 0L;
+    for (int i = 0; i < scan.size(); i++) {
+      int column = scan.getColumn(i);
+      if (!ownColumns[column]) {
+        continue;
+      }
+      sampleSize++;
+      paths[column] = true;
+      groupResults.get(columnGroups[column]).addDataPoint(scan.getPoint(i));
+    }
+
+    for (int g = 0; g < groups.size(); g++) {
+      MetricValueResult groupResult = groupResults.get(g);
+      if (groupResult.getDatapoints().isEmpty()) {
+        continue;
+      }
+      boolean[] groupPaths = new boolean[paths.length];
+      for (int c = 0; c < paths.length; c++) {
+        groupPaths[c] = paths[c] && columnGroups[c] == g;
+      }
+      setTags(groupResult, getTagValueFromPaths(columnNames, groupPaths));
+      if (!groupByTags.isEmpty()) {
+        groupResult.addGroupBy(new GroupByTags(groupByTags, groups.get(g)));
+      }
+      addBasicGroupByToResult(scan.getTimeTypeName(), groupResult);
+      metricResult.addResult(groupResult);
+    }
+
+    metricResult.setSampleSize(sampleSize);
+    metricResult.setResults(
+        PointGrouper.group(metricResult.getResults(), metric.getGroupBy(), startTime));
+    return metricResult;
+  }
+
+  /**
+   * Find the group of every column of the scan by the values of the group_by tags in its path.
+   *
+   * @param groups receives the tag values of each group, in the order the groups are found
+   * @return the index of the group of every column
+   */
+  private int[] mapColumnsToGroups(String[] columnNames, List<Map<String, String>> groups) {
+    int[] columnGroups = new int[columnNames.length];
+    Map<Map<String, String>, Integer> groupIndexes = new HashMap<>();
+    for (int c = 0; c < columnNames.length; c++) {
+      Map<String, String> group = getGroupOfPath(columnNames[c]);
+      Integer index = groupIndexes.get(group);
+      if (index == null) {
+        index = groups.size();
+        groupIndexes.put(group, index);
+        groups.add(group);
+      }
+      columnGroups[c] = index;
+    }
+    return columnGroups;
+  }
+
+  private Map<String, String> getGroupOfPath(String path) {
+    if (groupByTags.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    // The path is root.<storage group>.<tag values in order>.<metric>
+    String[] nodes = path.split("\\.");
+    Map<String, String> group = new LinkedHashMap<>();
+    for (String tag : groupByTags) {
+      Integer pos = tag2pos.get(tag);
+      if (pos != null && pos + 2 < nodes.length - 1) {
+        group.put(tag, nodes[pos + 2]);
+      }
+    }
+    return group;
+  }
+
+  private Map<Integer, List<String>> getTagValueFromPaths(String[] columnNames,
+      boolean[] hasPaths) {
+    Map<Integer, List<String>> tmpTags = new HashMap<>();
+    for (int c = 0; c < columnNames.length; c++) {
+      if (!hasPaths[c]) {
+        continue;
+      }
+      String[] paths = columnNames[c].split("\\.");
+      int pathsLen = paths.length;
+      for (int j = 2; j < pathsLen - 1; j++) {
+        List<String> list = tmpTags.getOrDefault(j, null);
+        if (list == null) {
+          list = new LinkedList<>();
+          tmpTags.put(j, list);
+        }
+        if (!list.contains(paths[j])) {
+          list.add(paths[j]);
+        }
+      }
+    }
+    return tmpTags;
+  }
+
+  private void setTags(MetricValueResult metricValueResult, Map<Integer, List<String>> tmpTags) {
+    for (Map.Entry<Integer, List<String>> entry : tmpTags.entrySet()) {
+      metricValueResult.setTag(allPos2tag.get(entry.getKey() - 2), entry.getValue());
+    }
+  }
+
+  private void addBasicGroupByToResult(String type, MetricValueResult metricValueResult) {
+    if ("TEXT".equals(type)) {
+      metricValueResult.addGroupBy(GroupByType.getTextTypeInstance());
+    } else {
+      metricValueResult.addGroupBy(GroupByType.getNumberTypeInstance());
+    }
+  }
+
+  private MetricResult doAggregations(MetricResult result, List<QueryAggregator> aggregators)
+      throws QueryException {
+
+    // Filter and div are fused into the sampling aggregator after them
+    for (QueryAggregator aggregator : QueryAggregator.fuse(aggregators)) {
+      context.check();
+      result = aggregator.doAggregate(result);
+    }
+
+    return result;
+  }
+
+  private int findType(String string) {
+    if (isNumeric(string)) {
+      return Types.VARCHAR;
+    } else {
+      if (string.contains(".")) {
+        return Types.DOUBLE;
+      } else {
+        return Types.INTEGER;
+      }
+    }
+  }
+
+  private boolean isNumeric(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (!Character.isDigit(string.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
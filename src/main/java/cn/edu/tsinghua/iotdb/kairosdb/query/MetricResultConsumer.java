@@ -0,0 +1,13 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import java.io.IOException;
+
+/**
+ * Receives the result of every metric of a query, in the order the metrics were requested.
+ */
+public interface MetricResultConsumer {
+
+  void accept(MetricResult metricResult) throws IOException;
+
+}
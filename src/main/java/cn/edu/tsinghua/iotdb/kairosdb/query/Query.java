@@ -25,6 +25,17 @@ public class Query {
   @SerializedName("cache_time")
   private Long cacheTime;
 
+  @Min(0)
+  @SerializedName("timeout")
+  private Long timeout;
+
+  @Min(1)
+  @SerializedName("max_data_points")
+  private Integer maxDataPoints;
+
+  @SerializedName("profile")
+  private Boolean profile;
+
   @Valid
   @SerializedName("time_zone")
   private String timeZone;
@@ -32,6 +43,10 @@ public class Query {
   @SerializedName("metrics")
   private List<QueryMetric> queryMetrics;
 
+  // Set by the roll-ups, whose consecutive windows [start, end) must not skip the points at
+  // their boundaries
+  private transient boolean startInclusive;
+
   private Long getStartAbsolute() {
     return startAbsolute;
   }
@@ -60,7 +75,7 @@ public class Query {
     Long endTimestamp = getEndAbsolute();
     if (endTimestamp == null && getEndRelative() != null) {
       endTimestamp = getEndRelative().toRelatedTimestamp();
-    } else {
+    } else if (endTimestamp == null) {
       endTimestamp = new Date().getTime();
     }
     return endTimestamp;
@@ -74,6 +89,17 @@ public class Query {
     this.endAbsolute = endAbsolute;
   }
 
+  /**
+   * Include the points at the start time, which are excluded by default.
+   */
+  public void setStartInclusive(boolean startInclusive) {
+    this.startInclusive = startInclusive;
+  }
+
+  boolean isStartInclusive() {
+    return startInclusive;
+  }
+
   public Long getCacheTime() {
     return cacheTime;
   }
@@ -82,8 +108,34 @@ public class Query {
     return timeZone;
   }
 
-  List<QueryMetric> getQueryMetrics() {
+  /**
+   * @return the time in milliseconds the query may take, 0 for no deadline, or null to use the
+   * default of the service
+   */
+  Long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @return the most points any series of the result may hold, or null for no limit
+   */
+  Integer getMaxDataPoints() {
+    return maxDataPoints;
+  }
+
+  /**
+   * @return true if the result of every metric should tell how its sub-query has been executed
+   */
+  boolean isProfiled() {
+    return Boolean.TRUE.equals(profile);
+  }
+
+  public List<QueryMetric> getQueryMetrics() {
     return queryMetrics;
   }
+
+  public void setQueryMetrics(List<QueryMetric> queryMetrics) {
+    this.queryMetrics = queryMetrics;
+  }
 }
 
@@ -0,0 +1,95 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+
+/**
+ * Decides whether a query may run according to its estimated cost. A query exceeding the
+ * per-request budget is rejected at once; a query which would push the points of all running
+ * queries over the global budget waits until enough of them have finished, and is rejected if
+ * that takes longer than QUERY_ADMISSION_TIMEOUT. It never waits past its own deadline.
+ */
+class QueryAdmissionController {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  private static final Object LOCK = new Object();
+
+  // The estimated points of the admitted queries which are still running
+  private static long runningPoints;
+  private static int runningQueries;
+
+  private QueryAdmissionController() {
+  }
+
+  /**
+   * Admit a query, waiting for budget if necessary. The returned ticket must be closed once the
+   * query has finished.
+   *
+   * @throws QueryCancelledException if the deadline of the query passes while it waits
+   */
+  static Ticket admit(QueryCost cost, QueryContext context) throws QueryException {
+    long points = cost.getEstimatedPoints();
+    if (config.QUERY_MAX_ESTIMATED_POINTS > 0 && points > config.QUERY_MAX_ESTIMATED_POINTS) {
+      throw reject(String.format("Query rejected: %s, which exceeds the per-request budget of %s "
+          + "points", cost, config.QUERY_MAX_ESTIMATED_POINTS), false);
+    }
+
+    long budget = config.QUERY_GLOBAL_ESTIMATED_POINTS;
+    synchronized (LOCK) {
+      if (budget > 0) {
+        long deadline = System.currentTimeMillis() + config.QUERY_ADMISSION_TIMEOUT;
+        // A query larger than the whole budget is still admitted once it runs alone
+        while (runningQueries > 0 && runningPoints + points > budget) {
+          context.check();
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            throw reject(String.format("Query rejected: %s, but %s points are already being read "
+                    + "and the global budget is %s points", cost, runningPoints, budget),
+                true);
+          }
+          try {
+            LOCK.wait(Math.max(1L, Math.min(remaining, context.getRemainingMillis())));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryException("Query has been interrupted", e);
+          }
+        }
+      }
+      runningPoints += points;
+      runningQueries++;
+    }
+    return new Ticket(points);
+  }
+
+  private static QueryRejectedException reject(String message, boolean retryable) {
+    QueryExecutor.LOGGER.warn(message);
+    QueryStats.recordRejected();
+    return new QueryRejectedException(message, retryable);
+  }
+
+  static class Ticket implements AutoCloseable {
+
+    private final long points;
+
+    private boolean closed;
+
+    private Ticket(long points) {
+      this.points = points;
+    }
+
+    @Override
+    public void close() {
+      synchronized (LOCK) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        runningPoints -= points;
+        runningQueries--;
+        LOCK.notifyAll();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,20 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+/**
+ * Thrown when a query is stopped before it has finished, either because its deadline has passed
+ * or because it has been cancelled, e.g. when the client has disconnected.
+ */
+public class QueryCancelledException extends QueryException {
+
+  private final boolean timedOut;
+
+  public QueryCancelledException(String message, boolean timedOut) {
+    super(message);
+    this.timedOut = timedOut;
+  }
+
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+}
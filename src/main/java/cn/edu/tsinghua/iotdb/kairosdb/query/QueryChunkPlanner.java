@@ -0,0 +1,86 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Splits the time range of a sub-query into chunks which can be fetched in parallel. The chunk
+ * size adapts to the number of points per second observed by earlier executions of the same
+ * sub-query, so that each chunk holds about QUERY_CHUNK_POINTS points.
+ */
+class QueryChunkPlanner {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // Weight of the newest observation in the moving average of the point density
+  private static final double DENSITY_WEIGHT = 0.5;
+
+  private static final int MAX_TRACKED_QUERIES = 10000;
+
+  // <metric name and paths of the sub-query, observed points per second>
+  private static final Map<String, Double> densities = new ConcurrentHashMap<>();
+
+  private QueryChunkPlanner() {
+  }
+
+  /**
+   * Compute the boundaries of the chunks of [startTime, endTime]. Every boundary except the last
+   * one is startTime plus a multiple of step, so no sampling bucket spans two chunks.
+   *
+   * @param key identifies the sub-query whose density is used
+   * @param startTime the start time of the query
+   * @param endTime the end time of the query
+   * @param step the sampling step the chunks must be aligned with, at least 1
+   * @return the boundaries, chunk i covers [boundaries[i], boundaries[i + 1])
+   */
+  static long[] split(String key, long startTime, long endTime, long step) {
+    Double density = densities.get(key);
+    long range = endTime - startTime;
+    if (density == null || density <= 0 || range <= step) {
+      return new long[]{startTime, endTime};
+    }
+
+    double chunkRange = config.QUERY_CHUNK_POINTS / density * 1000;
+    chunkRange = Math.max(chunkRange, range / (double) config.QUERY_MAX_CHUNKS);
+    long chunkSteps = Math.max(1L, (long) Math.ceil(chunkRange / step));
+    if (chunkSteps > range / step) {
+      return new long[]{startTime, endTime};
+    }
+    long chunkSize = chunkSteps * step;
+
+    int chunkCount = (int) ((range + chunkSize - 1) / chunkSize);
+    long[] boundaries = new long[chunkCount + 1];
+    for (int i = 0; i < chunkCount; i++) {
+      boundaries[i] = startTime + i * chunkSize;
+    }
+    boundaries[chunkCount] = endTime;
+    return boundaries;
+  }
+
+  /**
+   * Get the points per second observed by earlier executions of a sub-query.
+   *
+   * @return the density, or null if the sub-query has not been executed yet
+   */
+  static Double getDensity(String key) {
+    return densities.get(key);
+  }
+
+  /**
+   * Record the number of points a sub-query returned for a time range.
+   */
+  static void recordDensity(String key, long sampleSize, long startTime, long endTime) {
+    if (endTime <= startTime) {
+      return;
+    }
+    if (densities.size() > MAX_TRACKED_QUERIES) {
+      densities.clear();
+    }
+    double observed = sampleSize * 1000.0 / (endTime - startTime);
+    densities.merge(key, observed,
+        (old, latest) -> old * (1 - DENSITY_WEIGHT) + latest * DENSITY_WEIGHT);
+  }
+
+}
@@ -0,0 +1,189 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The deadline and cancellation state shared by all threads working on one query. The JDBC
+ * statements of the query are registered here, so they can be cancelled on the IoTDB side as soon
+ * as the query is stopped instead of running to completion.
+ *
+ * <p>The scans of metrics stored under the same paths are also shared here, so each path is read
+ * by one SQL selecting all those metrics.
+ */
+class QueryContext {
+
+  // The absolute deadline in milliseconds, Long.MAX_VALUE if there is none
+  private final long deadline;
+
+  private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+
+  // Null while the query is alive
+  private volatile QueryCancelledException stopCause;
+
+  // <scan key of a metric, number of metrics of the query with that key>, filled before the
+  // metrics are executed
+  private final Map<String, Integer> scanConsumers = new ConcurrentHashMap<>();
+
+  // <scan key, names of the metrics of the query with that key in ascending order>
+  private final Map<String, Set<String>> scanMetrics = new ConcurrentHashMap<>();
+
+  // <SQL, scan of the first metric which ran it>
+  private final Map<String, Future<ScanResult>> scans = new ConcurrentHashMap<>();
+
+  /**
+   * @param timeout the time the query may take in milliseconds, 0 for no deadline
+   */
+  QueryContext(long timeout) {
+    if (timeout > 0) {
+      deadline = System.currentTimeMillis() + timeout;
+    } else {
+      deadline = Long.MAX_VALUE;
+    }
+  }
+
+  long getRemainingMillis() {
+    if (deadline == Long.MAX_VALUE) {
+      return Long.MAX_VALUE;
+    }
+    return deadline - System.currentTimeMillis();
+  }
+
+  /**
+   * Throw if the query has been cancelled or its deadline has passed. Long running loops should
+   * call this regularly.
+   */
+  void check() throws QueryCancelledException {
+    if (stopCause == null && getRemainingMillis() <= 0) {
+      stop(new QueryCancelledException("Query has exceeded its deadline", true));
+    }
+    if (stopCause != null) {
+      throw stopCause;
+    }
+  }
+
+  /**
+   * Register a statement before executing it and limit its execution time to the rest of the
+   * deadline.
+   */
+  void register(Statement statement) throws SQLException, QueryCancelledException {
+    check();
+    long remaining = getRemainingMillis();
+    if (remaining != Long.MAX_VALUE) {
+      statement.setQueryTimeout((int) Math.max(1L, (remaining + 999) / 1000));
+    }
+    statements.add(statement);
+    // The query may have been stopped before the statement was visible to stop()
+    if (stopCause != null) {
+      cancel(statement);
+      throw stopCause;
+    }
+  }
+
+  void unregister(Statement statement) {
+    statements.remove(statement);
+  }
+
+  /**
+   * Record a metric of the query with the scan key, see
+   * {@link MetricQueryExecutor#getScanKey()}.
+   */
+  void addScan(String scanKey, String metricName) {
+    scanConsumers.merge(scanKey, 1, Integer::sum);
+    scanMetrics.computeIfAbsent(scanKey, key -> new ConcurrentSkipListSet<>()).add(metricName);
+  }
+
+  /**
+   * @return true if several metrics of the query have the scan key, so they share their scans
+   */
+  boolean isSharedScan(String scanKey) {
+    return scanConsumers.getOrDefault(scanKey, 0) > 1;
+  }
+
+  /**
+   * Get the metrics read by the scans of a metric: all the metrics with its scan key when the key
+   * is shared, otherwise only the metric itself.
+   */
+  List<String> getScanMetrics(String scanKey, String metricName) {
+    if (!isSharedScan(scanKey)) {
+      return Collections.singletonList(metricName);
+    }
+    return new ArrayList<>(scanMetrics.get(scanKey));
+  }
+
+  /**
+   * Run a scan once for all the metrics of the query which need it. The first caller runs the
+   * scan in its own thread, the others wait for its result.
+   *
+   * @param sql the SQL of the scan, which identifies it
+   */
+  ScanResult shareScan(String sql, Callable<ScanResult> scan) throws QueryException {
+    FutureTask<ScanResult> task = new FutureTask<>(scan);
+    Future<ScanResult> future = scans.putIfAbsent(sql, task);
+    if (future == null) {
+      task.run();
+      future = task;
+    }
+    return QueryExecutor.getResult(future, this);
+  }
+
+  /**
+   * Stop the query because its deadline has passed.
+   */
+  void timeout() {
+    stop(new QueryCancelledException("Query has exceeded its deadline", true));
+  }
+
+  /**
+   * Stop the query for the given reason.
+   */
+  void cancel(String reason) {
+    stop(new QueryCancelledException(reason, false));
+  }
+
+  /**
+   * Cancel the statements still running without counting the query as cancelled, used when the
+   * query has failed for another reason, and release the shared scans.
+   */
+  void close() {
+    for (Statement statement : statements) {
+      cancel(statement);
+    }
+    scans.clear();
+  }
+
+  private void stop(QueryCancelledException cause) {
+    synchronized (this) {
+      if (stopCause != null) {
+        return;
+      }
+      stopCause = cause;
+    }
+    if (cause.isTimedOut()) {
+      QueryStats.recordTimedOut();
+    } else {
+      QueryStats.recordCancelled();
+    }
+    QueryExecutor.LOGGER.info("Query stopped: {}", cause.getMessage());
+    close();
+  }
+
+  private static void cancel(Statement statement) {
+    try {
+      statement.cancel();
+    } catch (SQLException e) {
+      QueryExecutor.LOGGER.debug("Failed to cancel statement: {}", e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+/**
+ * The estimated cost of a query, before it is executed.
+ */
+class QueryCost {
+
+  private long seriesCount;
+  private long span;
+  private long estimatedPoints;
+
+  QueryCost(long span) {
+    this.span = span;
+  }
+
+  void add(long seriesCount, long estimatedPoints) {
+    this.seriesCount += seriesCount;
+    this.estimatedPoints = saturatedAdd(this.estimatedPoints, estimatedPoints);
+  }
+
+  long getSeriesCount() {
+    return seriesCount;
+  }
+
+  long getSpan() {
+    return span;
+  }
+
+  long getEstimatedPoints() {
+    return estimatedPoints;
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("estimated %s points from %s series over %s ms", estimatedPoints,
+        seriesCount, span);
+  }
+
+}
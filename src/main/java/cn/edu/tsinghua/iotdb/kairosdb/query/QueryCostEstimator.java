@@ -0,0 +1,151 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IngestRateMonitor;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.QuerySqlBuilder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the number of points a query reads before it is executed. A sub-query which has run
+ * before is estimated from the points per second it returned; otherwise the number of series it
+ * matches in the catalog is multiplied by the time span and the ingest rate of one series.
+ */
+class QueryCostEstimator {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // How long a counted number of series is reused
+  private static final long SERIES_COUNT_TTL = 60_000L;
+
+  private static final int MAX_CACHED_PATHS = 10000;
+
+  // <path pattern, counted series>
+  private static final Map<String, SeriesCount> seriesCounts = new ConcurrentHashMap<>();
+
+  private QueryCostEstimator() {
+  }
+
+  /**
+   * @param executors the executors of the metrics of the query, whose scans have all been added
+   * to their context
+   */
+  static QueryCost estimate(List<MetricQueryExecutor> executors, long startTime, long endTime) {
+    long span = Math.max(0L, endTime - startTime);
+    QueryCost cost = new QueryCost(span);
+
+    // The density of a shared scan is that of all its metrics, which read it once
+    Set<String> estimatedScans = new HashSet<>();
+    for (MetricQueryExecutor executor : executors) {
+      QuerySqlBuilder sqlBuilder = executor.getSqlBuilder();
+      if (sqlBuilder == null) {
+        continue;
+      }
+
+      String densityKey = executor.getDensityKey();
+      Double density = QueryChunkPlanner.getDensity(densityKey);
+      if (density != null && !estimatedScans.add(densityKey)) {
+        continue;
+      }
+
+      long series = 0;
+      for (String path : sqlBuilder.getSeriesPaths()) {
+        series += countSeries(path);
+      }
+
+      double pointsPerSecond;
+      if (density != null) {
+        pointsPerSecond = density;
+      } else {
+        pointsPerSecond = series * getSeriesRate(executor.getMetricName());
+      }
+      cost.add(series, (long) Math.min(Long.MAX_VALUE, pointsPerSecond * span / 1000));
+    }
+
+    return cost;
+  }
+
+  /**
+   * Get the points per second written into one series of a metric, assuming the ingestion is
+   * evenly spread over its series.
+   */
+  private static double getSeriesRate(String metricName) {
+    double metricRate = IngestRateMonitor.getPointsPerSecond(metricName);
+    Map<String, Integer> tagOrder = MetricsManager.getTagOrder(metricName);
+    if (metricRate <= 0 || tagOrder == null) {
+      return config.QUERY_DEFAULT_SERIES_RATE;
+    }
+
+    StringBuilder builder = new StringBuilder("root.*");
+    for (int i = 0; i < tagOrder.size(); i++) {
+      builder.append(".*");
+    }
+    builder.append(".").append(metricName);
+    long series = countSeries(builder.toString());
+    if (series == 0) {
+      return config.QUERY_DEFAULT_SERIES_RATE;
+    }
+    return metricRate / series;
+  }
+
+  private static long countSeries(String path) {
+    long now = System.currentTimeMillis();
+    SeriesCount cached = seriesCounts.get(path);
+    if (cached != null && now - cached.time < SERIES_COUNT_TTL) {
+      return cached.count;
+    }
+
+    long count = 0;
+    Connection connection = null;
+    boolean broken = true;
+    try {
+      connection = IoTDBUtil.borrowConnection();
+      try (Statement statement = connection.createStatement()) {
+        statement.execute(String.format("SHOW TIMESERIES %s", path));
+        ResultSet rs = statement.getResultSet();
+        while (rs.next()) {
+          count++;
+        }
+      }
+      broken = false;
+    } catch (SQLException | ClassNotFoundException e) {
+      // An unknown path matches no series
+      QueryExecutor.LOGGER.debug(String.format("QueryCostEstimator.%s: %s",
+          e.getClass().getName(), e.getMessage()));
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
+    }
+
+    if (seriesCounts.size() > MAX_CACHED_PATHS) {
+      seriesCounts.clear();
+    }
+    seriesCounts.put(path, new SeriesCount(count, now));
+    return count;
+  }
+
+  private static class SeriesCount {
+
+    private final long count;
+    private final long time;
+
+    SeriesCount(long count, long time) {
+      this.count = count;
+      this.time = time;
+    }
+  }
+
+}
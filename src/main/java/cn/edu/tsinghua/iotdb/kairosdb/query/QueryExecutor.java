@@ -1,26 +1,22 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query;
 
-import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
-import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregator;
-import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlignable;
-import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByType;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
-import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
-import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.DeleteSqlBuilder;
-import cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder.QuerySqlBuilder;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.sql.Types;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,16 +24,17 @@ public class QueryExecutor {
 
   public static final Logger LOGGER = LoggerFactory.getLogger(QueryExecutor.class);
 
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // Shared by all queries, so the number of concurrent metric sub-queries stays bounded
+  private static final ExecutorService QUERY_POOL = Executors
+      .newFixedThreadPool(config.QUERY_THREADS, new QueryThreadFactory("query-worker-"));
+
   private Query query;
 
   private Long startTime;
   private Long endTime;
 
-  private Map<String, Integer> tag2pos;
-  private Map<Integer, String> pos2tag;
-
-  private Map<Integer, List<String>> tmpTags;
-
   public QueryExecutor(Query query) {
     this.query = query;
     this.startTime = query.getStartTimestamp();
@@ -48,258 +45,147 @@ public class QueryExecutor {
 
     QueryResult queryResult = new QueryResult();
 
-    for (QueryMetric metric : query.getQueryMetrics()) {
-
-      if (getMetricMapping(metric)) {
-
-        MetricResult metricResult = new MetricResult();
-
-        String sql = buildSqlStatement(metric, pos2tag, tag2pos.size(), startTime, endTime);
-
-        MetricValueResult metricValueResult = new MetricValueResult(metric.getName());
-
-        metricResult.setSampleSize(getValueResult(sql, metricValueResult));
-
-        setTags(metricValueResult);
-
-        if (metricResult.getSampleSize() == 0) {
-          queryResult.addVoidMetricResult(metric.getName());
-        } else {
-          metricResult.addResult(metricValueResult);
-
-          metricResult = doAggregations(metric, metricResult);
-
-          queryResult.addMetricResult(metricResult);
-        }
-
-      } else {
-        queryResult.addVoidMetricResult(metric.getName());
-      }
-
+    try {
+      execute(queryResult::addMetricResult);
+    } catch (IOException e) {
+      throw new QueryException(e);
     }
 
     return queryResult;
   }
 
-  public void delete() {
+  /**
+   * Execute the query and hand each metric result to the consumer as soon as it is computed, so
+   * that the caller can write it out before the remaining metrics have been queried. The metrics
+   * are executed concurrently on the query pool, but are always handed over in request order.
+   *
+   * <p>The query is stopped, and its running statements cancelled, once the timeout of the query
+   * (or QUERY_TIMEOUT if it has none) has passed, or when the consumer fails because the client
+   * has disconnected.
+   *
+   * @throws QueryRejectedException if the estimated cost of the query exceeds the query budgets
+   * @throws QueryCancelledException if the query has been stopped before it finished
+   */
+  public void execute(MetricResultConsumer consumer) throws QueryException, IOException {
+
+    Long timeout = query.getTimeout();
+    QueryContext context = new QueryContext(timeout == null ? config.QUERY_TIMEOUT : timeout);
+
+    List<MetricQueryExecutor> executors = new ArrayList<>();
     for (QueryMetric metric : query.getQueryMetrics()) {
-
-      if (getMetricMapping(metric)) {
-        String querySql = buildSqlStatement(metric, pos2tag, tag2pos.size(), startTime, endTime);
-
-        try (Connection conn = IoTDBUtil.getNewConnection()) {
-          Statement statement = conn.createStatement();
-          statement.execute(querySql);
-
-          ResultSet rs = statement.getResultSet();
-
-          List<String> sqlList = buildDeleteSql(rs);
-          statement = conn.createStatement();
-          for (String sql : sqlList) {
-            statement.addBatch(sql);
-          }
-          statement.executeBatch();
-
-        } catch (SQLException | ClassNotFoundException e) {
-          LOGGER.error(String.format("%s: %s", e.getClass().getName(), e.getMessage()));
-        }
-
+      if (query.getMaxDataPoints() != null && query.getMaxDataPoints() > 0) {
+        metric.setAggregators(QueryAggregator.limitPoints(metric.getAggregators(), startTime,
+            endTime, query.getMaxDataPoints()));
       }
-
-    }
-  }
-
-  private boolean getMetricMapping(QueryMetric metric) {
-    tag2pos = MetricsManager.getTagOrder(metric.getName());
-    pos2tag = new HashMap<>();
-
-    if (tag2pos == null) {
-      return false;
-    } else {
-      for (Map.Entry<String, List<String>> tag : metric.getTags().entrySet()) {
-        String tmpKey = tag.getKey();
-        Integer tempPosition = tag2pos.getOrDefault(tmpKey, null);
-        if (tempPosition == null) {
-          return false;
-        }
-        pos2tag.put(tempPosition, tmpKey);
+      MetricQueryExecutor executor = new MetricQueryExecutor(metric, startTime, endTime,
+          context);
+      executor.setStartInclusive(query.isStartInclusive());
+      // Metrics stored under the same paths, e.g. the same metric with min, max and avg, or
+      // several measurements of the same devices, are read by one SQL
+      String scanKey = executor.getScanKey();
+      if (scanKey != null) {
+        context.addScan(scanKey, metric.getName());
       }
+      executors.add(executor);
     }
 
-    return true;
-  }
+    QueryCost cost = QueryCostEstimator.estimate(executors, startTime, endTime);
 
-  private String buildSqlStatement(QueryMetric metric, Map<Integer, String> pos2tag, int maxPath,
-      long startTime, long endTime) {
-    QuerySqlBuilder sqlBuilder = new QuerySqlBuilder(metric.getName());
+    QueryAdmissionController.Ticket ticket = QueryAdmissionController.admit(cost, context);
+    try {
+      QueryStats.recordExecuted();
 
-    for (int i = 0; i < maxPath; i++) {
-      String tmpKey = pos2tag.getOrDefault(i, null);
-      if (tmpKey == null) {
-        sqlBuilder.append("*");
-      } else {
-        sqlBuilder.append(metric.getTags().get(tmpKey));
+      List<Future<MetricResult>> futures = new ArrayList<>();
+      for (MetricQueryExecutor executor : executors) {
+        futures.add(QUERY_POOL.submit(executor));
       }
-    }
 
-    return sqlBuilder.generateSql(startTime, endTime);
-  }
-
-  private List<String> buildDeleteSql(ResultSet rs) throws SQLException {
-    ResultSetMetaData metaData = rs.getMetaData();
-
-    String[] paths = new String[metaData.getColumnCount() - 1];
-    int[] types = new int[metaData.getColumnCount() - 1];
-
-    for (int i = 2; i <= metaData.getColumnCount(); i++) {
-      paths[i - 2] = metaData.getColumnName(i);
-      types[i - 2] = metaData.getColumnType(i);
-    }
-
-    DeleteSqlBuilder builder;
-    builder = new DeleteSqlBuilder();
-
-    while (rs.next()) {
-      String timestamp = rs.getString(1);
-      for (int i = 2; i <= metaData.getColumnCount(); i++) {
-        if (rs.getString(i) != null) {
-          builder.appendDataPoint(paths[i - 2], timestamp);
-        }
-      }
-    }
-
-    return builder.build(paths, types);
-  }
-
-  private long getValueResult(String sql, MetricValueResult metricValueResult) {
-    long sampleSize = 0L;
-    if (sql == null || metricValueResult == null) {
-      return sampleSize;
-    }
-
-    Connection connection = IoTDBUtil.getConnection();
-    try (Statement statement = connection.createStatement()) {
-      statement.execute(sql);
-      ResultSet rs = statement.getResultSet();
-      ResultSetMetaData metaData = rs.getMetaData();
-      int columnCount = metaData.getColumnCount();
-      boolean[] paths = new boolean[columnCount - 1];
-      while (rs.next()) {
-        long timestamp = rs.getLong(1);
-        for (int i = 2; i <= columnCount; i++) {
-          String value = rs.getString(i);
-          if (value == null || value.equals(DeleteSqlBuilder.NULL_STR) || value.equals("2.147483646E9")) {
-            continue;
+      try {
+        for (Future<MetricResult> future : futures) {
+          MetricResult metricResult = getResult(future, context);
+          if (!query.isProfiled()) {
+            metricResult.setProfile(null);
           }
-          sampleSize++;
-          paths[i - 2] = true;
-          QueryDataPoint dataPoint = null;
-          switch (findType(value)) {
-            case Types.INTEGER:
-              int intValue = rs.getInt(i);
-              dataPoint = new QueryDataPoint(timestamp, intValue);
-              break;
-            case Types.DOUBLE:
-              double doubleValue = rs.getDouble(i);
-              dataPoint = new QueryDataPoint(timestamp, doubleValue);
-              break;
-            case Types.VARCHAR:
-              dataPoint = new QueryDataPoint(timestamp, value);
-              break;
-            default:
-              LOGGER.error("QueryExecutor.execute: invalid type");
+          try {
+            consumer.accept(metricResult);
+          } catch (IOException e) {
+            context.cancel("Query has been cancelled because the client has disconnected");
+            throw e;
           }
-          metricValueResult.addDataPoint(dataPoint);
-          metaData.getColumnType(i);
         }
+      } finally {
+        for (Future<MetricResult> future : futures) {
+          future.cancel(true);
+        }
+        context.close();
       }
-
-      getTagValueFromPaths(metaData, paths);
-
-      addBasicGroupByToResult(metaData, metricValueResult);
-    } catch (SQLException e) {
-      LOGGER.warn(String.format("QueryExecutor.%s: %s", e.getClass().getName(), e.getMessage()));
+    } finally {
+      ticket.close();
     }
-    return sampleSize;
   }
 
-  private void getTagValueFromPaths(ResultSetMetaData metaData, boolean[] hasPaths) throws SQLException {
-    tmpTags = new HashMap<>();
-    int columnCount = metaData.getColumnCount();
-    for (int i = 2; i <= columnCount; i++) {
-      if (!hasPaths[i - 2]) {
-        continue;
-      }
-      String[] paths = metaData.getColumnName(i).split("\\.");
-      int pathsLen = paths.length;
-      for (int j = 2; j < pathsLen - 1; j++) {
-        List<String> list = tmpTags.getOrDefault(j, null);
-        if (list == null) {
-          list = new LinkedList<>();
-          tmpTags.put(j, list);
-        }
-        if (!list.contains(paths[j])) {
-          list.add(paths[j]);
-        }
-      }
+  /**
+   * Add the series of all the metrics of the query to the series to delete the points of the
+   * query from, see {@link cn.edu.tsinghua.iotdb.kairosdb.delete.DeleteJobManager}.
+   *
+   * @throws QueryException if the series of a metric can't be resolved
+   */
+  public void appendDeletedSeries(DeleteSqlBuilder builder) throws QueryException {
+    for (QueryMetric metric : query.getQueryMetrics()) {
+      new MetricQueryExecutor(metric, startTime, endTime).appendDeletedSeries(builder);
     }
   }
 
-  private void setTags(MetricValueResult metricValueResult) {
-    if (tmpTags != null) {
-      for (Map.Entry<String, Integer> entry : tag2pos.entrySet()) {
-        pos2tag.put(entry.getValue(), entry.getKey());
-      }
+  public Long getStartTime() {
+    return startTime;
+  }
 
-      for (Map.Entry<Integer, List<String>> entry :tmpTags.entrySet()) {
-        metricValueResult.setTag(pos2tag.get(entry.getKey()-2), entry.getValue());
-      }
-    }
+  public Long getEndTime() {
+    return endTime;
   }
 
-  private void addBasicGroupByToResult(
-      ResultSetMetaData metaData, MetricValueResult metricValueResult) throws SQLException {
-    String type = metaData.getColumnTypeName(1);
-    if (type.equals("TEXT")) {
-      metricValueResult.addGroupBy(GroupByType.getTextTypeInstance());
-    } else {
-      metricValueResult.addGroupBy(GroupByType.getNumberTypeInstance());
+  /**
+   * Wait for the result of a sub-query, but not longer than the deadline of the query.
+   */
+  static <T> T getResult(Future<T> future, QueryContext context) throws QueryException {
+    try {
+      long remaining = context.getRemainingMillis();
+      if (remaining == Long.MAX_VALUE) {
+        return future.get();
+      }
+      return future.get(Math.max(0L, remaining), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new QueryException("Query has been interrupted", e);
+    } catch (TimeoutException e) {
+      context.timeout();
+      context.check();
+      throw new QueryException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof QueryException) {
+        throw (QueryException) cause;
+      }
+      throw new QueryException(cause);
     }
   }
 
-  private MetricResult doAggregations(QueryMetric metric, MetricResult result)
-      throws QueryException {
+  static class QueryThreadFactory implements ThreadFactory {
 
-    for (QueryAggregator aggregator : metric.getAggregators()) {
-      if (aggregator instanceof QueryAggregatorAlignable) {
-        ((QueryAggregatorAlignable) aggregator).setStartTimestamp(startTime);
-        ((QueryAggregatorAlignable) aggregator).setEndTimestamp(endTime);
-      }
-      result = aggregator.doAggregate(result);
-    }
+    private final String prefix;
 
-    return result;
-  }
+    private final AtomicInteger counter = new AtomicInteger();
 
-  private int findType(String string) {
-    if (isNumeric(string)) {
-      return Types.VARCHAR;
-    } else {
-      if (string.contains(".")) {
-        return Types.DOUBLE;
-      } else {
-        return Types.INTEGER;
-      }
+    QueryThreadFactory(String prefix) {
+      this.prefix = prefix;
     }
-  }
 
-  private boolean isNumeric(String string) {
-    for (int i = 0; i < string.length(); i++) {
-      if (!Character.isDigit(string.charAt(i))) {
-        return false;
-      }
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
     }
-    return true;
   }
 
 }
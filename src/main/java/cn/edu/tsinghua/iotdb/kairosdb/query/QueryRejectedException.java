@@ -0,0 +1,23 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+/**
+ * Thrown when a query is not admitted because its estimated cost exceeds the query budgets.
+ */
+public class QueryRejectedException extends QueryException {
+
+  private final boolean retryable;
+
+  public QueryRejectedException(String message, boolean retryable) {
+    super(message);
+    this.retryable = retryable;
+  }
+
+  /**
+   * Whether the query could be admitted later, once the running queries have finished. A query
+   * exceeding the per-request budget is never admitted.
+   */
+  public boolean isRetryable() {
+    return retryable;
+  }
+
+}
@@ -0,0 +1,50 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the queries handled since the service started.
+ */
+public class QueryStats {
+
+  private static final AtomicLong executed = new AtomicLong();
+  private static final AtomicLong rejected = new AtomicLong();
+  private static final AtomicLong timedOut = new AtomicLong();
+  private static final AtomicLong cancelled = new AtomicLong();
+
+  private QueryStats() {
+  }
+
+  static void recordExecuted() {
+    executed.incrementAndGet();
+  }
+
+  static void recordRejected() {
+    rejected.incrementAndGet();
+  }
+
+  static void recordTimedOut() {
+    timedOut.incrementAndGet();
+  }
+
+  static void recordCancelled() {
+    cancelled.incrementAndGet();
+  }
+
+  public static long getExecuted() {
+    return executed.get();
+  }
+
+  public static long getRejected() {
+    return rejected.get();
+  }
+
+  public static long getTimedOut() {
+    return timedOut.get();
+  }
+
+  public static long getCancelled() {
+    return cancelled.get();
+  }
+
+}
@@ -0,0 +1,79 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * The points read from a result set, in the order they have been read, each with the column it
+ * has been read from. A result set may hold the series of several metrics which are stored under
+ * the same paths, every metric then builds its result from its own columns.
+ *
+ * <p>A scan is never changed once it has been read, so it can be shared by several threads.
+ */
+class ScanResult {
+
+  static final ScanResult EMPTY = new ScanResult(new String[0], null);
+
+  // The full paths of the columns, without the time column
+  private final String[] columnNames;
+
+  // The type of the time column, which tells the type of all the values
+  private final String timeTypeName;
+
+  private int[] columns = new int[16];
+  private QueryDataPoint[] points = new QueryDataPoint[16];
+  private int size;
+
+  ScanResult(ResultSetMetaData metaData) throws SQLException {
+    this(readColumnNames(metaData), metaData.getColumnTypeName(1));
+  }
+
+  private ScanResult(String[] columnNames, String timeTypeName) {
+    this.columnNames = columnNames;
+    this.timeTypeName = timeTypeName;
+  }
+
+  private static String[] readColumnNames(ResultSetMetaData metaData) throws SQLException {
+    String[] columnNames = new String[metaData.getColumnCount() - 1];
+    for (int i = 0; i < columnNames.length; i++) {
+      columnNames[i] = metaData.getColumnName(i + 2);
+    }
+    return columnNames;
+  }
+
+  /**
+   * @param column the index of the column, 0 for the first one after the time column
+   */
+  void add(int column, QueryDataPoint point) {
+    if (size == points.length) {
+      columns = Arrays.copyOf(columns, size * 2);
+      points = Arrays.copyOf(points, size * 2);
+    }
+    columns[size] = column;
+    points[size] = point;
+    size++;
+  }
+
+  String[] getColumnNames() {
+    return columnNames;
+  }
+
+  String getTimeTypeName() {
+    return timeTypeName;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getColumn(int index) {
+    return columns[index];
+  }
+
+  QueryDataPoint getPoint(int index) {
+    return points[index];
+  }
+
+}
@@ -1,13 +1,33 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
 
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
+import cn.edu.tsinghua.iotdb.kairosdb.datastore.TimeUnit;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class QueryAggregator {
 
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // Aggregates the series of large results in parallel, also used by the aggregators which split
+  // a single bucket into fork/join tasks
+  static final ForkJoinPool AGGREGATION_POOL = new ForkJoinPool(config.QUERY_AGGREGATION_THREADS);
+
   private final QueryAggregatorType type;
 
   protected QueryAggregator(QueryAggregatorType type) {
@@ -22,38 +42,261 @@ public abstract class QueryAggregator {
 
   static MetricResult useMethodAggregate(QueryAggregatorAlignable aggregator, MetricResult result)
       throws QueryException {
-    List<MetricValueResult> valueResults = result.getResults();
+    return useMethodAggregate(aggregator::aggregate, result);
+  }
+
+  /**
+   * Replace every numeric series of the result with the series computed from it. Text series are
+   * dropped.
+   *
+   * <p>When the series hold at least QUERY_PARALLEL_SERIES_POINTS points together, they are
+   * computed in parallel on the aggregation pool. Every series is still computed by a single
+   * thread, and the new series keep the order of the original ones.
+   */
+  static MetricResult useMethodAggregate(SeriesAggregation aggregation, MetricResult result)
+      throws QueryException {
+    List<MetricValueResult> valueResults = new ArrayList<>(result.getResults().size());
+    long pointCount = 0;
+    for (MetricValueResult valueResult : result.getResults()) {
+      if (!valueResult.isTextType()) {
+        valueResults.add(valueResult);
+        pointCount += valueResult.getDatapoints().size();
+      }
+    }
+
+    MetricValueResult[] newValueResults = new MetricValueResult[valueResults.size()];
+    int parallelism = 1;
+    if (valueResults.size() > 1 && pointCount >= config.QUERY_PARALLEL_SERIES_POINTS) {
+      SeriesTask task = new SeriesTask(aggregation, valueResults, newValueResults,
+          Thread.currentThread(), 0, valueResults.size());
+      AGGREGATION_POOL.invoke(task);
+      if (task.shared.failure.get() != null) {
+        throw task.shared.failure.get();
+      }
+      parallelism = task.shared.threads.size();
+    } else {
+      for (int i = 0; i < newValueResults.length; i++) {
+        newValueResults[i] = aggregateSeries(aggregation, valueResults.get(i),
+            Thread.currentThread());
+      }
+    }
+
+    if (result.getProfile() != null) {
+      result.getProfile().recordAggregation(parallelism);
+    }
+    result.setResults(new LinkedList<>(Arrays.asList(newValueResults)));
+
+    return result;
+  }
 
-    List<MetricValueResult> newValueResults = new LinkedList<>();
+  /**
+   * @param caller the thread of the sub-query, which is interrupted when the query is stopped
+   */
+  private static MetricValueResult aggregateSeries(SeriesAggregation aggregation,
+      MetricValueResult valueResult, Thread caller) throws QueryException {
+    if (caller.isInterrupted()) {
+      throw new QueryException("Query has been interrupted");
+    }
+    MetricValueResult newValueResult = aggregation.aggregate(valueResult);
+    newValueResult.setTags(valueResult.getTags());
+    newValueResult.setGroupBy(valueResult.getGroupBy());
+    return newValueResult;
+  }
+
+  /**
+   * Compute a series bucket by bucket with the state of the aggregator.
+   */
+  static MetricValueResult aggregateBuckets(QueryAggregatorStreamable aggregator,
+      MetricValueResult valueResult) throws QueryException {
+    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
+
+    long step = aggregator.getSampling().toTimestamp();
 
-    for (MetricValueResult valueResult : valueResults) {
+    BucketCursor cursor = valueResult
+        .bucketCursor(aggregator.getStartTimestamp(), step, aggregator.getAlign());
+    QueryAggregatorState state = aggregator.newState();
+
+    while (cursor.next()) {
+      aggregator.addBucket(state, cursor);
+      QueryDataPoint point = state.get();
+      state.clear();
+      newValueResult.addDataPoint(
+          moveTo(point, cursor.getAlignedTimestamp(point.getTimestamp())));
+    }
+
+    return newValueResult;
+  }
 
-      if (valueResult.isTextType()) {
+  /**
+   * Fuse the per-point aggregators into the sampling aggregator after them, so that the chain is
+   * computed in a single pass over the points instead of a new list of points per aggregator.
+   *
+   * @return the aggregators to apply in turn instead of the given ones
+   */
+  public static List<QueryAggregator> fuse(List<QueryAggregator> aggregators) {
+    List<QueryAggregator> fused = new ArrayList<>(aggregators.size());
+    // The index of the first aggregator which has not been added yet
+    int first = 0;
+    for (int i = 0; i < aggregators.size(); i++) {
+      QueryAggregator aggregator = aggregators.get(i);
+      if (aggregator instanceof QueryAggregatorPointwise) {
         continue;
       }
+      if (aggregator instanceof QueryAggregatorStreamable && first < i) {
+        List<QueryAggregatorPointwise> stages = new ArrayList<>(i - first);
+        for (QueryAggregator stage : aggregators.subList(first, i)) {
+          stages.add((QueryAggregatorPointwise) stage);
+        }
+        fused.add(new QueryAggregatorFused(stages, (QueryAggregatorStreamable) aggregator,
+            aggregator.getType()));
+      } else {
+        fused.addAll(aggregators.subList(first, i + 1));
+      }
+      first = i + 1;
+    }
+    fused.addAll(aggregators.subList(first, aggregators.size()));
+    return fused;
+  }
 
-      MetricValueResult newValueResult = aggregator.aggregate(valueResult);
-      newValueResult.setTags(valueResult.getTags());
-      newValueResult.setGroupBy(valueResult.getGroupBy());
-
-      newValueResults.add(newValueResult);
+  /**
+   * Limit every series computed by the aggregators to maxPoints points. The samplings which would
+   * give more buckets over the time range are made coarser, then lttb reduces whatever is still
+   * too large, e.g. series without any sampling. The aggregators up to the last save_as are kept
+   * as they are, so the saved points do not depend on the size of the chart.
+   *
+   * @return the aggregators to apply instead of the given ones
+   */
+  public static List<QueryAggregator> limitPoints(List<QueryAggregator> aggregators,
+      long startTimestamp, long endTimestamp, int maxPoints) {
+    int first = 0;
+    for (int i = 0; i < aggregators.size(); i++) {
+      if (aggregators.get(i).getType() == QueryAggregatorType.SAVE_AS) {
+        first = i + 1;
+      }
+    }
 
+    long range = Math.max(1L, endTimestamp - startTimestamp);
+    for (QueryAggregator aggregator : aggregators.subList(first, aggregators.size())) {
+      if (!(aggregator instanceof QueryAggregatorSampling)) {
+        continue;
+      }
+      long buckets = maxPoints;
+      if (aggregator instanceof QueryAggregatorM4) {
+        buckets = Math.max(1L, maxPoints / QueryAggregatorM4.POINTS_PER_BUCKET);
+      }
+      long step = (range + buckets - 1) / buckets;
+      QueryAggregatorSampling sampling = (QueryAggregatorSampling) aggregator;
+      if (sampling.getSampling() == null || sampling.getSampling().toTimestamp() < step) {
+        sampling.setSampling(new Duration(step, TimeUnit.MILLISECONDS));
+      }
     }
 
-    result.setResults(newValueResults);
+    List<QueryAggregator> limited = new ArrayList<>(aggregators);
+    limited.add(new QueryAggregatorLttb(maxPoints));
+    return limited;
+  }
 
-    return result;
+  static QueryDataPoint createPoint(long timestamp, double value, boolean integer) {
+    if (integer) {
+      return new QueryDataPoint(timestamp, (int) value);
+    }
+    return new QueryDataPoint(timestamp, value);
   }
 
-  static long computeTimestampByAlign(QueryAggregatorAlignable aggregator, long timestamp, long step) {
-    switch (aggregator.getAlign()) {
-      case ALIGN_START_TIME:
-        return ((timestamp - 1) / step) * step + aggregator.getStartTimestamp();
-      case ALIGN_END_TIME:
-        return ((timestamp + step - 1) / step) * step + aggregator.getStartTimestamp();
+  /**
+   * Get the point at another timestamp, used to move the point of a bucket to the start or end of
+   * the bucket when the aggregator is aligned to the start or end time.
+   */
+  public static QueryDataPoint moveTo(QueryDataPoint point, long timestamp) {
+    if (timestamp == point.getTimestamp()) {
+      return point;
+    }
+    switch (point.getType()) {
+      case Types.INTEGER:
+        return new QueryDataPoint(timestamp, point.getIntValue());
+      case Types.DOUBLE:
+        return new QueryDataPoint(timestamp, point.getDoubleValue());
       default:
-        return timestamp;
+        return new QueryDataPoint(timestamp, point.getText());
+    }
+  }
+
+  /**
+   * Computes the series in [low, high) into the same indexes of the new series, halving the range
+   * until a single series is left.
+   */
+  private static class SeriesTask extends RecursiveAction {
+
+    private final SeriesAggregation aggregation;
+    private final List<MetricValueResult> valueResults;
+    private final MetricValueResult[] newValueResults;
+    private final SeriesTaskState shared;
+    private final int low;
+    private final int high;
+
+    SeriesTask(SeriesAggregation aggregation, List<MetricValueResult> valueResults,
+        MetricValueResult[] newValueResults, Thread caller, int low, int high) {
+      this(aggregation, valueResults, newValueResults, new SeriesTaskState(caller), low, high);
+    }
+
+    private SeriesTask(SeriesAggregation aggregation, List<MetricValueResult> valueResults,
+        MetricValueResult[] newValueResults, SeriesTaskState shared, int low, int high) {
+      this.aggregation = aggregation;
+      this.valueResults = valueResults;
+      this.newValueResults = newValueResults;
+      this.shared = shared;
+      this.low = low;
+      this.high = high;
     }
+
+    @Override
+    protected void compute() {
+      if (high - low > 1) {
+        int mid = (low + high) >>> 1;
+        invokeAll(
+            new SeriesTask(aggregation, valueResults, newValueResults, shared, low, mid),
+            new SeriesTask(aggregation, valueResults, newValueResults, shared, mid, high));
+        return;
+      }
+      // The other series are not computed once one has failed
+      if (shared.failure.get() != null) {
+        return;
+      }
+      shared.threads.add(Thread.currentThread());
+      try {
+        newValueResults[low] = aggregateSeries(aggregation, valueResults.get(low), shared.caller);
+      } catch (QueryException e) {
+        shared.failure.compareAndSet(null, e);
+      }
+    }
+
+  }
+
+  /**
+   * The state shared by the tasks of one aggregation.
+   */
+  private static class SeriesTaskState {
+
+    private final Thread caller;
+
+    private final AtomicReference<QueryException> failure = new AtomicReference<>();
+
+    // The threads which have computed any series
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    SeriesTaskState(Thread caller) {
+      this.caller = caller;
+    }
+
+  }
+
+  /**
+   * Computes the new series of one series of a result.
+   */
+  interface SeriesAggregation {
+
+    MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException;
+
   }
 
 }
@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorAvg extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -28,53 +27,13 @@ public class QueryAggregatorAvg extends QueryAggregator
 
   @Override
   public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints =
-        valueResult.splitDataPoint(getStartTimestamp(), step, getAlign());
-
-    for (List<QueryDataPoint> points : splitPoints) {
-
-      long tmpTimestamp = 0L;
-      boolean isTimestampGotten = false;
-
-
-      double tmpDouble = 0.0;
-      int doubleCounter = 0;
-
-      int tempInt = 0;
-      int intCounter = 0;
-
-
-      for (QueryDataPoint point : points) {
-        if (point.isInteger()) {
-          tempInt += point.getIntValue();
-          intCounter++;
-        } else {
-          tmpDouble += point.getDoubleValue();
-          doubleCounter++;
-        }
-        if (!isTimestampGotten) {
-          isTimestampGotten = true;
-          tmpTimestamp = computeTimestampByAlign(this, point.getTimestamp(), step);
-        }
-      }
-      if (intCounter > 0) {
-        newValueResult.addDataPoint(new QueryDataPoint(tmpTimestamp, tempInt / intCounter));
-      } else if (doubleCounter > 0) {
-        newValueResult.addDataPoint(new QueryDataPoint(tmpTimestamp, tmpDouble / doubleCounter));
-      } else {
-        throw new QueryException(
-            "Among avg aggregator, there is an error in QueryAggregatorAvg.aggregate");
-      }
-
-    }
-
-    return newValueResult;
+    return aggregateBuckets(this, valueResult);
   }
 
+  @Override
+  public QueryAggregatorState newState() {
+    return new AvgState();
+  }
 
   @Override
   public void setSampling(Duration sampling) {
@@ -116,4 +75,74 @@ public class QueryAggregatorAvg extends QueryAggregator
     return this.endTimestamp;
   }
 
+  /**
+   * The sums and counts of the integer and the floating point values. Integers are summed as long
+   * values, so the sum cannot overflow.
+   */
+  static class AvgState implements QueryAggregatorState {
+
+    private long timestamp;
+
+    private long intSum;
+    private long intCount;
+
+    private double doubleSum;
+    private long doubleCount;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (isEmpty()) {
+        this.timestamp = timestamp;
+      }
+      if (integer) {
+        intSum += (long) value;
+        intCount++;
+      } else {
+        doubleSum += value;
+        doubleCount++;
+      }
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      AvgState other = (AvgState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty() || other.timestamp < timestamp) {
+        timestamp = other.timestamp;
+      }
+      intSum += other.intSum;
+      intCount += other.intCount;
+      doubleSum += other.doubleSum;
+      doubleCount += other.doubleCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return intCount == 0 && doubleCount == 0;
+    }
+
+    @Override
+    public QueryDataPoint get() throws QueryException {
+      if (intCount > 0) {
+        // The average of integers always fits into an integer
+        return new QueryDataPoint(timestamp, (int) (intSum / intCount));
+      } else if (doubleCount > 0) {
+        return new QueryDataPoint(timestamp, doubleSum / doubleCount);
+      } else {
+        throw new QueryException(
+            "Among avg aggregator, there is an error in QueryAggregatorAvg.aggregate");
+      }
+    }
+
+    @Override
+    public void clear() {
+      intSum = 0;
+      intCount = 0;
+      doubleSum = 0.0;
+      doubleCount = 0;
+    }
+  }
+
 }
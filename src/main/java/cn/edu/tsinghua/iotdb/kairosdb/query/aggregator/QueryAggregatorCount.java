@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorCount extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -27,20 +26,13 @@ public class QueryAggregatorCount extends QueryAggregator
   }
 
   @Override
-  public MetricValueResult aggregate(MetricValueResult valueResult) {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints =
-        valueResult.splitDataPoint(getStartTimestamp(), step, getAlign());
-
-    for (List<QueryDataPoint> points : splitPoints) {
-      long timestamp = computeTimestampByAlign(this, points.get(0).getTimestamp(), step);
-      newValueResult.addDataPoint(new QueryDataPoint(timestamp, points.size()));
-    }
+  public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new CountState();
   }
 
   @Override
@@ -83,4 +75,48 @@ public class QueryAggregatorCount extends QueryAggregator
     return this.endTimestamp;
   }
 
+  static class CountState implements QueryAggregatorState {
+
+    private long timestamp;
+    private long count;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (count == 0) {
+        this.timestamp = timestamp;
+      }
+      count++;
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      CountState other = (CountState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty() || other.timestamp < timestamp) {
+        timestamp = other.timestamp;
+      }
+      count += other.count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return count == 0;
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      if (count == (int) count) {
+        return new QueryDataPoint(timestamp, (int) count);
+      }
+      return new QueryDataPoint(timestamp, (double) count);
+    }
+
+    @Override
+    public void clear() {
+      count = 0;
+    }
+  }
+
 }
@@ -0,0 +1,221 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import cn.edu.tsinghua.iotdb.kairosdb.util.HyperLogLog;
+
+/**
+ * Counts the distinct values of every bucket. Up to COUNT_DISTINCT_EXACT_VALUES distinct values
+ * the count is exact, above that it is estimated by a HyperLogLog of COUNT_DISTINCT_PRECISION, so
+ * a bucket takes bounded memory however many points it has.
+ */
+public class QueryAggregatorCountDistinct extends QueryAggregator
+    implements QueryAggregatorStreamable {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  private Duration sampling;
+
+  private QueryAggregatorAlign align;
+
+  private long startTimestamp;
+  private long endTimestamp;
+
+  QueryAggregatorCountDistinct() {
+    super(QueryAggregatorType.COUNT_DISTINCT);
+  }
+
+  @Override
+  public MetricResult doAggregate(MetricResult result) throws QueryException {
+    return useMethodAggregate(this, result);
+  }
+
+  @Override
+  public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    return aggregateBuckets(this, valueResult);
+  }
+
+  @Override
+  public QueryAggregatorState newState() {
+    return new CountDistinctState(config.COUNT_DISTINCT_EXACT_VALUES,
+        config.COUNT_DISTINCT_PRECISION);
+  }
+
+  @Override
+  public void setSampling(Duration sampling) {
+    this.sampling = sampling;
+  }
+
+  @Override
+  public Duration getSampling() {
+    return sampling;
+  }
+
+  @Override
+  public void setAlign(QueryAggregatorAlign align) {
+    this.align = align;
+  }
+
+  @Override
+  public QueryAggregatorAlign getAlign() {
+    return align;
+  }
+
+  @Override
+  public void setStartTimestamp(long startTimestamp) {
+    this.startTimestamp = startTimestamp;
+  }
+
+  @Override
+  public long getStartTimestamp() {
+    return this.startTimestamp;
+  }
+
+  @Override
+  public void setEndTimestamp(long endTimestamp) {
+    this.endTimestamp = endTimestamp;
+  }
+
+  @Override
+  public long getEndTimestamp() {
+    return this.endTimestamp;
+  }
+
+  static class CountDistinctState implements QueryAggregatorState {
+
+    private int exactValues;
+    private int precision;
+
+    private boolean empty = true;
+    private long timestamp;
+
+    // The hashes of the distinct values in open addressing, 0 marks a free slot
+    private long[] hashes;
+    private int size;
+
+    // Not null once the bucket has too many distinct values to keep
+    private HyperLogLog sketch;
+
+    CountDistinctState(int exactValues, int precision) {
+      this.exactValues = exactValues;
+      this.precision = precision;
+    }
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (empty) {
+        this.timestamp = timestamp;
+        empty = false;
+      }
+      addHash(HyperLogLog.hash(value));
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      CountDistinctState other = (CountDistinctState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (empty || other.timestamp < timestamp) {
+        timestamp = other.timestamp;
+      }
+      empty = false;
+      if (other.sketch != null) {
+        if (sketch == null) {
+          sketch();
+        }
+        sketch.merge(other.sketch);
+      } else if (other.hashes != null) {
+        for (long hash : other.hashes) {
+          if (hash != 0) {
+            addHash(hash);
+          }
+        }
+      }
+    }
+
+    private void addHash(long hash) {
+      if (sketch != null) {
+        sketch.add(hash);
+        return;
+      }
+      if (hashes == null) {
+        hashes = new long[16];
+      } else if ((size + 1) * 2 > hashes.length) {
+        long[] old = hashes;
+        hashes = new long[old.length * 2];
+        for (long oldHash : old) {
+          if (oldHash != 0) {
+            insert(oldHash);
+          }
+        }
+      }
+      if (insert(hash)) {
+        size++;
+        if (size > exactValues) {
+          sketch();
+        }
+      }
+    }
+
+    /**
+     * @return false if the hash was already in the table
+     */
+    private boolean insert(long hash) {
+      int mask = hashes.length - 1;
+      int slot = (int) (hash ^ (hash >>> 32)) & mask;
+      while (hashes[slot] != 0) {
+        if (hashes[slot] == hash) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      hashes[slot] = hash;
+      return true;
+    }
+
+    /**
+     * Move the kept hashes into a new sketch.
+     */
+    private void sketch() {
+      sketch = new HyperLogLog(precision);
+      if (hashes != null) {
+        for (long hash : hashes) {
+          if (hash != 0) {
+            sketch.add(hash);
+          }
+        }
+      }
+      hashes = null;
+      size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      long count = sketch == null ? size : sketch.cardinality();
+      if (count == (int) count) {
+        return new QueryDataPoint(timestamp, (int) count);
+      }
+      return new QueryDataPoint(timestamp, (double) count);
+    }
+
+    @Override
+    public void clear() {
+      empty = true;
+      hashes = null;
+      size = 0;
+      sketch = null;
+    }
+  }
+
+}
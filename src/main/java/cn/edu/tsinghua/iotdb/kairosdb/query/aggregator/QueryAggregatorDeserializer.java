@@ -4,6 +4,7 @@ import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import java.lang.reflect.Type;
 import org.slf4j.Logger;
@@ -57,6 +58,15 @@ public class QueryAggregatorDeserializer implements JsonDeserializer<QueryAggreg
           countAggregator.setAlign(getAlign(jsonElement));
           aggregator = countAggregator;
           break;
+        case COUNT_DISTINCT:
+          QueryAggregatorCountDistinct countDistinctAggregator =
+              new QueryAggregatorCountDistinct();
+          duration = jsonDeserializationContext.deserialize(
+              jsonElement.getAsJsonObject().get(SAMPLING), Duration.class);
+          countDistinctAggregator.setSampling(duration);
+          countDistinctAggregator.setAlign(getAlign(jsonElement));
+          aggregator = countDistinctAggregator;
+          break;
         case FIRST:
           QueryAggregatorFirst firstAggregator = new QueryAggregatorFirst();
           duration = jsonDeserializationContext.deserialize(
@@ -94,11 +104,17 @@ public class QueryAggregatorDeserializer implements JsonDeserializer<QueryAggreg
           duration = jsonDeserializationContext.deserialize(
               jsonElement.getAsJsonObject().get(SAMPLING), Duration.class);
           percentileAggregator.setSampling(duration);
+          percentileAggregator.setAlign(getAlign(jsonElement));
           JsonElement percentileEle = jsonElement.getAsJsonObject().get("percentile");
           if (percentileEle == null) {
             throw new JsonParseException("Among aggregator percentile, [percentile] must be specified");
           }
           percentileAggregator.setPercentile(percentileEle.getAsDouble());
+          if (percentileAggregator.getPercentile() <= 0
+              || percentileAggregator.getPercentile() > 1) {
+            throw new JsonParseException(
+                "Among aggregator percentile, [percentile] must be in (0,1]");
+          }
           aggregator = percentileAggregator;
           break;
         case SUM:
@@ -166,6 +182,61 @@ public class QueryAggregatorDeserializer implements JsonDeserializer<QueryAggreg
           filterAggregator.setThreshold(thresholdEle.getAsDouble());
           aggregator = filterAggregator;
           break;
+        case LTTB:
+          QueryAggregatorLttb lttbAggregator = new QueryAggregatorLttb();
+          JsonElement maxPointsEle = jsonElement.getAsJsonObject().get("max_points");
+          if (maxPointsEle == null) {
+            throw new JsonParseException("Among aggregator lttb, [max_points] must be specified");
+          }
+          lttbAggregator.setMaxPoints(maxPointsEle.getAsInt());
+          if (lttbAggregator.getMaxPoints() < 1) {
+            throw new JsonParseException("Among aggregator lttb, [max_points] must be positive");
+          }
+          aggregator = lttbAggregator;
+          break;
+        case M4:
+          QueryAggregatorM4 m4Aggregator = new QueryAggregatorM4();
+          duration = jsonDeserializationContext.deserialize(
+              jsonElement.getAsJsonObject().get(SAMPLING), Duration.class);
+          if (duration == null) {
+            throw new JsonParseException("Among aggregator m4, [sampling] must be specified");
+          }
+          m4Aggregator.setSampling(duration);
+          m4Aggregator.setAlign(getAlign(jsonElement));
+          aggregator = m4Aggregator;
+          break;
+        case TOP_K:
+        case BOTTOM_K:
+          QueryAggregatorTopK topKAggregator = new QueryAggregatorTopK(queryAggregatorType);
+          JsonElement kEle = jsonElement.getAsJsonObject().get("k");
+          if (kEle == null) {
+            throw new JsonParseException(
+                String.format("Among aggregator %s, [k] must be specified", name));
+          }
+          topKAggregator.setK(kEle.getAsInt());
+          if (topKAggregator.getK() < 1) {
+            throw new JsonParseException(
+                String.format("Among aggregator %s, [k] must be positive", name));
+          }
+          JsonElement rankByEle = jsonElement.getAsJsonObject().get("rank_by");
+          if (rankByEle == null) {
+            throw new JsonParseException(
+                String.format("Among aggregator %s, [rank_by] must be specified", name));
+          }
+          // The name alone is enough for the aggregators without parameters
+          if (rankByEle.isJsonPrimitive()) {
+            JsonObject rankByObj = new JsonObject();
+            rankByObj.addProperty("name", rankByEle.getAsString());
+            rankByEle = rankByObj;
+          }
+          QueryAggregator rankBy = deserialize(rankByEle, type, jsonDeserializationContext);
+          if (!(rankBy instanceof QueryAggregatorStreamable)) {
+            throw new JsonParseException(String.format("Among aggregator %s, [rank_by] must be "
+                + "a sampling aggregator, e.g. \"avg\" or \"max\"", name));
+          }
+          topKAggregator.setRankBy((QueryAggregatorStreamable) rankBy);
+          aggregator = topKAggregator;
+          break;
         default:
           LOGGER.error("QueryAggregatorDeserializer.deserialize: unexpected aggregator type");
           throw new JsonParseException("unexpected aggregator type");
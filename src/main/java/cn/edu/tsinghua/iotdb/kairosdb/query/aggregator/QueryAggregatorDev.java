@@ -1,15 +1,17 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
 
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
-
+import java.util.concurrent.RecursiveTask;
 
 public class QueryAggregatorDev extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -18,6 +20,11 @@ public class QueryAggregatorDev extends QueryAggregator
   private long startTimestamp;
   private long endTimestamp;
 
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // The number of points a fork/join task computes without splitting them further
+  private static final int LEAF_POINTS = 1 << 16;
+
   private static final int VALUE_TYPE = 0;
   private static final int POS_SD_TYPE = 1;
   private static final int NEG_SD_TYPE = 2;
@@ -35,54 +42,26 @@ public class QueryAggregatorDev extends QueryAggregator
 
   @Override
   public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints =
-        valueResult.splitDataPoint(getStartTimestamp(), step, getAlign());
-
-    for (List<QueryDataPoint> points : splitPoints) {
-      long tmpTimestamp = computeTimestampByAlign(this, points.get(0).getTimestamp(), step);
-
-      double[] result = computeStandardDeviation(points);
-
-      QueryDataPoint point;
-
-      switch (getReturnType()) {
-        case VALUE_TYPE:
-          point = new QueryDataPoint(tmpTimestamp, result[0]);
-          break;
-        case POS_SD_TYPE:
-          point = new QueryDataPoint(tmpTimestamp, result[1] + result[0]);
-          break;
-        case NEG_SD_TYPE:
-          point = new QueryDataPoint(tmpTimestamp, result[1] - result[0]);
-          break;
-        default:
-          throw new QueryException("Among dev aggregator, return_type must be specified.");
-      }
-
-      newValueResult.addDataPoint(point);
-
-    }
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new DevState(getReturnType());
   }
 
-  private double[] computeStandardDeviation(List<QueryDataPoint> points) {
-    int size = points.size();
-    double sum = 0;
-    for (QueryDataPoint point : points) {
-      sum += point.getAsDouble();
-    }
-    double avg = sum / size;
-    sum = 0;
-    for (QueryDataPoint point : points) {
-      double value = point.getAsDouble();
-      sum += (value - avg) * (value - avg);
+  /**
+   * Buckets of at least QUERY_PARALLEL_BUCKET_POINTS points are split into fork/join tasks, whose
+   * moments are merged in a fixed order, so the result does not depend on the scheduling.
+   */
+  @Override
+  public void addBucket(QueryAggregatorState state, BucketCursor cursor) {
+    if (cursor.size() < Math.max(config.QUERY_PARALLEL_BUCKET_POINTS, LEAF_POINTS)) {
+      QueryAggregatorStreamable.super.addBucket(state, cursor);
+      return;
     }
-    return new double[]{Math.sqrt(sum), avg};
+    state.merge(AGGREGATION_POOL.invoke(
+        new DevTask(cursor, cursor.getStart(), cursor.getEnd(), getReturnType())));
   }
 
   boolean setReturnTypeFromString(String returnType) {
@@ -149,4 +128,120 @@ public class QueryAggregatorDev extends QueryAggregator
     return this.endTimestamp;
   }
 
+  /**
+   * The count, mean and sum of squared differences from the mean (M2) of the values, updated one
+   * value at a time with Welford's algorithm and merged with the formula of Chan et al., so the
+   * deviation is computed in a single pass without keeping the values. The deviation is the
+   * population standard deviation, sqrt(M2 / count).
+   */
+  static class DevState implements QueryAggregatorState {
+
+    private int returnType;
+
+    private long timestamp;
+    private long count;
+    private double mean;
+    private double m2;
+
+    DevState(int returnType) {
+      this.returnType = returnType;
+    }
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (count == 0) {
+        this.timestamp = timestamp;
+      }
+      count++;
+      double delta = value - mean;
+      mean += delta / count;
+      m2 += delta * (value - mean);
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      DevState other = (DevState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty()) {
+        timestamp = other.timestamp;
+        count = other.count;
+        mean = other.mean;
+        m2 = other.m2;
+        return;
+      }
+      timestamp = Math.min(timestamp, other.timestamp);
+      long total = count + other.count;
+      double delta = other.mean - mean;
+      mean += delta * other.count / total;
+      m2 += other.m2 + delta * delta * count * other.count / total;
+      count = total;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return count == 0;
+    }
+
+    @Override
+    public QueryDataPoint get() throws QueryException {
+      double deviation = count == 0 ? 0 : Math.sqrt(m2 / count);
+      switch (returnType) {
+        case VALUE_TYPE:
+          return new QueryDataPoint(timestamp, deviation);
+        case POS_SD_TYPE:
+          return new QueryDataPoint(timestamp, mean + deviation);
+        case NEG_SD_TYPE:
+          return new QueryDataPoint(timestamp, mean - deviation);
+        default:
+          throw new QueryException("Among dev aggregator, return_type must be specified.");
+      }
+    }
+
+    @Override
+    public void clear() {
+      count = 0;
+      mean = 0;
+      m2 = 0;
+    }
+  }
+
+  /**
+   * Computes the moments of the points in [start, end) of the cursor.
+   */
+  private static class DevTask extends RecursiveTask<DevState> {
+
+    private final BucketCursor cursor;
+    private final int start;
+    private final int end;
+    private final int returnType;
+
+    DevTask(BucketCursor cursor, int start, int end, int returnType) {
+      this.cursor = cursor;
+      this.start = start;
+      this.end = end;
+      this.returnType = returnType;
+    }
+
+    @Override
+    protected DevState compute() {
+      if (end - start <= LEAF_POINTS) {
+        DevState state = new DevState(returnType);
+        for (int i = start; i < end; i++) {
+          QueryDataPoint point = cursor.get(i);
+          state.add(point.getTimestamp(), point.getAsDouble(), point.isInteger());
+        }
+        return state;
+      }
+      int middle = (start + end) >>> 1;
+      DevTask left = new DevTask(cursor, start, middle, returnType);
+      left.fork();
+      DevState state = new DevTask(cursor, middle, end, returnType).compute();
+      DevState result = left.join();
+      result.merge(state);
+      return result;
+    }
+  }
+
 }
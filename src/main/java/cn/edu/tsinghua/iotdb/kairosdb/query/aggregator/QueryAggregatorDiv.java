@@ -3,9 +3,11 @@ package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.ArrayList;
 import java.util.List;
 
-public class QueryAggregatorDiv extends QueryAggregator {
+public class QueryAggregatorDiv extends QueryAggregator implements QueryAggregatorPointwise {
 
   private double divisor;
 
@@ -16,9 +18,7 @@ public class QueryAggregatorDiv extends QueryAggregator {
   @Override
   public MetricResult doAggregate(MetricResult result) throws QueryException {
 
-    if (getDivisor() == 0) {
-      throw new QueryException("Among div aggregator, divisor can't be zero");
-    }
+    validate();
 
     List<MetricValueResult> valueResults = result.getResults();
 
@@ -28,13 +28,42 @@ public class QueryAggregatorDiv extends QueryAggregator {
         continue;
       }
 
-      valueResult.getDatapoints().forEach(point -> point.dividedBy(getDivisor()));
+      // The points may be shared with other results, so they are replaced instead of changed
+      List<QueryDataPoint> points = new ArrayList<>(valueResult.getDatapoints().size());
+      for (QueryDataPoint point : valueResult.getDatapoints()) {
+        points.add(createPoint(point.getTimestamp(),
+            apply(point.getAsDouble(), point.isInteger()), point.isInteger()));
+      }
+      valueResult.setValues(points);
 
     }
 
     return result;
   }
 
+  @Override
+  public void validate() throws QueryException {
+    if (getDivisor() == 0) {
+      throw new QueryException("Among div aggregator, divisor can't be zero");
+    }
+  }
+
+  @Override
+  public boolean test(double value) {
+    return true;
+  }
+
+  /**
+   * Integers stay integers and are divided by the divisor truncated to an integer.
+   */
+  @Override
+  public double apply(double value, boolean integer) {
+    if (integer) {
+      return (int) value / (int) getDivisor();
+    }
+    return value / getDivisor();
+  }
+
   private double getDivisor() {
     return divisor;
   }
@@ -6,10 +6,10 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
-public class QueryAggregatorFilter extends QueryAggregator {
+public class QueryAggregatorFilter extends QueryAggregator implements QueryAggregatorPointwise {
 
   private FilterOperandType operandType;
   private double threshold;
@@ -20,6 +20,8 @@ public class QueryAggregatorFilter extends QueryAggregator {
 
   @Override
   public MetricResult doAggregate(MetricResult result) throws QueryException {
+    validate();
+
     List<MetricValueResult> valueResults = result.getResults();
 
     for (MetricValueResult valueResult : valueResults) {
@@ -28,38 +30,11 @@ public class QueryAggregatorFilter extends QueryAggregator {
         continue;
       }
 
-      List<QueryDataPoint> list = new LinkedList<>();
+      List<QueryDataPoint> list = new ArrayList<>();
 
       for (QueryDataPoint point : valueResult.getDatapoints()) {
-        switch (operandType) {
-          case GT:
-            if (point.getAsDouble() > threshold) {
-              list.add(point);
-            }
-            break;
-          case GTE:
-            if (point.getAsDouble() >= threshold) {
-              list.add(point);
-            }
-            break;
-          case LT:
-            if (point.getAsDouble() < threshold) {
-              list.add(point);
-            }
-            break;
-          case LTE:
-            if (point.getAsDouble() <= threshold) {
-              list.add(point);
-            }
-            break;
-          case EQUAL:
-            if (point.getAsDouble() == threshold) {
-              list.add(point);
-            }
-            break;
-          default:
-            throw new QueryException("Among filter aggregator, "
-                + "threshold must be one of [gt, gte, lt, lte, equal]");
+        if (test(point.getAsDouble())) {
+          list.add(point);
         }
       }
 
@@ -69,6 +44,37 @@ public class QueryAggregatorFilter extends QueryAggregator {
     return result;
   }
 
+  @Override
+  public void validate() throws QueryException {
+    if (operandType == null) {
+      throw new QueryException("Among filter aggregator, "
+          + "threshold must be one of [gt, gte, lt, lte, equal]");
+    }
+  }
+
+  @Override
+  public boolean test(double value) {
+    switch (operandType) {
+      case GT:
+        return value > threshold;
+      case GTE:
+        return value >= threshold;
+      case LT:
+        return value < threshold;
+      case LTE:
+        return value <= threshold;
+      case EQUAL:
+        return value == threshold;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public double apply(double value, boolean integer) {
+    return value;
+  }
+
   public void setOperandType(String typeStr) {
     this.operandType = FilterOperandType.fromString(typeStr);
   }
@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorFirst extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -27,18 +26,13 @@ public class QueryAggregatorFirst extends QueryAggregator
   }
 
   @Override
-  public MetricValueResult aggregate(MetricValueResult valueResult) {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints = valueResult.splitDataPoint(getStartTimestamp(), step);
-
-    for (List<QueryDataPoint> points : splitPoints) {
-      newValueResult.addDataPoint(points.get(0));
-    }
+  public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new FirstState();
   }
 
   @Override
@@ -81,4 +75,52 @@ public class QueryAggregatorFirst extends QueryAggregator
     return this.endTimestamp;
   }
 
+  static class FirstState implements QueryAggregatorState {
+
+    private boolean empty = true;
+    private long timestamp;
+    private double value;
+    private boolean integer;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (empty) {
+        set(timestamp, value, integer);
+      }
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      FirstState other = (FirstState) state;
+      if (other.empty) {
+        return;
+      }
+      if (empty || other.timestamp < timestamp) {
+        set(other.timestamp, other.value, other.integer);
+      }
+    }
+
+    private void set(long timestamp, double value, boolean integer) {
+      this.timestamp = timestamp;
+      this.value = value;
+      this.integer = integer;
+      empty = false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      return createPoint(timestamp, value, integer);
+    }
+
+    @Override
+    public void clear() {
+      empty = true;
+    }
+  }
+
 }
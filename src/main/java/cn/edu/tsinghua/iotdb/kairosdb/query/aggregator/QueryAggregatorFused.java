@@ -0,0 +1,100 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.List;
+
+/**
+ * A chain of per-point aggregators (filter, div) followed by a sampling aggregator, computed in a
+ * single pass: every point goes through the per-point stages as a primitive value and is added to
+ * the bucket of the sampling aggregator right away, so no intermediate list of points is built.
+ */
+class QueryAggregatorFused extends QueryAggregator {
+
+  private final QueryAggregatorPointwise[] stages;
+
+  private final QueryAggregatorStreamable sampler;
+
+  QueryAggregatorFused(List<QueryAggregatorPointwise> stages, QueryAggregatorStreamable sampler,
+      QueryAggregatorType type) {
+    super(type);
+    this.stages = stages.toArray(new QueryAggregatorPointwise[0]);
+    this.sampler = sampler;
+  }
+
+  @Override
+  public MetricResult doAggregate(MetricResult result) throws QueryException {
+    for (QueryAggregatorPointwise stage : stages) {
+      stage.validate();
+    }
+    return useMethodAggregate(this::aggregate, result);
+  }
+
+  private MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
+
+    long step = sampler.getSampling().toTimestamp();
+    QueryAggregatorAlign align = sampler.getAlign();
+    if (align == null) {
+      align = QueryAggregatorAlign.NO_ALIGN;
+    }
+    QueryAggregatorState state = sampler.newState();
+
+    boolean started = false;
+    long origin = 0;
+    long bucketStart = 0;
+    boolean inBucket = false;
+
+    for (QueryDataPoint point : valueResult.getDatapoints()) {
+      double value = point.getAsDouble();
+      boolean integer = point.isInteger();
+      boolean kept = true;
+      for (QueryAggregatorPointwise stage : stages) {
+        if (!stage.test(value)) {
+          kept = false;
+          break;
+        }
+        value = stage.apply(value, integer);
+      }
+      if (!kept) {
+        continue;
+      }
+
+      long timestamp = point.getTimestamp();
+      if (!started) {
+        // Same buckets as BucketCursor: aligned to the sampling they start at the first point
+        origin = align == QueryAggregatorAlign.ALIGN_SAMPLING ? timestamp
+            : sampler.getStartTimestamp();
+        started = true;
+      }
+      if (timestamp < origin) {
+        continue;
+      }
+      if (!inBucket || timestamp >= bucketStart + step) {
+        if (inBucket) {
+          newValueResult.addDataPoint(finish(state, align, bucketStart, step));
+        }
+        bucketStart = origin + (timestamp - origin) / step * step;
+        inBucket = true;
+      }
+      state.add(timestamp, value, integer);
+    }
+    if (inBucket) {
+      newValueResult.addDataPoint(finish(state, align, bucketStart, step));
+    }
+
+    return newValueResult;
+  }
+
+  private QueryDataPoint finish(QueryAggregatorState state, QueryAggregatorAlign align,
+      long bucketStart, long step) throws QueryException {
+    QueryDataPoint point = state.get();
+    state.clear();
+    return moveTo(point,
+        BucketCursor.alignTimestamp(align, bucketStart, step, point.getTimestamp()));
+  }
+
+}
@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorLast extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -27,18 +26,13 @@ public class QueryAggregatorLast extends QueryAggregator
   }
 
   @Override
-  public MetricValueResult aggregate(MetricValueResult valueResult) {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints = valueResult.splitDataPoint(getStartTimestamp(), step);
-
-    for (List<QueryDataPoint> points : splitPoints) {
-      newValueResult.addDataPoint(points.get(points.size() - 1));
-    }
+  public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new LastState();
   }
 
   @Override
@@ -81,4 +75,50 @@ public class QueryAggregatorLast extends QueryAggregator
     return this.endTimestamp;
   }
 
+  static class LastState implements QueryAggregatorState {
+
+    private boolean empty = true;
+    private long timestamp;
+    private double value;
+    private boolean integer;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      set(timestamp, value, integer);
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      LastState other = (LastState) state;
+      if (other.empty) {
+        return;
+      }
+      if (empty || other.timestamp >= timestamp) {
+        set(other.timestamp, other.value, other.integer);
+      }
+    }
+
+    private void set(long timestamp, double value, boolean integer) {
+      this.timestamp = timestamp;
+      this.value = value;
+      this.integer = integer;
+      empty = false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      return createPoint(timestamp, value, integer);
+    }
+
+    @Override
+    public void clear() {
+      empty = true;
+    }
+  }
+
 }
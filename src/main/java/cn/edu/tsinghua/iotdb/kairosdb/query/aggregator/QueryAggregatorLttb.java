@@ -0,0 +1,113 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces every series to at most max_points of its points with the Largest-Triangle-Three-Buckets
+ * algorithm (Steinarsson), which keeps the points that shape a line chart of the series: the
+ * first and last point, and from every bucket in between the point forming the largest triangle
+ * with the point kept before it and the average of the next bucket.
+ *
+ * <p>Series which already fit, and text series, are returned unchanged.
+ */
+public class QueryAggregatorLttb extends QueryAggregator {
+
+  private int maxPoints;
+
+  QueryAggregatorLttb() {
+    super(QueryAggregatorType.LTTB);
+  }
+
+  QueryAggregatorLttb(int maxPoints) {
+    this();
+    this.maxPoints = maxPoints;
+  }
+
+  public int getMaxPoints() {
+    return maxPoints;
+  }
+
+  public void setMaxPoints(int maxPoints) {
+    this.maxPoints = maxPoints;
+  }
+
+  @Override
+  public MetricResult doAggregate(MetricResult result) throws QueryException {
+    for (MetricValueResult valueResult : result.getResults()) {
+
+      // The sub-query is interrupted when the query is stopped
+      if (Thread.currentThread().isInterrupted()) {
+        throw new QueryException("Query has been interrupted");
+      }
+
+      if (valueResult.isTextType() || valueResult.getDatapoints().size() <= maxPoints) {
+        continue;
+      }
+      valueResult.setValues(downsample(valueResult.getDatapoints(), maxPoints));
+    }
+    return result;
+  }
+
+  static List<QueryDataPoint> downsample(List<QueryDataPoint> pointList, int maxPoints) {
+    QueryDataPoint[] points = pointList.toArray(new QueryDataPoint[0]);
+    int size = points.length;
+    List<QueryDataPoint> sampled = new ArrayList<>(maxPoints);
+    if (maxPoints < 3) {
+      sampled.add(points[0]);
+      if (maxPoints == 2) {
+        sampled.add(points[size - 1]);
+      }
+      return sampled;
+    }
+
+    // The timestamps are taken relative to the first point, so they fit a double exactly
+    long origin = points[0].getTimestamp();
+    double[] x = new double[size];
+    double[] y = new double[size];
+    for (int i = 0; i < size; i++) {
+      x[i] = points[i].getTimestamp() - origin;
+      y[i] = points[i].getAsDouble();
+    }
+
+    // The points between the first and the last one are split into maxPoints - 2 buckets
+    double bucketSize = (double) (size - 2) / (maxPoints - 2);
+    int previous = 0;
+    sampled.add(points[0]);
+    for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+      int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+      int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+      double averageX = 0;
+      double averageY = 0;
+      for (int i = nextStart; i < nextEnd; i++) {
+        averageX += x[i];
+        averageY += y[i];
+      }
+      averageX /= nextEnd - nextStart;
+      averageY /= nextEnd - nextStart;
+
+      int start = (int) (bucket * bucketSize) + 1;
+      int end = nextStart;
+      int selected = start;
+      double largestArea = -1;
+      for (int i = start; i < end; i++) {
+        // Twice the area of the triangle, which does not change the largest one
+        double area = Math.abs((x[previous] - averageX) * (y[i] - y[previous])
+            - (x[previous] - x[i]) * (averageY - y[previous]));
+        if (area > largestArea) {
+          largestArea = area;
+          selected = i;
+        }
+      }
+      sampled.add(points[selected]);
+      previous = selected;
+    }
+    sampled.add(points[size - 1]);
+    return sampled;
+  }
+
+}
@@ -0,0 +1,122 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+
+/**
+ * Keeps the first, last, smallest and largest point of every bucket (Jugel et al., M4). With one
+ * bucket per pixel column a line chart of the kept points is drawn exactly like the chart of all
+ * points, so the sampling is best set to the time range of the query divided by the width of the
+ * chart.
+ *
+ * <p>The points keep their own timestamps, the align only chooses where the buckets start.
+ */
+public class QueryAggregatorM4 extends QueryAggregator
+    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+
+  // The number of points kept from every bucket, at most
+  static final int POINTS_PER_BUCKET = 4;
+
+  private Duration sampling;
+
+  private QueryAggregatorAlign align;
+
+  private long startTimestamp;
+  private long endTimestamp;
+
+  QueryAggregatorM4() {
+    super(QueryAggregatorType.M4);
+  }
+
+  @Override
+  public MetricResult doAggregate(MetricResult result) throws QueryException {
+    return useMethodAggregate(this, result);
+  }
+
+  @Override
+  public MetricValueResult aggregate(MetricValueResult valueResult) {
+    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
+
+    BucketCursor cursor = valueResult
+        .bucketCursor(startTimestamp, sampling.toTimestamp(), align);
+    while (cursor.next()) {
+      int first = cursor.getStart();
+      int last = cursor.getEnd() - 1;
+      int min = first;
+      int max = first;
+      double minValue = cursor.get(first).getAsDouble();
+      double maxValue = minValue;
+      for (int i = first + 1; i <= last; i++) {
+        double value = cursor.get(i).getAsDouble();
+        if (value < minValue) {
+          min = i;
+          minValue = value;
+        } else if (value > maxValue) {
+          max = i;
+          maxValue = value;
+        }
+      }
+
+      // The kept points are added in time order, each of them once
+      int low = Math.min(min, max);
+      int high = Math.max(min, max);
+      newValueResult.addDataPoint(cursor.get(first));
+      if (low != first) {
+        newValueResult.addDataPoint(cursor.get(low));
+      }
+      if (high != low && high != last) {
+        newValueResult.addDataPoint(cursor.get(high));
+      }
+      if (last != first && last != low) {
+        newValueResult.addDataPoint(cursor.get(last));
+      }
+    }
+
+    return newValueResult;
+  }
+
+  @Override
+  public void setSampling(Duration sampling) {
+    this.sampling = sampling;
+  }
+
+  @Override
+  public Duration getSampling() {
+    return sampling;
+  }
+
+  @Override
+  public void setAlign(QueryAggregatorAlign align) {
+    this.align = align;
+  }
+
+  @Override
+  public QueryAggregatorAlign getAlign() {
+    return align;
+  }
+
+  @Override
+  public void setStartTimestamp(long startTimestamp) {
+    this.startTimestamp = startTimestamp;
+  }
+
+  @Override
+  public long getStartTimestamp() {
+    return this.startTimestamp;
+  }
+
+  @Override
+  public void setEndTimestamp(long endTimestamp) {
+    this.endTimestamp = endTimestamp;
+  }
+
+  @Override
+  public long getEndTimestamp() {
+    return this.endTimestamp;
+  }
+
+}
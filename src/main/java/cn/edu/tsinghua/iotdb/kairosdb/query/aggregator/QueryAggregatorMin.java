@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorMin extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -27,31 +26,13 @@ public class QueryAggregatorMin extends QueryAggregator
   }
 
   @Override
-  public MetricValueResult aggregate(MetricValueResult valueResult) {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints = valueResult.splitDataPoint(getStartTimestamp(), step);
-
-    for (List<QueryDataPoint> points : splitPoints) {
-
-      QueryDataPoint tPoint = null;
-      for (QueryDataPoint point : points) {
-        if (tPoint == null) {
-          tPoint = point;
-          continue;
-        }
-        if (point.compareTo(tPoint) < 0) {
-          tPoint = point;
-        }
-      }
-
-      newValueResult.addDataPoint(tPoint);
-
-    }
+  public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new MinState();
   }
 
   @Override
@@ -94,4 +75,54 @@ public class QueryAggregatorMin extends QueryAggregator
     return this.endTimestamp;
   }
 
+  static class MinState implements QueryAggregatorState {
+
+    private boolean empty = true;
+    private long timestamp;
+    private double value;
+    private boolean integer;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      // The first of the points with the smallest value is taken
+      if (empty || value < this.value) {
+        set(timestamp, value, integer);
+      }
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      MinState other = (MinState) state;
+      if (other.empty) {
+        return;
+      }
+      if (empty || other.value < value
+          || (other.value == value && other.timestamp < timestamp)) {
+        set(other.timestamp, other.value, other.integer);
+      }
+    }
+
+    private void set(long timestamp, double value, boolean integer) {
+      this.timestamp = timestamp;
+      this.value = value;
+      this.integer = integer;
+      empty = false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      return createPoint(timestamp, value, integer);
+    }
+
+    @Override
+    public void clear() {
+      empty = true;
+    }
+  }
+
 }
@@ -1,20 +1,25 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
 
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
 import cn.edu.tsinghua.iotdb.kairosdb.util.DoubleUtil;
-import java.sql.Types;
-import java.util.Comparator;
-import java.util.List;
+import cn.edu.tsinghua.iotdb.kairosdb.util.TDigest;
+import java.util.Arrays;
 
-public class QueryAggregatorPercentile extends QueryAggregator implements QueryAggregatorSampling,
-    QueryAggregatorAlignable {
+public class QueryAggregatorPercentile extends QueryAggregator
+    implements QueryAggregatorStreamable {
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
 
   private Duration sampling;
 
+  private QueryAggregatorAlign align;
+
   private double percentile;
 
   private long startTimestamp;
@@ -31,52 +36,40 @@ public class QueryAggregatorPercentile extends QueryAggregator implements QueryA
 
   @Override
   public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    if (getPercentile() <= 0 || getPercentile() > 1) {
-      throw new QueryException("Among percentile aggregator, percentile must be in (0,1].");
-    }
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints = valueResult.splitDataPoint(getStartTimestamp(), step);
-
-    for (List<QueryDataPoint> points : splitPoints) {
-
-      if (points.isEmpty() || points.get(0).getType() == Types.VARCHAR) {
-        continue;
-      }
-
-      long timestamp = points.get(0).getTimestamp();
-
-      points.sort(Comparator.comparingDouble(QueryDataPoint::getAsDouble));
-
-      double value = points.get(0).getAsDouble();
-      if (percentile == 1.0) {
-        value = points.get(points.size() - 1).getAsDouble();
-      } else if (points.size() > 2) {
-
-        double pos = DoubleUtil
-            .sub(DoubleUtil.mul(DoubleUtil.add(points.size(), 1.0), percentile), 1.0);
+    return aggregateBuckets(this, valueResult);
+  }
 
-        int floor = (int) pos;
+  @Override
+  public QueryAggregatorState newState() {
+    return new PercentileState(getPercentile(), config.PERCENTILE_EXACT_POINTS,
+        config.PERCENTILE_COMPRESSION);
+  }
 
-        double preValue = points.get(floor).getAsDouble();
-        if (floor < points.size() - 1) {
-          value =
-              DoubleUtil.add(preValue, DoubleUtil
-                  .mul(DoubleUtil.sub(points.get(floor + 1).getAsDouble(), preValue),
-                      DoubleUtil.sub(pos, floor)));
-        } else {
-          value = preValue;
-        }
+  /**
+   * @param values the sorted values of a bucket
+   */
+  private static double computePercentile(double[] values, int size, double percentile) {
+    double value = values[0];
+    if (percentile == 1.0) {
+      value = values[size - 1];
+    } else if (size > 2) {
+
+      double pos = DoubleUtil
+          .sub(DoubleUtil.mul(DoubleUtil.add(size, 1.0), percentile), 1.0);
+
+      int floor = (int) pos;
+
+      double preValue = values[floor];
+      if (floor < size - 1) {
+        value =
+            DoubleUtil.add(preValue, DoubleUtil
+                .mul(DoubleUtil.sub(values[floor + 1], preValue),
+                    DoubleUtil.sub(pos, floor)));
+      } else {
+        value = preValue;
       }
-
-      newValueResult.addDataPoint(new QueryDataPoint(timestamp, value));
-
     }
-
-    return newValueResult;
+    return value;
   }
 
   @Override
@@ -93,18 +86,18 @@ public class QueryAggregatorPercentile extends QueryAggregator implements QueryA
     this.percentile = percentile;
   }
 
-  private double getPercentile() {
+  double getPercentile() {
     return percentile;
   }
 
   @Override
   public void setAlign(QueryAggregatorAlign align) {
-    throw new UnsupportedOperationException();
+    this.align = align;
   }
 
   @Override
   public QueryAggregatorAlign getAlign() {
-    return null;
+    return align;
   }
 
   @Override
@@ -126,4 +119,111 @@ public class QueryAggregatorPercentile extends QueryAggregator implements QueryA
   public long getEndTimestamp() {
     return endTimestamp;
   }
+
+  /**
+   * The values of a bucket are kept while there are at most PERCENTILE_EXACT_POINTS of them, and
+   * the percentile is computed exactly from the sorted values. Larger buckets are summarized by a
+   * t-digest instead, so the memory of a bucket stays bounded. Merging two exact states gives an
+   * exact state as long as the values still fit.
+   */
+  static class PercentileState implements QueryAggregatorState {
+
+    private double percentile;
+    private int exactPoints;
+    private double compression;
+
+    private long timestamp;
+    private double[] values = new double[16];
+    private int size = 0;
+
+    // Not null once the bucket has too many values to keep
+    private TDigest digest;
+
+    PercentileState(double percentile, int exactPoints, double compression) {
+      this.percentile = percentile;
+      this.exactPoints = exactPoints;
+      this.compression = compression;
+    }
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (isEmpty()) {
+        this.timestamp = timestamp;
+      }
+      if (digest == null && size >= exactPoints) {
+        sketch();
+      }
+      if (digest != null) {
+        digest.add(value);
+        return;
+      }
+      append(value);
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      PercentileState other = (PercentileState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty() || other.timestamp < timestamp) {
+        timestamp = other.timestamp;
+      }
+      if (digest == null && other.digest == null && size + other.size <= exactPoints) {
+        for (int i = 0; i < other.size; i++) {
+          append(other.values[i]);
+        }
+        return;
+      }
+      if (digest == null) {
+        sketch();
+      }
+      if (other.digest != null) {
+        digest.merge(other.digest);
+      } else {
+        for (int i = 0; i < other.size; i++) {
+          digest.add(other.values[i]);
+        }
+      }
+    }
+
+    private void append(double value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    /**
+     * Move the kept values into a new t-digest.
+     */
+    private void sketch() {
+      digest = new TDigest(compression);
+      for (int i = 0; i < size; i++) {
+        digest.add(values[i]);
+      }
+      size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size == 0 && (digest == null || digest.size() == 0);
+    }
+
+    @Override
+    public QueryDataPoint get() {
+      if (digest != null) {
+        return new QueryDataPoint(timestamp, digest.quantile(percentile));
+      }
+      // The order of the kept values does not matter, so they are sorted in place
+      Arrays.sort(values, 0, size);
+      return new QueryDataPoint(timestamp, computePercentile(values, size, percentile));
+    }
+
+    @Override
+    public void clear() {
+      size = 0;
+      digest = null;
+    }
+  }
 }
@@ -0,0 +1,27 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+
+/**
+ * An aggregator which looks at every point on its own, without any state between the points, so
+ * it can be fused into the pass of the sampling aggregator after it.
+ */
+interface QueryAggregatorPointwise {
+
+  /**
+   * Check the parameters of the aggregator before any point is handled.
+   */
+  void validate() throws QueryException;
+
+  /**
+   * @return whether the point with the value is kept
+   */
+  boolean test(double value);
+
+  /**
+   * @param integer whether the value is an integer, which must stay an integer
+   * @return the new value of a kept point
+   */
+  double apply(double value, boolean integer);
+
+}
@@ -0,0 +1,48 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+/**
+ * The partial state of a sampling aggregator over some points of a bucket. The points can be added
+ * one at a time, in ascending order of time, and the states of disjoint parts of a bucket can be
+ * merged in any grouping, so e.g. the states of time chunks, of parallel tasks or of stored
+ * rollups can be combined into the state of the whole bucket.
+ *
+ * <p>A state only holds plain fields, so it can be written with Gson and read back with
+ * {@link QueryAggregatorStreamable#readState(JsonElement)}.
+ */
+public interface QueryAggregatorState {
+
+  /**
+   * @param integer whether the value is an integer
+   */
+  void add(long timestamp, double value, boolean integer);
+
+  /**
+   * Merge the state of other points of the bucket into this state.
+   *
+   * @param other a state created by the same aggregator
+   */
+  void merge(QueryAggregatorState other);
+
+  boolean isEmpty();
+
+  /**
+   * Get the point of the bucket. The point has the timestamp of the point it is taken from, or of
+   * the first point of the bucket; the caller aligns it.
+   */
+  QueryDataPoint get() throws QueryException;
+
+  /**
+   * Forget all the points, so the state can be reused for the next bucket.
+   */
+  void clear();
+
+  static JsonElement toJson(QueryAggregatorState state) {
+    return new Gson().toJsonTree(state);
+  }
+
+}
@@ -0,0 +1,38 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+/**
+ * A sampling aggregator which computes every bucket from its points one at a time, so the
+ * per-point aggregators before it can be fused with it into a single pass over the points, and
+ * the partial states of a bucket can be computed separately and merged.
+ */
+public interface QueryAggregatorStreamable extends QueryAggregatorSampling,
+    QueryAggregatorAlignable {
+
+  /**
+   * @return an empty state
+   */
+  QueryAggregatorState newState();
+
+  /**
+   * Add the points of the current bucket of the cursor to the state.
+   */
+  default void addBucket(QueryAggregatorState state, BucketCursor cursor) {
+    for (int i = cursor.getStart(); i < cursor.getEnd(); i++) {
+      QueryDataPoint point = cursor.get(i);
+      state.add(point.getTimestamp(), point.getAsDouble(), point.isInteger());
+    }
+  }
+
+  /**
+   * Read a state written by {@link QueryAggregatorState#toJson(QueryAggregatorState)}.
+   */
+  default QueryAggregatorState readState(JsonElement json) {
+    return new Gson().fromJson(json, newState().getClass());
+  }
+
+}
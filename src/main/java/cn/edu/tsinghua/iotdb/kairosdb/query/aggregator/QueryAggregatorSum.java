@@ -5,10 +5,9 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
-import java.util.List;
 
 public class QueryAggregatorSum extends QueryAggregator
-    implements QueryAggregatorSampling, QueryAggregatorAlignable {
+    implements QueryAggregatorStreamable {
 
   private Duration sampling;
 
@@ -28,49 +27,12 @@ public class QueryAggregatorSum extends QueryAggregator
 
   @Override
   public MetricValueResult aggregate(MetricValueResult valueResult) throws QueryException {
-    MetricValueResult newValueResult = new MetricValueResult(valueResult.getName());
-
-    long step = getSampling().toTimestamp();
-
-    List<List<QueryDataPoint>> splitPoints =
-        valueResult.splitDataPoint(getStartTimestamp(), step, getAlign());
-
-    for (List<QueryDataPoint> points : splitPoints) {
-
-      long tmpTimestamp = 0L;
-      boolean isTimestampGotten = false;
-
-      int tmpInt = 0;
-      int intCounter = 0;
-
-      double tmpDouble = 0.0;
-      int doubleCounter = 0;
-
-      for (QueryDataPoint point : points) {
-        if (!isTimestampGotten) {
-          isTimestampGotten = true;
-          tmpTimestamp = computeTimestampByAlign(this, point.getTimestamp(), step);
-        }
-        if (point.isInteger()) {
-          tmpInt += point.getIntValue();
-          intCounter++;
-        } else {
-          tmpDouble += point.getDoubleValue();
-          doubleCounter++;
-        }
-      }
-      if (intCounter > 0) {
-        newValueResult.addDataPoint(new QueryDataPoint(tmpTimestamp, tmpInt));
-      } else if (doubleCounter > 0) {
-        newValueResult.addDataPoint(new QueryDataPoint(tmpTimestamp, tmpDouble));
-      } else {
-        throw new QueryException(
-            "Among sum aggregator, there is an error in QueryAggregatorSum.aggregate");
-      }
-
-    }
+    return aggregateBuckets(this, valueResult);
+  }
 
-    return newValueResult;
+  @Override
+  public QueryAggregatorState newState() {
+    return new SumState();
   }
 
   @Override
@@ -113,4 +75,76 @@ public class QueryAggregatorSum extends QueryAggregator
     return this.endTimestamp;
   }
 
+  /**
+   * The sums of the integer and the floating point values. Integers are summed as long values, so
+   * the sum cannot overflow; a sum too large for an integer is returned as a floating point value.
+   */
+  static class SumState implements QueryAggregatorState {
+
+    private long timestamp;
+
+    private long intSum;
+    private long intCount;
+
+    private double doubleSum;
+    private long doubleCount;
+
+    @Override
+    public void add(long timestamp, double value, boolean integer) {
+      if (isEmpty()) {
+        this.timestamp = timestamp;
+      }
+      if (integer) {
+        intSum += (long) value;
+        intCount++;
+      } else {
+        doubleSum += value;
+        doubleCount++;
+      }
+    }
+
+    @Override
+    public void merge(QueryAggregatorState state) {
+      SumState other = (SumState) state;
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty() || other.timestamp < timestamp) {
+        timestamp = other.timestamp;
+      }
+      intSum += other.intSum;
+      intCount += other.intCount;
+      doubleSum += other.doubleSum;
+      doubleCount += other.doubleCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return intCount == 0 && doubleCount == 0;
+    }
+
+    @Override
+    public QueryDataPoint get() throws QueryException {
+      if (intCount > 0) {
+        if (intSum == (int) intSum) {
+          return new QueryDataPoint(timestamp, (int) intSum);
+        }
+        return new QueryDataPoint(timestamp, (double) intSum);
+      } else if (doubleCount > 0) {
+        return new QueryDataPoint(timestamp, doubleSum);
+      } else {
+        throw new QueryException(
+            "Among sum aggregator, there is an error in QueryAggregatorSum.aggregate");
+      }
+    }
+
+    @Override
+    public void clear() {
+      intSum = 0;
+      intCount = 0;
+      doubleSum = 0.0;
+      doubleCount = 0;
+    }
+  }
+
 }
@@ -0,0 +1,110 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.aggregator;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k series of a result with the largest (top_k) or smallest (bottom_k) value of a
+ * sampling aggregator computed over all their points, e.g. the 20 hosts of a group_by tags with
+ * the highest average. Every series is reduced to its rank with the state of the aggregator, and
+ * only the k best ones are held in a heap, so the other series are dropped before any later
+ * aggregator or the response sees them.
+ *
+ * <p>The kept series are returned best first. Of series with the same rank the earlier one wins.
+ * Text series and series without a rank are dropped.
+ */
+public class QueryAggregatorTopK extends QueryAggregator {
+
+  private int k;
+
+  private QueryAggregatorStreamable rankBy;
+
+  QueryAggregatorTopK(QueryAggregatorType type) {
+    super(type);
+  }
+
+  public int getK() {
+    return k;
+  }
+
+  public void setK(int k) {
+    this.k = k;
+  }
+
+  public QueryAggregatorStreamable getRankBy() {
+    return rankBy;
+  }
+
+  public void setRankBy(QueryAggregatorStreamable rankBy) {
+    this.rankBy = rankBy;
+  }
+
+  @Override
+  public MetricResult doAggregate(MetricResult result) throws QueryException {
+    // The head of the heap is the worst of the kept series, the first one to drop
+    Comparator<RankedSeries> worstFirst = (a, b) -> {
+      int compare = getType() == QueryAggregatorType.BOTTOM_K
+          ? Double.compare(b.rank, a.rank) : Double.compare(a.rank, b.rank);
+      return compare != 0 ? compare : Integer.compare(b.index, a.index);
+    };
+    PriorityQueue<RankedSeries> heap = new PriorityQueue<>(k + 1, worstFirst);
+
+    QueryAggregatorState state = rankBy.newState();
+    int index = 0;
+    for (MetricValueResult valueResult : result.getResults()) {
+
+      // The sub-query is interrupted when the query is stopped
+      if (Thread.currentThread().isInterrupted()) {
+        throw new QueryException("Query has been interrupted");
+      }
+
+      if (valueResult.isTextType()) {
+        continue;
+      }
+      for (QueryDataPoint point : valueResult.getDatapoints()) {
+        state.add(point.getTimestamp(), point.getAsDouble(), point.isInteger());
+      }
+      if (state.isEmpty()) {
+        continue;
+      }
+      double rank = state.get().getAsDouble();
+      state.clear();
+      if (Double.isNaN(rank)) {
+        continue;
+      }
+
+      heap.add(new RankedSeries(valueResult, rank, index++));
+      if (heap.size() > k) {
+        heap.poll();
+      }
+    }
+
+    LinkedList<MetricValueResult> kept = new LinkedList<>();
+    while (!heap.isEmpty()) {
+      kept.addFirst(heap.poll().valueResult);
+    }
+    result.setResults(kept);
+
+    return result;
+  }
+
+  private static class RankedSeries {
+
+    private final MetricValueResult valueResult;
+    private final double rank;
+    // The position of the series in the result, which breaks the ties
+    private final int index;
+
+    RankedSeries(MetricValueResult valueResult, double rank, int index) {
+      this.valueResult = valueResult;
+      this.rank = rank;
+      this.index = index;
+    }
+  }
+
+}
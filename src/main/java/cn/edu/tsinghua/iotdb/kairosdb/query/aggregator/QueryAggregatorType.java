@@ -7,6 +7,7 @@ public enum QueryAggregatorType {
   AVG,
   DEV,
   COUNT,
+  COUNT_DISTINCT,
   FIRST,
   LAST,
   MAX,
@@ -18,7 +19,11 @@ public enum QueryAggregatorType {
   RATE,
   SAMPLER,
   SAVE_AS,
-  FILTER;
+  FILTER,
+  LTTB,
+  M4,
+  TOP_K,
+  BOTTOM_K;
 
   public static QueryAggregatorType fromString(String typeStr) {
     checkNotNullOrEmpty(typeStr);
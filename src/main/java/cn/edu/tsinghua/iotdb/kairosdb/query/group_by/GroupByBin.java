@@ -1,5 +1,6 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.group_by;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -7,17 +8,52 @@ public class GroupByBin extends GroupBy {
 
   private List<String> bins;
 
+  // The bins as sorted numbers, parsed on first use
+  private double[] boundaries;
+
+  // The bin of one result, only set in query results
+  private Integer binNumber;
+
   public GroupByBin() {
     super(GroupByKind.BIN);
     bins = new LinkedList<>();
   }
 
+  /**
+   * Create the group_by of the result holding the points of one bin.
+   */
+  public GroupByBin createGroup(int binNumber) {
+    GroupByBin group = new GroupByBin();
+    group.bins = bins;
+    group.boundaries = getBoundaries();
+    group.binNumber = binNumber;
+    return group;
+  }
+
   public List<String> getBins() {
     return bins;
   }
 
   public void addBin(String bin) {
     bins.add(bin);
+    boundaries = null;
+  }
+
+  public double[] getBoundaries() {
+    if (boundaries == null) {
+      double[] parsed = new double[bins.size()];
+      int i = 0;
+      for (String bin : bins) {
+        parsed[i++] = Double.parseDouble(bin);
+      }
+      Arrays.sort(parsed);
+      boundaries = parsed;
+    }
+    return boundaries;
+  }
+
+  public Integer getBinNumber() {
+    return binNumber;
   }
 
 }
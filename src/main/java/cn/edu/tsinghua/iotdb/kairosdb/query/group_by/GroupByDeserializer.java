@@ -71,24 +71,36 @@ public class GroupByDeserializer implements JsonDeserializer<GroupBy> {
     return result;
   }
 
-  private GroupBy deserializeGroupByTime(JsonObject groupByObj) {
+  private GroupBy deserializeGroupByTime(JsonObject groupByObj) throws JsonParseException {
     GroupByTime result = new GroupByTime();
     result.setGroupCount(groupByObj.get("group_count").getAsString());
     JsonObject rangeSize = groupByObj.get("range_size").getAsJsonObject();
     result.setRangeSize(rangeSize.get("value").getAsInt(), rangeSize.get("unit").getAsString());
+    if (result.getGroupCount() <= 0 || result.getRangeSize().toTimestamp() <= 0) {
+      throw new JsonParseException(
+          "Among grouping by time, group_count and range_size must be greater than 0.");
+    }
     return result;
   }
 
-  private GroupBy deserializeGroupByValue(JsonObject groupByObj) {
+  private GroupBy deserializeGroupByValue(JsonObject groupByObj) throws JsonParseException {
     GroupByValue result = new GroupByValue();
     result.setRangeSize(groupByObj.get("range_size").getAsLong());
+    if (result.getRangeSize() <= 0) {
+      throw new JsonParseException("Among grouping by value, range_size must be greater than 0.");
+    }
     return result;
   }
 
-  private GroupBy deserializeGroupByBin(JsonObject groupByObj) {
+  private GroupBy deserializeGroupByBin(JsonObject groupByObj) throws JsonParseException {
     GroupByBin result = new GroupByBin();
     JsonArray bins = groupByObj.getAsJsonArray("bins");
     bins.forEach(bin -> result.addBin(bin.getAsString()));
+    try {
+      result.getBoundaries();
+    } catch (NumberFormatException e) {
+      throw new JsonParseException("Among grouping by bin, bins must be numbers.");
+    }
     return result;
   }
 
@@ -1,5 +1,6 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.group_by;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
@@ -18,13 +19,51 @@ public class GroupBySerializer implements JsonSerializer<GroupBy> {
         obj.addProperty("type", groupByType.getType());
         return obj;
       case BIN:
-        break;
+        GroupByBin groupByBin = (GroupByBin) groupBy;
+        JsonObject binObj = new JsonObject();
+        binObj.addProperty("name", "bin");
+        JsonArray bins = new JsonArray();
+        groupByBin.getBins().forEach(bins::add);
+        binObj.add("bins", bins);
+        JsonObject bin = new JsonObject();
+        bin.addProperty("bin_number", groupByBin.getBinNumber());
+        binObj.add("group", bin);
+        return binObj;
       case TAGS:
-        break;
+        GroupByTags groupByTags = (GroupByTags) groupBy;
+        JsonObject tagsObj = new JsonObject();
+        tagsObj.addProperty("name", "tag");
+        JsonArray tags = new JsonArray();
+        groupByTags.getTags().forEach(tags::add);
+        tagsObj.add("tags", tags);
+        JsonObject group = new JsonObject();
+        if (groupByTags.getGroup() != null) {
+          groupByTags.getGroup().forEach(group::addProperty);
+        }
+        tagsObj.add("group", group);
+        return tagsObj;
       case TIME:
-        break;
+        GroupByTime groupByTime = (GroupByTime) groupBy;
+        JsonObject timeObj = new JsonObject();
+        timeObj.addProperty("name", "time");
+        JsonObject rangeSize = new JsonObject();
+        rangeSize.addProperty("value", groupByTime.getRangeSize().getValue());
+        rangeSize.addProperty("unit", groupByTime.getRangeSize().getUnit().toString());
+        timeObj.add("range_size", rangeSize);
+        timeObj.addProperty("group_count", groupByTime.getGroupCount());
+        JsonObject timeGroup = new JsonObject();
+        timeGroup.addProperty("group_number", groupByTime.getGroupNumber());
+        timeObj.add("group", timeGroup);
+        return timeObj;
       case VALUE:
-        break;
+        GroupByValue groupByValue = (GroupByValue) groupBy;
+        JsonObject valueObj = new JsonObject();
+        valueObj.addProperty("name", "value");
+        valueObj.addProperty("range_size", groupByValue.getRangeSize());
+        JsonObject valueGroup = new JsonObject();
+        valueGroup.addProperty("group_number", groupByValue.getGroupNumber());
+        valueObj.add("group", valueGroup);
+        return valueObj;
       default:
         break;
     }
@@ -2,16 +2,26 @@ package cn.edu.tsinghua.iotdb.kairosdb.query.group_by;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class GroupByTags extends GroupBy {
 
   private List<String> tags;
 
+  // The tag values shared by the series of one result group, only set in query results
+  private Map<String, String> group;
+
   public GroupByTags() {
     super(GroupByKind.TAGS);
     tags = new LinkedList<>();
   }
 
+  public GroupByTags(List<String> tags, Map<String, String> group) {
+    super(GroupByKind.TAGS);
+    this.tags = tags;
+    this.group = group;
+  }
+
   public List<String> getTags() {
     return tags;
   }
@@ -19,4 +29,8 @@ public class GroupByTags extends GroupBy {
   public void addTag(String tag) {
     tags.add(tag);
   }
+
+  public Map<String, String> getGroup() {
+    return group;
+  }
 }
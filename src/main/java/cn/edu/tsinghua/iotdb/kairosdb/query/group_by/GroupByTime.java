@@ -9,10 +9,24 @@ public class GroupByTime extends GroupBy {
 
   private Duration rangeSize;
 
+  // The group of one result, only set in query results
+  private Integer groupNumber;
+
   public GroupByTime() {
     super(GroupByKind.TIME);
   }
 
+  /**
+   * Create the group_by of the result holding the points of one group.
+   */
+  public GroupByTime createGroup(int groupNumber) {
+    GroupByTime group = new GroupByTime();
+    group.groupCount = groupCount;
+    group.rangeSize = rangeSize;
+    group.groupNumber = groupNumber;
+    return group;
+  }
+
   public int getGroupCount() {
     return groupCount;
   }
@@ -36,4 +50,8 @@ public class GroupByTime extends GroupBy {
   public void setRangeSize(int value, String unit) {
     this.rangeSize = new Duration(value, TimeUnit.from(unit));
   }
+
+  public Integer getGroupNumber() {
+    return groupNumber;
+  }
 }
@@ -4,10 +4,23 @@ public class GroupByValue extends GroupBy {
 
   private long rangeSize;
 
+  // The group of one result, only set in query results
+  private Long groupNumber;
+
   public GroupByValue() {
     super(GroupByKind.VALUE);
   }
 
+  /**
+   * Create the group_by of the result holding the points of one group.
+   */
+  public GroupByValue createGroup(long groupNumber) {
+    GroupByValue group = new GroupByValue();
+    group.rangeSize = rangeSize;
+    group.groupNumber = groupNumber;
+    return group;
+  }
+
   public long getRangeSize() {
     return rangeSize;
   }
@@ -16,4 +29,8 @@ public class GroupByValue extends GroupBy {
     this.rangeSize = rangeSize;
   }
 
+  public Long getGroupNumber() {
+    return groupNumber;
+  }
+
 }
@@ -0,0 +1,240 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.group_by;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Splits the points of query results into the groups of the group_by time, value and bin
+ * clauses. The clauses are applied in turn, each to the groups made by the previous ones. Every
+ * clause first computes the bucket of each point into a primitive array, so the points are only
+ * copied once into lists of the exact size of their group.
+ */
+public class PointGrouper {
+
+  private PointGrouper() {
+  }
+
+  /**
+   * Group the points of the results.
+   *
+   * @param results the results to split, text results are only split by time
+   * @param groupByList the group_by clauses of the metric
+   * @param startTime the start time of the query, where the first time range begins
+   * @return a result for every non-empty group, in ascending order of the groups
+   */
+  public static List<MetricValueResult> group(List<MetricValueResult> results,
+      List<GroupBy> groupByList, long startTime) {
+    if (groupByList == null) {
+      return results;
+    }
+    for (GroupBy groupBy : groupByList) {
+      switch (groupBy.getKind()) {
+        case TIME:
+          results = groupByTime(results, (GroupByTime) groupBy, startTime);
+          break;
+        case VALUE:
+          results = groupByValue(results, (GroupByValue) groupBy);
+          break;
+        case BIN:
+          results = groupByBin(results, (GroupByBin) groupBy);
+          break;
+        default:
+          break;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Get a key which is equal for results of the same group, used to merge results of the same
+   * group which have been computed separately.
+   */
+  public static List<Object> getGroupKey(MetricValueResult result) {
+    List<Object> key = new ArrayList<>();
+    for (GroupBy groupBy : result.getGroupBy()) {
+      switch (groupBy.getKind()) {
+        case TAGS:
+          key.add(((GroupByTags) groupBy).getGroup());
+          break;
+        case TIME:
+          key.add("time:" + ((GroupByTime) groupBy).getGroupNumber());
+          break;
+        case VALUE:
+          key.add("value:" + ((GroupByValue) groupBy).getGroupNumber());
+          break;
+        case BIN:
+          key.add("bin:" + ((GroupByBin) groupBy).getBinNumber());
+          break;
+        default:
+          break;
+      }
+    }
+    return key;
+  }
+
+  /**
+   * The group of a point is the number of the time range it falls in, modulo the group count, so
+   * e.g. a range size of one hour and 24 groups give a profile by hour of day.
+   */
+  private static List<MetricValueResult> groupByTime(List<MetricValueResult> results,
+      GroupByTime groupBy, long startTime) {
+    long rangeSize = groupBy.getRangeSize().toTimestamp();
+    int groupCount = groupBy.getGroupCount();
+    List<MetricValueResult> grouped = new ArrayList<>();
+    for (MetricValueResult result : results) {
+      QueryDataPoint[] points = toArray(result);
+      int[] buckets = new int[points.length];
+      for (int i = 0; i < points.length; i++) {
+        long range = Math.floorDiv(points[i].getTimestamp() - startTime, rangeSize);
+        buckets[i] = (int) Math.floorMod(range, (long) groupCount);
+      }
+      split(result, points, buckets, groupCount, groupBy::createGroup, grouped);
+    }
+    return grouped;
+  }
+
+  /**
+   * The group of a point is its value divided by the range size, rounded down.
+   */
+  private static List<MetricValueResult> groupByValue(List<MetricValueResult> results,
+      GroupByValue groupBy) {
+    long rangeSize = groupBy.getRangeSize();
+    List<MetricValueResult> grouped = new ArrayList<>();
+    for (MetricValueResult result : results) {
+      if (result.isTextType()) {
+        grouped.add(result);
+        continue;
+      }
+      QueryDataPoint[] points = toArray(result);
+      long[] groupNumbers = new long[points.length];
+      for (int i = 0; i < points.length; i++) {
+        groupNumbers[i] = (long) Math.floor(points[i].getAsDouble() / rangeSize);
+      }
+
+      // The group numbers are unbounded, so they are mapped to the index of the distinct ones
+      long[] distinct = sortedDistinct(groupNumbers);
+      int[] buckets = new int[points.length];
+      for (int i = 0; i < points.length; i++) {
+        buckets[i] = Arrays.binarySearch(distinct, groupNumbers[i]);
+      }
+      split(result, points, buckets, distinct.length,
+          bucket -> groupBy.createGroup(distinct[bucket]), grouped);
+    }
+    return grouped;
+  }
+
+  /**
+   * The bin of a point is the number of bins whose lower bound is not greater than its value,
+   * so bin 0 holds the values below the lowest bound.
+   */
+  private static List<MetricValueResult> groupByBin(List<MetricValueResult> results,
+      GroupByBin groupBy) {
+    double[] boundaries = groupBy.getBoundaries();
+    List<MetricValueResult> grouped = new ArrayList<>();
+    for (MetricValueResult result : results) {
+      if (result.isTextType()) {
+        grouped.add(result);
+        continue;
+      }
+      QueryDataPoint[] points = toArray(result);
+      int[] buckets = new int[points.length];
+      for (int i = 0; i < points.length; i++) {
+        buckets[i] = upperBound(boundaries, points[i].getAsDouble());
+      }
+      split(result, points, buckets, boundaries.length + 1, groupBy::createGroup, grouped);
+    }
+    return grouped;
+  }
+
+  private static void split(MetricValueResult result, QueryDataPoint[] points, int[] buckets,
+      int bucketCount, IntFunction<GroupBy> groupFactory, List<MetricValueResult> grouped) {
+    int[] counts = new int[bucketCount];
+    for (int bucket : buckets) {
+      counts[bucket]++;
+    }
+
+    List<List<QueryDataPoint>> bucketPoints = new ArrayList<>(bucketCount);
+    for (int count : counts) {
+      bucketPoints.add(count == 0 ? null : new ArrayList<>(count));
+    }
+    for (int i = 0; i < points.length; i++) {
+      bucketPoints.get(buckets[i]).add(points[i]);
+    }
+
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      if (counts[bucket] == 0) {
+        continue;
+      }
+      MetricValueResult groupResult = new MetricValueResult(result.getName());
+      groupResult.setValues(bucketPoints.get(bucket));
+      groupResult.setTags(copyTags(result.getTags()));
+      groupResult.setGroupBy(addGroup(result.getGroupBy(), groupFactory.apply(bucket)));
+      grouped.add(groupResult);
+    }
+  }
+
+  /**
+   * Add the group before the type group_by, which is always the last one.
+   */
+  private static List<GroupBy> addGroup(List<GroupBy> groupByList, GroupBy group) {
+    List<GroupBy> result = new LinkedList<>();
+    boolean added = false;
+    for (GroupBy groupBy : groupByList) {
+      if (!added && groupBy.getKind() == GroupByKind.TYPE) {
+        result.add(group);
+        added = true;
+      }
+      result.add(groupBy);
+    }
+    if (!added) {
+      result.add(group);
+    }
+    return result;
+  }
+
+  private static Map<String, List<String>> copyTags(Map<String, List<String>> tags) {
+    Map<String, List<String>> copy = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : tags.entrySet()) {
+      copy.put(entry.getKey(), new LinkedList<>(entry.getValue()));
+    }
+    return copy;
+  }
+
+  private static QueryDataPoint[] toArray(MetricValueResult result) {
+    return result.getDatapoints().toArray(new QueryDataPoint[0]);
+  }
+
+  private static long[] sortedDistinct(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int size = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[size - 1]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(sorted, size);
+  }
+
+  private static int upperBound(double[] boundaries, double value) {
+    int low = 0;
+    int high = boundaries.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (boundaries[mid] <= value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+}
@@ -0,0 +1,121 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.result;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlign;
+import java.util.List;
+
+/**
+ * Walks the points of a series once, bucket by bucket, without copying them. After each call of
+ * {@link #next()} the current bucket is the index range [{@link #getStart()}, {@link #getEnd()})
+ * of the points. Buckets without any point are skipped.
+ *
+ * <p>The buckets are [origin + k * step, origin + (k + 1) * step), where the origin is the start
+ * time of the query, or the timestamp of the first point when aligned to the sampling.
+ */
+public class BucketCursor {
+
+  private final List<QueryDataPoint> points;
+  private final long step;
+  private final QueryAggregatorAlign align;
+  private final long origin;
+
+  private int start;
+  private int end;
+  private long bucketStart;
+
+  BucketCursor(List<QueryDataPoint> points, long startTimestamp, long step,
+      QueryAggregatorAlign align) {
+    this.points = points;
+    this.step = step;
+    this.align = align == null ? QueryAggregatorAlign.NO_ALIGN : align;
+    if (this.align == QueryAggregatorAlign.ALIGN_SAMPLING && !points.isEmpty()) {
+      origin = points.get(0).getTimestamp();
+    } else {
+      origin = startTimestamp;
+    }
+  }
+
+  /**
+   * Move to the next bucket holding any point.
+   *
+   * @return false if there is no more bucket
+   */
+  public boolean next() {
+    int size = points.size();
+    int i = end;
+    while (i < size && points.get(i).getTimestamp() < origin) {
+      i++;
+    }
+    if (i >= size) {
+      start = end = size;
+      return false;
+    }
+
+    bucketStart = origin + (points.get(i).getTimestamp() - origin) / step * step;
+    long bucketEnd = bucketStart + step;
+    start = i;
+    while (i < size && points.get(i).getTimestamp() < bucketEnd) {
+      i++;
+    }
+    end = i;
+    return true;
+  }
+
+  /**
+   * @return the index of the first point of the current bucket
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * @return the index after the last point of the current bucket
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  public int size() {
+    return end - start;
+  }
+
+  public QueryDataPoint get(int index) {
+    return points.get(index);
+  }
+
+  public long getBucketStart() {
+    return bucketStart;
+  }
+
+  /**
+   * Get the timestamp of the current bucket: its start or end when aligned to the start or end
+   * time, otherwise the timestamp of its first point.
+   */
+  public long getTimestamp() {
+    return getAlignedTimestamp(points.get(start).getTimestamp());
+  }
+
+  /**
+   * Get the timestamp of the current bucket, using the given timestamp when the buckets are not
+   * aligned to the start or end time.
+   */
+  public long getAlignedTimestamp(long timestamp) {
+    return alignTimestamp(align, bucketStart, step, timestamp);
+  }
+
+  /**
+   * Get the timestamp of the bucket [bucketStart, bucketStart + step) for the align, using the
+   * given timestamp when the bucket is not aligned to the start or end time.
+   */
+  public static long alignTimestamp(QueryAggregatorAlign align, long bucketStart, long step,
+      long timestamp) {
+    switch (align) {
+      case ALIGN_START_TIME:
+        return bucketStart;
+      case ALIGN_END_TIME:
+        return bucketStart + step;
+      default:
+        return timestamp;
+    }
+  }
+
+}
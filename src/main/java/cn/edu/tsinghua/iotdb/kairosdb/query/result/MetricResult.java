@@ -12,11 +12,21 @@ public class MetricResult {
   @SerializedName("results")
   private List<MetricValueResult> results;
 
+  // Only set when the query asks for a profile
+  @SerializedName("profile")
+  private QueryProfile profile;
+
   public MetricResult() {
     sampleSize = 0L;
     results = new LinkedList<>();
   }
 
+  public static MetricResult createVoidResult(String metricName) {
+    MetricResult metricResult = new MetricResult();
+    metricResult.addResult(new MetricValueResult(metricName));
+    return metricResult;
+  }
+
   public Long getSampleSize() {
     return sampleSize;
   }
@@ -37,4 +47,12 @@ public class MetricResult {
     this.results = results;
   }
 
+  public QueryProfile getProfile() {
+    return profile;
+  }
+
+  public void setProfile(QueryProfile profile) {
+    this.profile = profile;
+  }
+
 }
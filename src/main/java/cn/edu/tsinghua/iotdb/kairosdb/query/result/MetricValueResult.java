@@ -4,10 +4,12 @@ import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlign;
 import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupBy;
 import com.google.gson.annotations.SerializedName;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 public class MetricValueResult {
 
@@ -27,44 +29,21 @@ public class MetricValueResult {
     this.name = name;
     groupBy = new LinkedList<>();
     tags = new HashMap<>();
-    values = new LinkedList<>();
-  }
-
-  public List<List<QueryDataPoint>> splitDataPoint(
-      long startTimestamp, long step, QueryAggregatorAlign align) {
-    if (align == QueryAggregatorAlign.ALIGN_SAMPLING) {
-      return splitDataPoint(getDatapoints().get(0).getTimestamp(), step);
+    values = new ArrayList<>();
+  }
+
+  /**
+   * Create a cursor over the sampling buckets of the points, without copying them.
+   *
+   * @param startTimestamp the start time of the query, where the first bucket begins
+   * @param step the length of a bucket in milliseconds
+   * @param align how the buckets and their timestamps are aligned
+   */
+  public BucketCursor bucketCursor(long startTimestamp, long step, QueryAggregatorAlign align) {
+    if (!(values instanceof RandomAccess)) {
+      values = new ArrayList<>(values);
     }
-    return splitDataPoint(startTimestamp, step);
-  }
-
-  public List<List<QueryDataPoint>> splitDataPoint(long startTimestamp, long step) {
-    List<List<QueryDataPoint>> result = new LinkedList<>();
-
-    List<QueryDataPoint> tmpList = new LinkedList<>();
-
-    Long curTimestamp = startTimestamp + step;
-
-    for (QueryDataPoint point : values) {
-      if (point.getTimestamp() < startTimestamp) {
-        continue;
-      }
-      if (point.getTimestamp() < curTimestamp) {
-        tmpList.add(point);
-      } else {
-        if (!tmpList.isEmpty()) {
-          result.add(tmpList);
-          tmpList = new LinkedList<>();
-        }
-        curTimestamp += ((point.getTimestamp() - curTimestamp) / step + 1) * step;
-        tmpList.add(point);
-      }
-    }
-    if (!tmpList.isEmpty()) {
-      result.add(tmpList);
-    }
-
-    return result;
+    return new BucketCursor(values, startTimestamp, step, align);
   }
 
   public String getName() {
@@ -9,32 +9,32 @@ import java.sql.Types;
 
 public class QueryDataPoint implements JsonSerializer<QueryDataPoint>, Comparable<QueryDataPoint> {
 
-  private Long timestamp;
+  private long timestamp;
   private int type;
-  private Integer intValue;
-  private Double doubleValue;
+  private int intValue;
+  private double doubleValue;
   private String text;
 
   public QueryDataPoint() {
   }
 
-  public QueryDataPoint(Long timestamp) {
+  public QueryDataPoint(long timestamp) {
     this.timestamp = timestamp;
   }
 
-  public QueryDataPoint(Long timestamp, int value) {
+  public QueryDataPoint(long timestamp, int value) {
     this.timestamp = timestamp;
     this.intValue = value;
     this.type = Types.INTEGER;
   }
 
-  public QueryDataPoint(Long timestamp, double value) {
+  public QueryDataPoint(long timestamp, double value) {
     this.timestamp = timestamp;
     this.doubleValue = value;
     this.type = Types.DOUBLE;
   }
 
-  public QueryDataPoint(Long timestamp, String value) {
+  public QueryDataPoint(long timestamp, String value) {
     this.timestamp = timestamp;
     this.text = value;
     this.type = Types.VARCHAR;
@@ -66,42 +66,19 @@ public class QueryDataPoint implements JsonSerializer<QueryDataPoint>, Comparabl
     }
   }
 
-  public void dividedBy(double value) {
-    switch (getType()) {
-      case Types.INTEGER:
-        setIntValue(getIntValue() / (int) value);
-        break;
-      case Types.DOUBLE:
-        setDoubleValue(getDoubleValue() / value);
-        break;
-      default:
-        break;
-    }
-  }
-
-  public Long getTimestamp() {
+  public long getTimestamp() {
     return timestamp;
   }
 
-  public Integer getIntValue() {
+  public int getIntValue() {
     return intValue;
   }
 
-  private void setIntValue(int intValue) {
-    this.intValue = intValue;
-    this.type = Types.INTEGER;
-  }
-
-  public Double getDoubleValue() {
+  public double getDoubleValue() {
     return doubleValue;
   }
 
-  private void setDoubleValue(double doubleValue) {
-    this.doubleValue = doubleValue;
-    this.type = Types.DOUBLE;
-  }
-
-  private String getText() {
+  public String getText() {
     return text;
   }
 
@@ -119,12 +96,20 @@ public class QueryDataPoint implements JsonSerializer<QueryDataPoint>, Comparabl
     JsonArray array = new JsonArray();
     array.add(dataPoint.getTimestamp());
 
-    if (dataPoint.getIntValue() != null) {
-      array.add(dataPoint.getIntValue());
-    } else if (dataPoint.getDoubleValue() != null) {
-      array.add(dataPoint.getDoubleValue());
-    } else if (dataPoint.getText() != null) {
-      array.add(dataPoint.getText());
+    switch (dataPoint.getType()) {
+      case Types.INTEGER:
+        array.add(dataPoint.getIntValue());
+        break;
+      case Types.DOUBLE:
+        array.add(dataPoint.getDoubleValue());
+        break;
+      case Types.VARCHAR:
+        if (dataPoint.getText() != null) {
+          array.add(dataPoint.getText());
+        }
+        break;
+      default:
+        break;
     }
 
     return array;
@@ -137,7 +122,7 @@ public class QueryDataPoint implements JsonSerializer<QueryDataPoint>, Comparabl
     }
     switch (type) {
       case Types.INTEGER:
-        return getIntValue() - o.getIntValue();
+        return Integer.compare(getIntValue(), o.getIntValue());
       case Types.DOUBLE:
         double tDouble = getDoubleValue() - o.getDoubleValue();
         if (tDouble > 0) {
@@ -165,9 +150,9 @@ public class QueryDataPoint implements JsonSerializer<QueryDataPoint>, Comparabl
     }
     switch (type) {
       case Types.INTEGER:
-        return getIntValue().equals(((QueryDataPoint) obj).getIntValue());
+        return getIntValue() == ((QueryDataPoint) obj).getIntValue();
       case Types.DOUBLE:
-        return getDoubleValue().equals(((QueryDataPoint) obj).getDoubleValue());
+        return Double.compare(getDoubleValue(), ((QueryDataPoint) obj).getDoubleValue()) == 0;
       case Types.VARCHAR:
         return getText().equals(((QueryDataPoint) obj).getText());
       default:
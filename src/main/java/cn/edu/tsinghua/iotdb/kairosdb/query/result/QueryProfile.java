@@ -0,0 +1,61 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.result;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * How the sub-query of a metric has been executed, returned with its result when the query asks
+ * for a profile. The threads of the sub-query record into the same profile, so every update is
+ * synchronized.
+ */
+public class QueryProfile {
+
+  // The number of time chunks fetched, 1 if the time range has not been split
+  @SerializedName("chunks")
+  private int chunks;
+
+  // The number of per-series aggregation stages, and how many of them ran in parallel
+  @SerializedName("aggregation_stages")
+  private int aggregationStages;
+
+  @SerializedName("parallel_aggregation_stages")
+  private int parallelAggregationStages;
+
+  // The largest number of threads which have aggregated the series of one stage
+  @SerializedName("aggregation_parallelism")
+  private int aggregationParallelism;
+
+  public synchronized int getChunks() {
+    return chunks;
+  }
+
+  public synchronized void setChunks(int chunks) {
+    this.chunks = chunks;
+  }
+
+  public synchronized int getAggregationStages() {
+    return aggregationStages;
+  }
+
+  public synchronized int getParallelAggregationStages() {
+    return parallelAggregationStages;
+  }
+
+  public synchronized int getAggregationParallelism() {
+    return aggregationParallelism;
+  }
+
+  /**
+   * Record an aggregation stage applied to the series of a result.
+   *
+   * @param parallelism the number of threads which have aggregated the series, 1 if the stage
+   * ran sequentially
+   */
+  public synchronized void recordAggregation(int parallelism) {
+    aggregationStages++;
+    if (parallelism > 1) {
+      parallelAggregationStages++;
+    }
+    aggregationParallelism = Math.max(aggregationParallelism, parallelism);
+  }
+
+}
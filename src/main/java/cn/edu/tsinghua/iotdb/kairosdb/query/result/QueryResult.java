@@ -22,9 +22,7 @@ public class QueryResult {
   }
 
   public void addVoidMetricResult(String metricName) {
-    MetricResult metricResult = new MetricResult();
-    metricResult.addResult(new MetricValueResult(metricName));
-    this.queries.add(metricResult);
+    this.queries.add(MetricResult.createVoidResult(metricName));
   }
 
 }
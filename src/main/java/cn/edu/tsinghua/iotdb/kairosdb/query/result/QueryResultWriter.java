@@ -0,0 +1,272 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.result;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupBy;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByBin;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByTags;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByTime;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByType;
+import cn.edu.tsinghua.iotdb.kairosdb.query.group_by.GroupByValue;
+import com.google.gson.stream.JsonWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a query result onto a stream metric by metric and point by point, producing the same
+ * JSON as serializing a whole {@link QueryResult} with Gson, without building the intermediate
+ * string or using reflection. As with Gson, NaN and infinite values are rejected with an {@link
+ * IllegalArgumentException} rather than written as invalid JSON.
+ *
+ * <p>Nothing is written before the first metric, so a query failing before it can still be
+ * answered with an error response instead.
+ */
+public class QueryResultWriter implements Closeable {
+
+  private final JsonWriter writer;
+
+  private boolean started;
+
+  public QueryResultWriter(Writer out) {
+    writer = new JsonWriter(out);
+    // Keep the output identical to the default Gson instance used by QueryParser
+    writer.setHtmlSafe(true);
+    writer.setSerializeNulls(false);
+  }
+
+  /**
+   * @return whether anything has been written yet
+   */
+  public boolean isStarted() {
+    return started;
+  }
+
+  private void beginQueries() throws IOException {
+    if (started) {
+      return;
+    }
+    started = true;
+    writer.beginObject();
+    writer.name("queries");
+    writer.beginArray();
+  }
+
+  /**
+   * Finish the document. Only the complete document is closed, see {@link #close()}.
+   */
+  public void endQueries() throws IOException {
+    beginQueries();
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+  }
+
+  /**
+   * Write one element of the "queries" array and flush it to the underlying stream, so the client
+   * receives the finished metrics while the remaining ones are still being computed.
+   */
+  public void writeMetricResult(MetricResult metricResult) throws IOException {
+    beginQueries();
+    writer.beginObject();
+    writer.name("sample_size");
+    if (metricResult.getSampleSize() == null) {
+      writer.nullValue();
+    } else {
+      writer.value(metricResult.getSampleSize().longValue());
+    }
+    writer.name("results");
+    writer.beginArray();
+    for (MetricValueResult valueResult : metricResult.getResults()) {
+      writeMetricValueResult(valueResult);
+    }
+    writer.endArray();
+    writeProfile(metricResult.getProfile());
+    writer.endObject();
+    writer.flush();
+  }
+
+  private void writeMetricValueResult(MetricValueResult valueResult) throws IOException {
+    writer.beginObject();
+    writer.name("name").value(valueResult.getName());
+    writeGroupBy(valueResult.getGroupBy());
+    writeTags(valueResult.getTags());
+    writeValues(valueResult.getDatapoints());
+    writer.endObject();
+  }
+
+  private void writeProfile(QueryProfile profile) throws IOException {
+    if (profile == null) {
+      return;
+    }
+    writer.name("profile");
+    writer.beginObject();
+    writer.name("chunks").value(profile.getChunks());
+    writer.name("aggregation_stages").value(profile.getAggregationStages());
+    writer.name("parallel_aggregation_stages").value(profile.getParallelAggregationStages());
+    writer.name("aggregation_parallelism").value(profile.getAggregationParallelism());
+    writer.endObject();
+  }
+
+  private void writeGroupBy(List<GroupBy> groupByList) throws IOException {
+    if (groupByList == null) {
+      return;
+    }
+    writer.name("group_by");
+    writer.beginArray();
+    for (GroupBy groupBy : groupByList) {
+      switch (groupBy.getKind()) {
+        case TYPE:
+          writer.beginObject();
+          writer.name("name").value("type");
+          writer.name("type").value(((GroupByType) groupBy).getType());
+          writer.endObject();
+          break;
+        case TAGS:
+          writeGroupByTags((GroupByTags) groupBy);
+          break;
+        case TIME:
+          writeGroupByTime((GroupByTime) groupBy);
+          break;
+        case VALUE:
+          writeGroupByValue((GroupByValue) groupBy);
+          break;
+        case BIN:
+          writeGroupByBin((GroupByBin) groupBy);
+          break;
+        default:
+          writer.nullValue();
+          break;
+      }
+    }
+    writer.endArray();
+  }
+
+  private void writeGroupByTags(GroupByTags groupBy) throws IOException {
+    writer.beginObject();
+    writer.name("name").value("tag");
+    writer.name("tags");
+    writer.beginArray();
+    for (String tag : groupBy.getTags()) {
+      writer.value(tag);
+    }
+    writer.endArray();
+    writer.name("group");
+    writer.beginObject();
+    if (groupBy.getGroup() != null) {
+      for (Map.Entry<String, String> entry : groupBy.getGroup().entrySet()) {
+        writer.name(entry.getKey()).value(entry.getValue());
+      }
+    }
+    writer.endObject();
+    writer.endObject();
+  }
+
+  private void writeGroupByTime(GroupByTime groupBy) throws IOException {
+    writer.beginObject();
+    writer.name("name").value("time");
+    writer.name("range_size");
+    writer.beginObject();
+    writer.name("value").value(groupBy.getRangeSize().getValue());
+    writer.name("unit").value(groupBy.getRangeSize().getUnit().toString());
+    writer.endObject();
+    writer.name("group_count").value(groupBy.getGroupCount());
+    writer.name("group");
+    writer.beginObject();
+    writer.name("group_number").value(groupBy.getGroupNumber());
+    writer.endObject();
+    writer.endObject();
+  }
+
+  private void writeGroupByValue(GroupByValue groupBy) throws IOException {
+    writer.beginObject();
+    writer.name("name").value("value");
+    writer.name("range_size").value(groupBy.getRangeSize());
+    writer.name("group");
+    writer.beginObject();
+    writer.name("group_number").value(groupBy.getGroupNumber());
+    writer.endObject();
+    writer.endObject();
+  }
+
+  private void writeGroupByBin(GroupByBin groupBy) throws IOException {
+    writer.beginObject();
+    writer.name("name").value("bin");
+    writer.name("bins");
+    writer.beginArray();
+    for (String bin : groupBy.getBins()) {
+      writer.value(bin);
+    }
+    writer.endArray();
+    writer.name("group");
+    writer.beginObject();
+    writer.name("bin_number").value(groupBy.getBinNumber());
+    writer.endObject();
+    writer.endObject();
+  }
+
+  private void writeTags(Map<String, List<String>> tags) throws IOException {
+    if (tags == null) {
+      return;
+    }
+    writer.name("tags");
+    writer.beginObject();
+    for (Map.Entry<String, List<String>> entry : tags.entrySet()) {
+      writer.name(entry.getKey());
+      if (entry.getValue() == null) {
+        writer.nullValue();
+        continue;
+      }
+      writer.beginArray();
+      for (String value : entry.getValue()) {
+        writer.value(value);
+      }
+      writer.endArray();
+    }
+    writer.endObject();
+  }
+
+  private void writeValues(List<QueryDataPoint> points) throws IOException {
+    if (points == null) {
+      return;
+    }
+    writer.name("values");
+    writer.beginArray();
+    for (QueryDataPoint point : points) {
+      if (point == null) {
+        writer.nullValue();
+        continue;
+      }
+      writer.beginArray();
+      writer.value(point.getTimestamp());
+      switch (point.getType()) {
+        case Types.INTEGER:
+          writer.value(point.getIntValue());
+          break;
+        case Types.DOUBLE:
+          writer.value(point.getDoubleValue());
+          break;
+        case Types.VARCHAR:
+          if (point.getText() != null) {
+            writer.value(point.getText());
+          }
+          break;
+        default:
+          break;
+      }
+      writer.endArray();
+    }
+    writer.endArray();
+  }
+
+  /**
+   * Close the underlying stream. Must only be called after {@link #endQueries()}, since closing an
+   * unfinished document fails.
+   */
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+}
@@ -1,73 +1,157 @@
 package cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder;
 
-import cn.edu.tsinghua.iotdb.kairosdb.query.QueryExecutor;
 import java.sql.Types;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Builds the DELETE statements removing the points of a time range from a set of series, or the
+ * series themselves. The series are grouped by their storage group and every statement deletes a
+ * batch of series of one storage group, so the storage groups can be deleted from concurrently.
+ *
+ * <p>IoTDB 0.7 and 0.8 only delete the points up to a time. On these servers the points of a
+ * range with a lower bound are overwritten by tombstones instead, which the queries skip, see
+ * {@link #hasLowerBound()}.
+ */
 public class DeleteSqlBuilder {
 
-  public static String NULL_STR = "2147483646";
+  // The value of a deleted point, as written to a numeric or a text series
+  public static final String NULL_STR = "2147483646";
 
-  private Map<String, List<String>> map;
+  // <storage group, full paths of its series in the order they were added>
+  private final Map<String, Set<String>> series = new TreeMap<>();
 
+  // Null when the series themselves are deleted
+  private final Long startTime;
+  private final Long endTime;
+
+  /**
+   * Delete the series with all their points.
+   */
   public DeleteSqlBuilder() {
-    map = new HashMap<>();
+    this.startTime = null;
+    this.endTime = null;
+  }
+
+  /**
+   * The range is the one of the query, the points with startTime &lt; time &lt; endTime are
+   * deleted.
+   */
+  public DeleteSqlBuilder(long startTime, long endTime) {
+    this.startTime = startTime;
+    this.endTime = endTime;
   }
 
-  public void appendDataPoint(String path, String timestamp) {
-    List<String> timestamps = map.getOrDefault(path, null);
-    if (timestamps == null) {
-      timestamps = new LinkedList<>();
-      map.put(path, timestamps);
+  /**
+   * @param path the full path of a series, root.&lt;storage group&gt;.&lt;tag values&gt;.&lt;metric&gt;
+   */
+  public void appendSeries(String path) {
+    String[] nodes = path.split("\\.", 3);
+    if (nodes.length < 3) {
+      throw new IllegalArgumentException(
+          "Among DeleteSqlBuilder.appendSeries(String path), path must be in a storage group.");
     }
-    timestamps.add(timestamp);
+    series.computeIfAbsent(nodes[1], key -> new LinkedHashSet<>()).add(path);
+  }
+
+  public boolean isEmpty() {
+    return series.isEmpty();
   }
 
-  public List<String> build(String[] paths, int[] types) {
-    Map<String, Integer> mapping = new HashMap<>();
-    int size = paths.length;
-    for (int i = 0; i < size; i++) {
-      mapping.put(paths[i], types[i]);
+  /**
+   * @return the number of series added
+   */
+  public int size() {
+    int size = 0;
+    for (Set<String> paths : series.values()) {
+      size += paths.size();
     }
-    return build(mapping);
+    return size;
   }
 
-  private List<String> build(Map<String, Integer> types) {
-    List<String> list = new LinkedList<>();
-
-    for (Entry<String, List<String>> entry : map.entrySet()) {
-      StringBuilder builder = new StringBuilder("insert into ");
-      int index = entry.getKey().lastIndexOf('.');
-      builder.append(entry.getKey().substring(0, index));
-      builder.append("(timestamp, ");
-      builder.append(entry.getKey().substring(index + 1));
-      builder.append(") values(");
-
-      String value = "";
-      switch (types.getOrDefault(entry.getKey(), -1)) {
-        case Types.INTEGER: case Types.DOUBLE:
-          value = NULL_STR;
-          break;
-        case Types.VARCHAR:
-          value = String.format("\"%s\"", NULL_STR);
-          break;
-        default:
-          QueryExecutor.LOGGER.error("Data Type Error!");
-          continue;
+  /**
+   * Split the series of every storage group into batches, each of them deleted by one statement
+   * built by {@link #toSql(List)}.
+   *
+   * @param batchSize the maximum number of series of a batch
+   */
+  public Map<String, List<List<String>>> batch(int batchSize) {
+    Map<String, List<List<String>>> batches = new TreeMap<>();
+    for (Map.Entry<String, Set<String>> entry : series.entrySet()) {
+      List<List<String>> list = new ArrayList<>();
+      List<String> batch = new ArrayList<>(batchSize);
+      for (String path : entry.getValue()) {
+        batch.add(path);
+        if (batch.size() >= batchSize) {
+          list.add(batch);
+          batch = new ArrayList<>(batchSize);
+        }
       }
-
-      for (String timestamp : entry.getValue()) {
-        list.add(String.format("%s%s, %s);", builder.toString(), timestamp, value));
+      if (!batch.isEmpty()) {
+        list.add(batch);
       }
+      batches.put(entry.getKey(), list);
+    }
+    return batches;
+  }
 
+  /**
+   * @return true if the range starts after the epoch, so it can only be deleted by a time range
+   * DELETE, or by tombstones
+   */
+  public boolean hasLowerBound() {
+    return startTime != null && startTime > 0;
+  }
+
+  public String toSql(List<String> batch) {
+    if (startTime == null) {
+      return String.format("DELETE TIMESERIES %s", String.join(",", batch));
     }
+    return String.format("DELETE FROM %s WHERE %s", String.join(",", batch), getWhereClause());
+  }
+
+  /**
+   * Build the query reading the points of the range of a series, which are overwritten by
+   * {@link #toTombstoneSql(String, String, int)} where the range can't be deleted.
+   */
+  public String toSelectSql(String path) {
+    int index = path.lastIndexOf('.');
+    return String.format("SELECT %s FROM %s WHERE %s", path.substring(index + 1),
+        path.substring(0, index), getWhereClause());
+  }
 
-    return list;
+  /**
+   * Build the statement overwriting a point by a tombstone.
+   *
+   * @param type the {@link Types} of the series
+   */
+  public static String toTombstoneSql(String path, String timestamp, int type) {
+    int index = path.lastIndexOf('.');
+    String value = type == Types.VARCHAR ? String.format("\"%s\"", NULL_STR) : NULL_STR;
+    return String.format("insert into %s(timestamp, %s) values(%s, %s)",
+        path.substring(0, index), path.substring(index + 1), timestamp, value);
   }
 
+  /**
+   * @return true if the value read from a series is a tombstone
+   */
+  public static boolean isTombstone(String value) {
+    return value.equals(NULL_STR) || value.equals("2.147483646E9");
+  }
+
+  /**
+   * A range starting at the epoch or before has no lower bound, which also suits the IoTDB
+   * versions that only delete up to a time.
+   */
+  private String getWhereClause() {
+    if (!hasLowerBound()) {
+      return String.format("time<%s", endTime);
+    }
+    return String.format("time>%s and time<%s", startTime, endTime);
+  }
 
 }
@@ -2,6 +2,8 @@ package cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder;
 
 import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryExecutor;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -52,10 +54,21 @@ public class QuerySqlBuilder {
     return String.format("%s where time>%s and time<%s", toString(), startTime, endTime);
   }
 
-  @Override
-  public String toString() {
+  /**
+   * Generate the SQL selecting several metrics stored under the paths of this query, which gives
+   * a column for every metric and path.
+   */
+  public String generateSql(Collection<String> metricNames, long startTime, long endTime) {
+    return String.format("%s where time>%s and time<%s", getSql(metricNames), startTime,
+        endTime);
+  }
+
+  /**
+   * Get the paths of the FROM clause, which are the same for the metrics with the same tag order
+   * and tag filters.
+   */
+  public String getFromClause() {
     StringBuilder builder = new StringBuilder();
-    builder.append(String.format(SQL_PREFIX, metricName));
     for (StringBuilder tmpBuilder : list) {
       builder.append(tmpBuilder);
       builder.append(",");
@@ -63,4 +76,50 @@ public class QuerySqlBuilder {
     builder.deleteCharAt(builder.length() - 1);
     return builder.toString();
   }
+
+  /**
+   * Get the SQL selecting several metrics, without the time filter.
+   */
+  public String getSql(Collection<String> metricNames) {
+    return String.format(SQL_PREFIX, String.join(",", metricNames)) + getFromClause();
+  }
+
+  /**
+   * Get the full paths of the TIMESERIES this query selects, which may contain wildcards.
+   */
+  public List<String> getSeriesPaths() {
+    List<String> paths = new LinkedList<>();
+    for (StringBuilder builder : list) {
+      paths.add(builder + "." + metricName);
+    }
+    return paths;
+  }
+
+  /**
+   * Whether a series returned by IoTDB is one of the series of this query, a wildcard of its paths
+   * matching exactly one node. The columns of a scan shared by several metrics are told apart by
+   * it, which a suffix can't do since a metric may end with the name of another one.
+   */
+  public boolean isSeriesPath(String path) {
+    String[] nodes = path.split("\\.");
+    for (String seriesPath : getSeriesPaths()) {
+      String[] patternNodes = seriesPath.split("\\.");
+      if (patternNodes.length != nodes.length) {
+        continue;
+      }
+      boolean matched = true;
+      for (int i = 0; i < nodes.length && matched; i++) {
+        matched = patternNodes[i].equals("*") || patternNodes[i].equals(nodes[i]);
+      }
+      if (matched) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return getSql(Collections.singletonList(metricName));
+  }
 }
@@ -0,0 +1,90 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The continuous roll-up tasks, which are fed the ingested points of the metrics they read. A
+ * metric no continuous task reads costs a single map lookup per point at ingestion.
+ */
+public class ContinuousRollUps {
+
+  // <task id, accumulator>
+  private final Map<String, RollUpAccumulator> accumulators = new ConcurrentHashMap<>();
+
+  // <metric name, metrics of the tasks reading it>
+  private final Map<String, List<RollUpAccumulator.Target>> targets = new ConcurrentHashMap<>();
+
+  private static class ContinuousRollUpsHolder {
+
+    private static final ContinuousRollUps INSTANCE = new ContinuousRollUps();
+  }
+
+  public static ContinuousRollUps getInstance() {
+    return ContinuousRollUpsHolder.INSTANCE;
+  }
+
+  private ContinuousRollUps() {
+  }
+
+  /**
+   * @return whether a continuous task reads the metric
+   */
+  public boolean isWatched(String metricName) {
+    return targets.containsKey(metricName);
+  }
+
+  /**
+   * Add a point which has been written to the tasks reading its metric.
+   */
+  public void offer(String metricName, Map<String, String> tags, long timestamp, double value,
+      boolean integer) {
+    List<RollUpAccumulator.Target> metricTargets = targets.get(metricName);
+    if (metricTargets == null) {
+      return;
+    }
+    for (RollUpAccumulator.Target target : metricTargets) {
+      if (target.matches(tags)) {
+        target.add(timestamp, value, integer);
+      }
+    }
+  }
+
+  /**
+   * Start accumulating the windows of the task from the ingested points.
+   */
+  synchronized void register(String id, RollUpAccumulator accumulator) {
+    unregister(id);
+    accumulators.put(id, accumulator);
+    for (RollUpAccumulator.Target target : accumulator.getTargets()) {
+      targets.computeIfAbsent(target.getMetricName(), name -> new CopyOnWriteArrayList<>())
+          .add(target);
+    }
+  }
+
+  synchronized void unregister(String id) {
+    RollUpAccumulator accumulator = accumulators.remove(id);
+    if (accumulator == null) {
+      return;
+    }
+    for (RollUpAccumulator.Target target : accumulator.getTargets()) {
+      List<RollUpAccumulator.Target> metricTargets = targets.get(target.getMetricName());
+      if (metricTargets != null) {
+        metricTargets.remove(target);
+        if (metricTargets.isEmpty()) {
+          targets.remove(target.getMetricName());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the accumulator of the task, or null if it is not continuous
+   */
+  RollUpAccumulator get(String id) {
+    return accumulators.get(id);
+  }
+
+}
@@ -1,14 +1,25 @@
 package cn.edu.tsinghua.iotdb.kairosdb.rollup;
 
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.dao.MetricsManager;
 import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
 import cn.edu.tsinghua.iotdb.kairosdb.query.Query;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
 import cn.edu.tsinghua.iotdb.kairosdb.query.QueryExecutor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryMetric;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregator;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorSampling;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
 import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryResult;
 import com.google.gson.annotations.SerializedName;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +27,14 @@ public class RollUp implements Runnable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(RollUp.class);
 
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  // The tag of the roll-up points naming the metric they are computed from
+  private static final String SAVED_FROM = "saved_from";
+
+  // The watermark of the sources when one of them hasn't written any window
+  private static final long SOURCE_NOT_READY = Long.MIN_VALUE;
+
   @SerializedName("name")
   private String name;
 
@@ -25,10 +44,23 @@ public class RollUp implements Runnable {
   @SerializedName("rollups")
   private List<RollUpQuery> rollups;
 
+  // The tasks with a higher priority run first when several are waiting, 0 by default
+  @SerializedName("priority")
+  private Integer priority;
+
+  // Whether the windows are computed from the points as they are ingested, false by default
+  @SerializedName("continuous")
+  private Boolean continuous;
+
   private String id;
 
   private String json;
 
+  // The end of the windows already rolled up, loaded from the store on the first execution
+  private transient Long watermark;
+
+  private transient RollUpStore store;
+
   public String getJson() {
     return json;
   }
@@ -45,6 +77,14 @@ public class RollUp implements Runnable {
     return interval;
   }
 
+  public int getPriority() {
+    return priority == null ? 0 : priority;
+  }
+
+  public boolean isContinuous() {
+    return continuous != null && continuous;
+  }
+
   public List<RollUpQuery> getRollups() {
     return rollups;
   }
@@ -57,26 +97,318 @@ public class RollUp implements Runnable {
     this.id = id;
   }
 
+  /**
+   * Roll up the windows which have closed since the watermark, the end of the windows rolled up
+   * by the previous executions. The windows are aligned with the sampling of the roll-up, so
+   * every bucket is computed once from all its points whatever the execution times are. A task
+   * behind after a downtime catches up in batches of at most ROLLUP_BATCH_WINDOWS windows, and
+   * the watermark is saved after every batch.
+   *
+   * <p>A continuous task writes the windows accumulated at ingestion instead of querying them, and
+   * only rolls up from IoTDB the windows before it has been registered and, at most every
+   * ROLLUP_REPAIR_INTERVAL, the windows late points have arrived for.
+   */
   @Override
   public void run() {
-    long currTime = System.currentTimeMillis();
+    try {
+      long step = getWindowStep();
+      long closed = Math.floorDiv(System.currentTimeMillis() - config.ROLLUP_DELAY, step) * step;
+      // A window isn't closed until the roll-ups it is computed from have written it
+      Long sourceWatermark = getSourceWatermark();
+      if (sourceWatermark != null && sourceWatermark == SOURCE_NOT_READY) {
+        // Nothing to read yet, and a new task mustn't start its watermark from the epoch
+        return;
+      }
+      if (sourceWatermark != null) {
+        closed = Math.min(closed, Math.floorDiv(sourceWatermark, step) * step);
+      }
+      if (watermark == null) {
+        watermark = getStore().readWatermark(id);
+      }
+      if (watermark == null) {
+        // A new task starts with the windows of its last execution interval
+        watermark = Math.floorDiv(closed - interval.toTimestamp(), step) * step;
+      }
+
+      RollUpAccumulator accumulator = ContinuousRollUps.getInstance().get(id);
+      while (watermark < closed && !Thread.currentThread().isInterrupted()) {
+        long end = Math.min(closed, watermark + config.ROLLUP_BATCH_WINDOWS * step);
+        if (accumulator != null && watermark >= accumulator.getTrustedFrom()) {
+          writeAccumulated(accumulator, end);
+        } else {
+          if (accumulator != null) {
+            end = Math.min(end, accumulator.getTrustedFrom());
+            accumulator.advance(end);
+          }
+          rollUp(watermark, end);
+        }
+        watermark = end;
+        getStore().writeWatermark(id, watermark);
+      }
+
+      if (accumulator != null) {
+        repair(accumulator, step);
+      }
+    } catch (QueryException | RollUpException e) {
+      LOGGER.error("Execute Roll-up query failed because ", e);
+    } catch (RuntimeException e) {
+      // The scheduler would stop running the task after an exception escapes
+      LOGGER.error("Roll-up id: {} failed unexpectedly", id, e);
+    }
+
+    LOGGER.info("Roll-up id: {}, name: {}, execution_interval: {} {}, watermark: {}",
+        id, name, interval.getValue(), interval.getUnit(), watermark);
+  }
+
+  /**
+   * Roll up the windows in [startTime, endTime). The queries of the task are modified, so a task
+   * must not roll up several ranges at the same time.
+   *
+   * @return the number of data points read
+   */
+  long rollUp(long startTime, long endTime) throws QueryException, RollUpException {
+    long points = 0;
     for (RollUpQuery rollUpQuery : rollups) {
+      if (isMergeable(rollUpQuery)) {
+        points += rollUpBuckets(rollUpQuery, startTime, endTime);
+        continue;
+      }
       Query query = rollUpQuery.getQuery();
-      query.setStartAbsolute(currTime - interval.toTimestamp());
-      query.setEndAbsolute(currTime);
+      query.setStartAbsolute(startTime);
+      query.setEndAbsolute(endTime);
+      query.setStartInclusive(true);
       QueryExecutor executor = new QueryExecutor(query);
+      QueryResult queryResult = executor.execute();
+      for (MetricResult metricResult : queryResult.getQueries()) {
+        if (metricResult.getSampleSize() != null) {
+          points += metricResult.getSampleSize();
+        }
+        try {
+          MetricsManager.writeDataPoints(metricResult, rollUpQuery.getSaveAs());
+        } catch (SQLException | ClassNotFoundException e) {
+          throw new RollUpException(
+              String.format("Failed to write the roll-up %s: %s", rollUpQuery.getSaveAs(),
+                  e.getMessage()), e);
+        }
+      }
+    }
+    return points;
+  }
+
+  /**
+   * Roll up the metrics of the query bucket by bucket, from their points or from the bucket states
+   * saved by the source of the query, and save the states of the buckets along with their points
+   * when another task reads them.
+   *
+   * @return the number of points or states read
+   */
+  private long rollUpBuckets(RollUpQuery rollUpQuery, long startTime, long endTime)
+      throws QueryException, RollUpException {
+    long points = 0;
+    for (QueryMetric metric : rollUpQuery.getQuery().getQueryMetrics()) {
+      QueryMetric read = new QueryMetric();
+      if (rollUpQuery.getSource() != null) {
+        read.setName(rollUpQuery.getSource() + RollUpBuckets.STATE_SUFFIX);
+        read.setTags(Collections.singletonMap(SAVED_FROM,
+            Collections.singletonList(metric.getName())));
+      } else {
+        read.setName(metric.getName());
+        read.setTags(metric.getTags());
+      }
+      Query query = new Query();
+      query.setQueryMetrics(Collections.singletonList(read));
+      query.setStartAbsolute(startTime);
+      query.setEndAbsolute(endTime);
+      query.setStartInclusive(true);
+
+      RollUpBuckets buckets = new RollUpBuckets(metric);
+      for (MetricResult metricResult : new QueryExecutor(query).execute().getQueries()) {
+        for (MetricValueResult valueResult : metricResult.getResults()) {
+          for (QueryDataPoint point : valueResult.getDatapoints()) {
+            if (rollUpQuery.getSource() != null) {
+              buckets.merge(point.getTimestamp(), point.getAsString());
+            } else if (point.getType() != Types.VARCHAR) {
+              buckets.add(point.getTimestamp(), point.getAsDouble(), point.isInteger());
+            }
+            points++;
+          }
+        }
+      }
+      writeBuckets(buckets, rollUpQuery.getSaveAs());
+    }
+    return points;
+  }
+
+  /**
+   * Save the points of the buckets as the metric, and their states if a coarser roll-up reads them.
+   */
+  private static void writeBuckets(RollUpBuckets buckets, String saveAs)
+      throws QueryException, RollUpException {
+    if (buckets.isEmpty()) {
+      return;
+    }
+    try {
+      MetricsManager.writeDataPoints(buckets.getPoints(), saveAs);
+      if (RollUpsExecutor.getInstance().isSource(saveAs)) {
+        MetricsManager.writeDataPoints(buckets.getStates(), saveAs + RollUpBuckets.STATE_SUFFIX);
+      }
+    } catch (SQLException | ClassNotFoundException e) {
+      throw new RollUpException(
+          String.format("Failed to write the roll-up %s: %s", saveAs, e.getMessage()), e);
+    }
+  }
+
+  /**
+   * Whether the metrics of the query are rolled up bucket by bucket, which is required to read the
+   * states of a source.
+   */
+  private static boolean isMergeable(RollUpQuery rollUpQuery) {
+    if (rollUpQuery.getSource() != null) {
+      return true;
+    }
+    for (QueryMetric metric : rollUpQuery.getQuery().getQueryMetrics()) {
+      if (!RollUpBuckets.isMergeable(metric)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check that the queries reading a source can be computed from its states.
+   */
+  void validate() throws RollUpException {
+    for (RollUpQuery rollUpQuery : rollups) {
+      if (rollUpQuery.getSource() == null) {
+        continue;
+      }
+      for (QueryMetric metric : rollUpQuery.getQuery().getQueryMetrics()) {
+        if (!RollUpBuckets.isMergeable(metric)) {
+          throw new RollUpException(String.format(
+              "Metric %s of roll-up %s must have a single sampling aggregator, not aligned to "
+                  + "the sampling, and no group_by or limit to be computed from source %s",
+              metric.getName(), rollUpQuery.getSaveAs(), rollUpQuery.getSource()));
+        }
+        if (metric.getTags() != null && !metric.getTags().isEmpty()) {
+          throw new RollUpException(String.format(
+              "Metric %s of roll-up %s has the tags of source %s, it can't filter them",
+              metric.getName(), rollUpQuery.getSaveAs(), rollUpQuery.getSource()));
+        }
+      }
+      if (isContinuous()) {
+        throw new RollUpException(String.format(
+            "Roll-up %s computed from source %s can't be continuous", rollUpQuery.getSaveAs(),
+            rollUpQuery.getSource()));
+      }
+    }
+  }
+
+  /**
+   * Get the end of the windows written by the tasks the sources of this task are saved by.
+   *
+   * @return the earliest watermark of the sources, {@link #SOURCE_NOT_READY} if a source has not
+   * run yet, or null if the task has none running
+   */
+  private Long getSourceWatermark() throws RollUpException {
+    Long sourceWatermark = null;
+    for (RollUpQuery rollUpQuery : rollups) {
+      if (rollUpQuery.getSource() == null) {
+        continue;
+      }
+      RollUp source = RollUpsExecutor.getInstance().getRollUpSaving(rollUpQuery.getSource());
+      if (source == null || source.getId().equals(id)) {
+        continue;
+      }
+      Long written = getStore().readWatermark(source.getId());
+      if (written == null) {
+        LOGGER.info("Roll-up id: {} waits for source {}, which hasn't rolled up any window yet",
+            id, rollUpQuery.getSource());
+        return SOURCE_NOT_READY;
+      }
+      sourceWatermark = sourceWatermark == null ? written : Math.min(sourceWatermark, written);
+    }
+    return sourceWatermark;
+  }
+
+
+  /**
+   * Write the windows accumulated at ingestion before the end. Windows which failed to be written
+   * are repaired.
+   */
+  private void writeAccumulated(RollUpAccumulator accumulator, long end)
+      throws QueryException, RollUpException {
+    long start = watermark;
+    for (Map.Entry<RollUpAccumulator.Target, RollUpBuckets> entry : accumulator.flush(end)
+        .entrySet()) {
       try {
-        QueryResult queryResult = executor.execute();
-        for (MetricResult metricResult : queryResult.getQueries()) {
-          MetricsManager.addDataPoints(metricResult, rollUpQuery.getSaveAs());
+        writeBuckets(entry.getValue(), entry.getKey().getSaveAs());
+      } catch (QueryException | RollUpException | RuntimeException e) {
+        accumulator.markDirty(start, end);
+        throw e;
+      }
+    }
+  }
+
+
+  /**
+   * Roll up again from IoTDB the windows late points have arrived for since the last repair.
+   */
+  private void repair(RollUpAccumulator accumulator, long step)
+      throws QueryException, RollUpException {
+    long[] dirty = accumulator
+        .takeDirty(System.currentTimeMillis(), config.ROLLUP_REPAIR_INTERVAL);
+    if (dirty == null) {
+      return;
+    }
+    long start = dirty[0];
+    try {
+      while (start < dirty[1] && !Thread.currentThread().isInterrupted()) {
+        long end = Math.min(dirty[1], start + config.ROLLUP_BATCH_WINDOWS * step);
+        rollUp(start, end);
+        start = end;
+      }
+    } finally {
+      if (start < dirty[1]) {
+        accumulator.markDirty(start, dirty[1]);
+      }
+    }
+    LOGGER.info("Roll-up id: {} repaired the windows from {} to {}", id, dirty[0], dirty[1]);
+  }
+
+  /**
+   * Get the length of the windows: the least common multiple of the samplings of the roll-up, so
+   * the buckets of every sampling are aligned with the windows, or the execution interval when
+   * nothing is sampled.
+   */
+  long getWindowStep() {
+    long step = 0;
+    for (RollUpQuery rollUpQuery : rollups) {
+      for (QueryMetric metric : rollUpQuery.getQuery().getQueryMetrics()) {
+        if (metric.getAggregators() == null) {
+          continue;
+        }
+        for (QueryAggregator aggregator : metric.getAggregators()) {
+          if (aggregator instanceof QueryAggregatorSampling
+              && ((QueryAggregatorSampling) aggregator).getSampling() != null) {
+            long sampling = Math
+                .max(1L, ((QueryAggregatorSampling) aggregator).getSampling().toTimestamp());
+            step = step == 0 ? sampling : step / gcd(step, sampling) * sampling;
+          }
         }
-      } catch (QueryException e) {
-        LOGGER.error("Execute Roll-up query failed because ", e);
       }
     }
+    return step > 0 ? step : Math.max(1L, interval.toTimestamp());
+  }
 
-    LOGGER.info("Roll-up id: {}, name: {}, execution_interval: {} {}",
-        id, name, interval.getValue(), interval.getUnit());
+  private static long gcd(long a, long b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
+  private RollUpStore getStore() {
+    if (store == null) {
+      store = new RollUpStoreImpl();
+    }
+    return store;
   }
 
 }
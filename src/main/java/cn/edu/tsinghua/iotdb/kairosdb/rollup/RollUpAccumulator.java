@@ -0,0 +1,167 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryMetric;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The windows of a continuous roll-up task computed from the points as they are ingested, so the
+ * task doesn't read them back from IoTDB. Every metric of the task keeps the state of its sampling
+ * aggregator for each open bucket, and the buckets of the closed windows are flushed by the task.
+ *
+ * <p>The windows before the task has been registered are not fully seen, so they are rolled up from
+ * IoTDB. Points arriving for windows already flushed or rolled up mark them dirty, and the dirty
+ * windows are rolled up again from IoTDB by the repair pass of the task.
+ */
+class RollUpAccumulator {
+
+  private final String id;
+
+  private final long step;
+
+  // The start of the first window whose points have all been seen
+  private final long trustedFrom;
+
+  private final List<Target> targets = new ArrayList<>();
+
+  // Guarded by this: the end of the windows already written, and the windows to repair
+  private long flushedUntil;
+  private long dirtyStart = Long.MAX_VALUE;
+  private long dirtyEnd = Long.MIN_VALUE;
+  private long lastRepair = System.currentTimeMillis();
+
+  /**
+   * @throws RollUpException if a metric of the task can't be computed at ingestion
+   */
+  RollUpAccumulator(RollUp rollUp) throws RollUpException {
+    this.id = rollUp.getId();
+    this.step = rollUp.getWindowStep();
+    this.trustedFrom = Math.floorDiv(System.currentTimeMillis(), step) * step + step;
+    this.flushedUntil = trustedFrom;
+    for (RollUpQuery rollUpQuery : rollUp.getRollups()) {
+      for (QueryMetric metric : rollUpQuery.getQuery().getQueryMetrics()) {
+        targets.add(new Target(rollUpQuery.getSaveAs(), metric));
+      }
+    }
+  }
+
+  String getId() {
+    return id;
+  }
+
+  List<Target> getTargets() {
+    return targets;
+  }
+
+  long getTrustedFrom() {
+    return trustedFrom;
+  }
+
+  /**
+   * Consider the windows before the end written, so the points arriving for them are repaired.
+   */
+  synchronized void advance(long end) {
+    flushedUntil = Math.max(flushedUntil, end);
+  }
+
+  /**
+   * Take the buckets of the windows before the end.
+   *
+   * @return the buckets of every metric which has any
+   */
+  synchronized Map<Target, RollUpBuckets> flush(long end) {
+    flushedUntil = Math.max(flushedUntil, end);
+    Map<Target, RollUpBuckets> closed = new LinkedHashMap<>();
+    for (Target target : targets) {
+      RollUpBuckets taken = target.buckets.take(end);
+      if (!taken.isEmpty()) {
+        closed.put(target, taken);
+      }
+    }
+    return closed;
+  }
+
+  /**
+   * Mark the windows of [start, end) to be rolled up again from IoTDB.
+   */
+  synchronized void markDirty(long start, long end) {
+    dirtyStart = Math.min(dirtyStart, Math.floorDiv(start, step) * step);
+    dirtyEnd = Math.max(dirtyEnd, Math.floorDiv(end - 1, step) * step + step);
+  }
+
+  /**
+   * Take the dirty windows if the last repair is older than the interval.
+   *
+   * @return the start and end of the dirty windows, or null if there are none to repair now
+   */
+  synchronized long[] takeDirty(long now, long repairInterval) {
+    if (dirtyStart >= dirtyEnd || now - lastRepair < repairInterval) {
+      return null;
+    }
+    long[] dirty = {dirtyStart, dirtyEnd};
+    dirtyStart = Long.MAX_VALUE;
+    dirtyEnd = Long.MIN_VALUE;
+    lastRepair = now;
+    return dirty;
+  }
+
+  /**
+   * A metric of the task, whose matching points are aggregated into its buckets.
+   */
+  class Target {
+
+    private final String saveAs;
+
+    private final Map<String, List<String>> tags;
+
+    // Guarded by the accumulator
+    private final RollUpBuckets buckets;
+
+    Target(String saveAs, QueryMetric metric) throws RollUpException {
+      if (!RollUpBuckets.isMergeable(metric)) {
+        throw new RollUpException(String.format(
+            "Metric %s of continuous roll-up %s must have a single sampling aggregator, not "
+                + "aligned to the sampling, and no group_by or limit", metric.getName(), saveAs));
+      }
+      this.saveAs = saveAs;
+      this.tags = metric.getTags();
+      this.buckets = new RollUpBuckets(metric);
+    }
+
+    String getSaveAs() {
+      return saveAs;
+    }
+
+    String getMetricName() {
+      return buckets.getMetricName();
+    }
+
+    boolean matches(Map<String, String> pointTags) {
+      if (tags == null) {
+        return true;
+      }
+      for (Map.Entry<String, List<String>> entry : tags.entrySet()) {
+        if (entry.getValue() == null || entry.getValue().isEmpty()) {
+          continue;
+        }
+        if (!entry.getValue().contains(pointTags.get(entry.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void add(long timestamp, double value, boolean integer) {
+      synchronized (RollUpAccumulator.this) {
+        if (timestamp < flushedUntil) {
+          markDirty(timestamp, timestamp + 1);
+          return;
+        }
+        buckets.add(timestamp, value, integer);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The backfill of a roll-up task over a historical range and its progress, which is serialized as
+ * the response of the backfill endpoint. The range is split into chunks of whole windows rolled up
+ * in any order; done is the end of the chunks rolled up without a gap from the start, which is
+ * what is persisted and where a backfill resumes after a restart.
+ */
+public class RollUpBackfill {
+
+  public enum Status {
+    @SerializedName("running")
+    RUNNING,
+    @SerializedName("done")
+    DONE,
+    @SerializedName("failed")
+    FAILED,
+    @SerializedName("cancelled")
+    CANCELLED
+  }
+
+  @SerializedName("id")
+  private final String id;
+
+  @SerializedName("status")
+  private volatile Status status = Status.RUNNING;
+
+  @SerializedName("start_absolute")
+  private final long start;
+
+  @SerializedName("end_absolute")
+  private final long end;
+
+  @SerializedName("done")
+  private long done;
+
+  @SerializedName("chunks_total")
+  private int chunksTotal;
+
+  @SerializedName("chunks_done")
+  private int chunksDone;
+
+  @SerializedName("points_read")
+  private long pointsRead;
+
+  // From the start of the backfill to its end, or to now while it runs
+  @SerializedName("elapsed_ms")
+  private long elapsed;
+
+  @SerializedName("failures")
+  private final List<String> failures = new ArrayList<>();
+
+  // Where the chunks of this run start from, and their length
+  private transient long from;
+  private transient long chunkLength;
+
+  private transient boolean[] completed;
+  private transient int chunksFailed;
+
+  private transient long startTime;
+  private transient long endTime;
+
+  RollUpBackfill(String id, long start, long end, long done) {
+    this.id = id;
+    this.start = start;
+    this.end = end;
+    this.done = done;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  long getStart() {
+    return start;
+  }
+
+  long getEnd() {
+    return end;
+  }
+
+  synchronized long getDone() {
+    return done;
+  }
+
+  /**
+   * Split what is left of the range into chunks of the given length.
+   *
+   * @return the number of chunks
+   */
+  synchronized int start(long chunkLength) {
+    this.from = done;
+    this.chunkLength = chunkLength;
+    chunksTotal = (int) ((end - from + chunkLength - 1) / chunkLength);
+    completed = new boolean[chunksTotal];
+    startTime = System.currentTimeMillis();
+    status = Status.RUNNING;
+    return chunksTotal;
+  }
+
+  synchronized long getChunkStart(int chunk) {
+    return from + chunk * chunkLength;
+  }
+
+  synchronized long getChunkEnd(int chunk) {
+    return Math.min(end, getChunkStart(chunk) + chunkLength);
+  }
+
+  /**
+   * Record a chunk rolled up and move done past the chunks completed without a gap.
+   *
+   * @return whether done has moved
+   */
+  synchronized boolean completeChunk(int chunk, long points) {
+    completed[chunk] = true;
+    chunksDone++;
+    pointsRead += points;
+    long previous = done;
+    for (int i = (int) ((done - from) / chunkLength); i < chunksTotal && completed[i]; i++) {
+      done = getChunkEnd(i);
+    }
+    return done > previous;
+  }
+
+  /**
+   * @return the average number of points read by the chunks rolled up so far, 0 before the first
+   * one
+   */
+  synchronized long getPointsPerChunk() {
+    return chunksDone == 0 ? 0 : pointsRead / chunksDone;
+  }
+
+  synchronized void recordFailure(String failure) {
+    chunksFailed++;
+    failures.add(failure);
+  }
+
+  /**
+   * @return whether every chunk has been rolled up or has failed
+   */
+  synchronized boolean isComplete() {
+    return chunksDone + chunksFailed >= chunksTotal;
+  }
+
+  synchronized void finish() {
+    if (status == Status.RUNNING) {
+      endTime = System.currentTimeMillis();
+      status = failures.isEmpty() ? Status.DONE : Status.FAILED;
+    }
+  }
+
+  synchronized void cancel() {
+    if (status == Status.RUNNING) {
+      endTime = System.currentTimeMillis();
+      status = Status.CANCELLED;
+    }
+  }
+
+  boolean isFinished() {
+    return status != Status.RUNNING;
+  }
+
+  /**
+   * Take a consistent copy of the progress to serialize.
+   */
+  synchronized RollUpBackfill snapshot() {
+    RollUpBackfill copy = new RollUpBackfill(id, start, end, done);
+    copy.status = status;
+    copy.chunksTotal = chunksTotal;
+    copy.chunksDone = chunksDone;
+    copy.pointsRead = pointsRead;
+    copy.failures.addAll(failures);
+    if (startTime > 0) {
+      copy.elapsed = (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+    return copy;
+  }
+
+}
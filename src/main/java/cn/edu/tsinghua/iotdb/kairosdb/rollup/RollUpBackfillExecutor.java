@@ -0,0 +1,237 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
+import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.util.RateLimiter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rolls up the history of the tasks. A backfill range is aligned with the windows of its task and
+ * split into chunks of ROLLUP_BATCH_WINDOWS windows, which are rolled up in parallel by a pool of
+ * ROLLUP_BACKFILL_THREADS low priority threads, and the points read per second by all the
+ * backfills together are capped, so a backfill of a year doesn't starve the ingestion or the
+ * scheduled roll-ups.
+ *
+ * <p>The end of the chunks rolled up without a gap from the start is persisted as they complete,
+ * and the backfills left unfinished by a restart or a failure are resumed from there, see {@link
+ * #resume(RollUp)}. Chunks rolled up again write the same points, so nothing is doubled.
+ */
+public class RollUpBackfillExecutor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RollUpBackfillExecutor.class);
+
+  private static final Config config = ConfigDescriptor.getInstance().getConfig();
+
+  private final ExecutorService pool = Executors
+      .newFixedThreadPool(config.ROLLUP_BACKFILL_THREADS, new BackfillThreadFactory());
+
+  // Shared by all the backfills, in points read per second
+  private final RateLimiter throttle = new RateLimiter(config.ROLLUP_BACKFILL_POINTS_PER_SECOND);
+
+  // <task id, last backfill of the task>
+  private final Map<String, RunningBackfill> backfills = new ConcurrentHashMap<>();
+
+  private final RollUpParser parser = new RollUpParser();
+
+  // Shared by the backfill threads, which is safe since every call borrows its own connection
+  private final RollUpStore store = new RollUpStoreImpl();
+
+  private static class RollUpBackfillExecutorHolder {
+
+    private static final RollUpBackfillExecutor INSTANCE = new RollUpBackfillExecutor();
+  }
+
+  public static RollUpBackfillExecutor getInstance() {
+    return RollUpBackfillExecutorHolder.INSTANCE;
+  }
+
+  private RollUpBackfillExecutor() {
+  }
+
+  /**
+   * Start the backfill of the task over [startTime, endTime), widened to whole windows at the
+   * start and narrowed to the windows closed by then at the end.
+   *
+   * @param endTime the end of the range, or null for the windows the task has not rolled up yet
+   * @return the progress of the backfill
+   * @throws IllegalArgumentException if no window of the range has closed
+   * @throws IllegalStateException if the task is already being backfilled
+   */
+  public RollUpBackfill start(RollUp rollUp, long startTime, Long endTime)
+      throws RollUpException {
+    long step = rollUp.getWindowStep();
+    long closed = Math.floorDiv(System.currentTimeMillis() - config.ROLLUP_DELAY, step) * step;
+    if (endTime == null) {
+      endTime = store.readWatermark(rollUp.getId());
+    }
+    long start = Math.floorDiv(startTime, step) * step;
+    long end = endTime == null ? closed : Math.min(closed, Math.floorDiv(endTime, step) * step);
+    if (start >= end) {
+      throw new IllegalArgumentException(String
+          .format("No window of %s ms closed between %s and %s to roll up", step, start, end));
+    }
+
+    RollUpBackfill backfill = new RollUpBackfill(rollUp.getId(), start, end, start);
+    synchronized (this) {
+      checkNotRunning(rollUp.getId());
+      store.writeBackfill(rollUp.getId(), start, end, start);
+      submit(rollUp, backfill);
+    }
+    return backfill.snapshot();
+  }
+
+  /**
+   * Resume the last backfill of the task if it has not finished.
+   *
+   * @return the progress of the backfill, or null if there is nothing left to backfill
+   * @throws IllegalStateException if the task is already being backfilled
+   */
+  public RollUpBackfill resume(RollUp rollUp) throws RollUpException {
+    RollUpBackfill backfill = store.readBackfill(rollUp.getId());
+    if (backfill == null || backfill.getDone() >= backfill.getEnd()) {
+      return null;
+    }
+    synchronized (this) {
+      checkNotRunning(rollUp.getId());
+      submit(rollUp, backfill);
+    }
+    LOGGER.info("Resumed the backfill of roll-up {} from {} to {}", rollUp.getId(),
+        backfill.getDone(), backfill.getEnd());
+    return backfill.snapshot();
+  }
+
+  /**
+   * @return a copy of the progress of the last backfill of the task since the start, or null if
+   * there is none
+   */
+  public RollUpBackfill get(String id) {
+    RunningBackfill running = backfills.get(id);
+    return running == null ? null : running.backfill.snapshot();
+  }
+
+  /**
+   * Stop the backfill of the task and forget it. The chunks running are interrupted.
+   */
+  public void cancel(String id) {
+    RunningBackfill running = backfills.remove(id);
+    if (running != null) {
+      running.backfill.cancel();
+      for (Future<?> future : running.futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private void checkNotRunning(String id) {
+    RunningBackfill running = backfills.get(id);
+    if (running != null && !running.backfill.isFinished()) {
+      throw new IllegalStateException("Roll-up " + id + " is already being backfilled");
+    }
+  }
+
+  private void submit(RollUp rollUp, RollUpBackfill backfill) {
+    RunningBackfill running = new RunningBackfill(backfill);
+    backfills.put(rollUp.getId(), running);
+    int chunks = backfill.start((long) config.ROLLUP_BATCH_WINDOWS * rollUp.getWindowStep());
+    for (int i = 0; i < chunks; i++) {
+      int chunk = i;
+      running.futures.add(pool.submit(() -> runChunk(rollUp, backfill, chunk)));
+    }
+  }
+
+  private void runChunk(RollUp rollUp, RollUpBackfill backfill, int chunk) {
+    if (backfill.isFinished()) {
+      return;
+    }
+    long start = backfill.getChunkStart(chunk);
+    long end = backfill.getChunkEnd(chunk);
+    // The chunk is paid for before it runs, as many points as the chunks before it have read on
+    // average, and what it reads over that is paid for after it has run
+    long estimate = backfill.getPointsPerChunk();
+    long points = 0;
+    try {
+      throttle.acquire(estimate);
+      // The queries of a task are modified by every roll-up, so every chunk gets its own copy
+      RollUp copy = parser.parseRollupTask(rollUp.getJson(), rollUp.getId());
+      points = copy.rollUp(start, end);
+      synchronized (backfill) {
+        if (backfill.completeChunk(chunk, points) && !backfill.isFinished()) {
+          writeProgress(backfill);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      backfill.recordFailure(
+          String.format("Backfill from %s to %s has been interrupted", start, end));
+    } catch (QueryException | RollUpException | RuntimeException e) {
+      // Every chunk is recorded as done or failed, so the backfill always finishes
+      LOGGER.error("Failed to backfill roll-up {} from {} to {}", backfill.getId(), start, end,
+          e);
+      backfill.recordFailure(
+          String.format("Failed to backfill from %s to %s: %s", start, end, e.getMessage()));
+    }
+
+    synchronized (backfill) {
+      if (backfill.isComplete() && !backfill.isFinished()) {
+        backfill.finish();
+        LOGGER.info("Backfill of roll-up {} has finished: {}", backfill.getId(),
+            backfill.getStatus());
+      }
+    }
+
+    try {
+      throttle.acquire(points - estimate);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Persist where the backfill is. A failed write only means more chunks are rolled up again when
+   * the backfill is resumed.
+   */
+  private void writeProgress(RollUpBackfill backfill) {
+    try {
+      store.writeBackfillDone(backfill.getId(), backfill.getDone());
+    } catch (RollUpException e) {
+      LOGGER.warn("Failed to save the progress of the backfill of roll-up {}", backfill.getId(),
+          e);
+    }
+  }
+
+  private static class RunningBackfill {
+
+    private final RollUpBackfill backfill;
+
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+
+    RunningBackfill(RollUpBackfill backfill) {
+      this.backfill = backfill;
+    }
+  }
+
+  private static class BackfillThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "rollup-backfill-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryMetric;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregator;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlign;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorState;
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorStreamable;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.BucketCursor;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The buckets of a roll-up metric, each holding the partial state of the sampling aggregator of
+ * the metric. The buckets are aligned with the epoch, so the buckets of a roll-up nest in the
+ * buckets of any coarser roll-up whose sampling is a multiple of it.
+ *
+ * <p>Besides its points, a roll-up some task declares as its source saves the states of its
+ * buckets as the metric save_as{@value #STATE_SUFFIX}, at the start of the buckets. The coarser
+ * roll-up merges these states instead of reading the raw points again, e.g. a 1 day average merges
+ * the sums and counts of 24 hourly buckets rather than averaging their averages. The states of the
+ * windows rolled up before the coarser task has been created are saved by backfilling the source.
+ */
+class RollUpBuckets {
+
+  static final String STATE_SUFFIX = "_state";
+
+  // Escapes the single quotes, so a state can be quoted in an insert
+  private static final Gson gson = new Gson();
+
+  private final String metricName;
+
+  private final QueryAggregatorStreamable aggregator;
+
+  private final long sampling;
+
+  private final QueryAggregatorAlign align;
+
+  // <bucket start, state>
+  private final TreeMap<Long, QueryAggregatorState> buckets = new TreeMap<>();
+
+  // Holds a single point or state to merge, since they don't arrive in order of time
+  private final QueryAggregatorState scratch;
+
+  /**
+   * @param metric a metric which is {@link #isMergeable(QueryMetric)}
+   */
+  RollUpBuckets(QueryMetric metric) {
+    this(metric.getName(), (QueryAggregatorStreamable) metric.getAggregators().get(0));
+  }
+
+  private RollUpBuckets(String metricName, QueryAggregatorStreamable aggregator) {
+    this.metricName = metricName;
+    this.aggregator = aggregator;
+    this.sampling = Math.max(1L, aggregator.getSampling().toTimestamp());
+    this.align = aggregator.getAlign();
+    this.scratch = aggregator.newState();
+  }
+
+  /**
+   * Whether the buckets of the metric can be computed from its points or states in any order: its
+   * only aggregator is a sampling aggregator with mergeable states whose buckets don't depend on
+   * the first point, and nothing is computed across its series.
+   */
+  static boolean isMergeable(QueryMetric metric) {
+    List<QueryAggregator> aggregators = metric.getAggregators();
+    return aggregators != null && aggregators.size() == 1
+        && aggregators.get(0) instanceof QueryAggregatorStreamable
+        && ((QueryAggregatorStreamable) aggregators.get(0)).getSampling() != null
+        && ((QueryAggregatorStreamable) aggregators.get(0)).getAlign()
+        != QueryAggregatorAlign.ALIGN_SAMPLING
+        && (metric.getGroupBy() == null || metric.getGroupBy().isEmpty())
+        && metric.getLimit() == null;
+  }
+
+  String getMetricName() {
+    return metricName;
+  }
+
+  boolean isEmpty() {
+    return buckets.isEmpty();
+  }
+
+  void add(long timestamp, double value, boolean integer) {
+    scratch.clear();
+    scratch.add(timestamp, value, integer);
+    getBucket(timestamp).merge(scratch);
+  }
+
+  /**
+   * Merge a state saved by a finer roll-up of the same aggregator.
+   *
+   * @param timestamp the start of the bucket of the state
+   * @param json the state as saved by {@link #getStates()}
+   * @throws QueryException if the state can't be merged into the buckets
+   */
+  void merge(long timestamp, String json) throws QueryException {
+    JsonObject saved = null;
+    try {
+      saved = new JsonParser().parse(json).getAsJsonObject();
+    } catch (JsonParseException | IllegalStateException ignore) {
+      // Reported below
+    }
+    if (saved == null || !saved.has("aggregator") || !saved.has("sampling")
+        || !saved.has("state")) {
+      throw new QueryException(String.format("Invalid roll-up state at %s: %s", timestamp, json));
+    }
+    String type = saved.get("aggregator").getAsString();
+    long sourceSampling = saved.get("sampling").getAsLong();
+    if (!type.equals(((QueryAggregator) aggregator).getType().name())) {
+      throw new QueryException(String.format(
+          "Cannot merge %s states into the %s buckets of %s", type,
+          ((QueryAggregator) aggregator).getType().name(), metricName));
+    }
+    if (sampling % sourceSampling != 0) {
+      throw new QueryException(String.format(
+          "Cannot merge buckets of %s ms into the buckets of %s ms of %s", sourceSampling,
+          sampling, metricName));
+    }
+    getBucket(timestamp).merge(aggregator.readState(saved.get("state")));
+  }
+
+  private QueryAggregatorState getBucket(long timestamp) {
+    long bucketStart = Math.floorDiv(timestamp, sampling) * sampling;
+    return buckets.computeIfAbsent(bucketStart, key -> aggregator.newState());
+  }
+
+  /**
+   * Move the buckets before the end to new buckets.
+   */
+  RollUpBuckets take(long end) {
+    RollUpBuckets taken = new RollUpBuckets(metricName, aggregator);
+    Map<Long, QueryAggregatorState> head = buckets.headMap(end, false);
+    taken.buckets.putAll(head);
+    head.clear();
+    return taken;
+  }
+
+  /**
+   * @return the point of every bucket, aligned as the aggregator aligns them
+   */
+  MetricResult getPoints() throws QueryException {
+    MetricValueResult valueResult = new MetricValueResult(metricName);
+    for (Map.Entry<Long, QueryAggregatorState> bucket : buckets.entrySet()) {
+      QueryDataPoint point = bucket.getValue().get();
+      valueResult.addDataPoint(QueryAggregator.moveTo(point, BucketCursor
+          .alignTimestamp(align, bucket.getKey(), sampling, point.getTimestamp())));
+    }
+    return toMetricResult(valueResult);
+  }
+
+  /**
+   * @return the state of every bucket at its start, as a text point to save
+   */
+  MetricResult getStates() {
+    MetricValueResult valueResult = new MetricValueResult(metricName);
+    for (Map.Entry<Long, QueryAggregatorState> bucket : buckets.entrySet()) {
+      JsonObject saved = new JsonObject();
+      saved.addProperty("aggregator", ((QueryAggregator) aggregator).getType().name());
+      saved.addProperty("sampling", sampling);
+      saved.add("state", QueryAggregatorState.toJson(bucket.getValue()));
+      valueResult.addDataPoint(new QueryDataPoint(bucket.getKey(), gson.toJson(saved)));
+    }
+    return toMetricResult(valueResult);
+  }
+
+  private static MetricResult toMetricResult(MetricValueResult valueResult) {
+    MetricResult result = new MetricResult();
+    result.addResult(valueResult);
+    result.setSampleSize((long) valueResult.getDatapoints().size());
+    return result;
+  }
+
+}
@@ -11,10 +11,18 @@ public class RollUpQuery {
   @SerializedName("query")
   private Query query;
 
+  // The save_as of a finer roll-up whose bucket states are merged instead of reading the metrics
+  @SerializedName("source")
+  private String source;
+
   public String getSaveAs() {
     return saveAs;
   }
 
+  public String getSource() {
+    return source;
+  }
+
   public Query getQuery() {
     return query;
   }
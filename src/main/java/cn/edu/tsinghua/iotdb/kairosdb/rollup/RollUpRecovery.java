@@ -1,12 +1,22 @@
 package cn.edu.tsinghua.iotdb.kairosdb.rollup;
 
 import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class RollUpRecovery {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(RollUpRecovery.class);
+
   public void recover(Map<String, RollUp> historyTasks) throws RollUpException{
     for(RollUp rollUp: historyTasks.values()){
       RollUpsExecutor.getInstance().create(rollUp);
+      // Resume the backfill interrupted by the restart, if any
+      try {
+        RollUpBackfillExecutor.getInstance().resume(rollUp);
+      } catch (RollUpException | IllegalStateException e) {
+        LOGGER.error("Resume the backfill of rollup {} failed because ", rollUp.getId(), e);
+      }
     }
   }
 }
@@ -37,4 +37,46 @@ public interface RollUpStore {
    */
   RollUp read(String id) throws RollUpException;
 
+  /**
+   * Write the watermark of a task, the end of the windows it has already rolled up.
+   *
+   * @param id task id
+   * @param watermark the time in milliseconds up to which the task has rolled up
+   */
+  void writeWatermark(String id, long watermark) throws RollUpException;
+
+  /**
+   * Returns the watermark of the task associated with the id.
+   *
+   * @param id task id
+   * @return the watermark, or null if the task has never run
+   */
+  Long readWatermark(String id) throws RollUpException;
+
+  /**
+   * Write the range of the backfill of a task and the end of the part of it already rolled up.
+   *
+   * @param id task id
+   * @param start the start of the range in milliseconds
+   * @param end the end of the range in milliseconds
+   * @param done the time in milliseconds up to which the range has been rolled up
+   */
+  void writeBackfill(String id, long start, long end, long done) throws RollUpException;
+
+  /**
+   * Write the end of the part of the backfill of a task already rolled up.
+   *
+   * @param id task id
+   * @param done the time in milliseconds up to which the range has been rolled up
+   */
+  void writeBackfillDone(String id, long done) throws RollUpException;
+
+  /**
+   * Returns the last backfill of the task associated with the id.
+   *
+   * @param id task id
+   * @return the backfill, or null if the task has never been backfilled
+   */
+  RollUpBackfill readBackfill(String id) throws RollUpException;
+
 }
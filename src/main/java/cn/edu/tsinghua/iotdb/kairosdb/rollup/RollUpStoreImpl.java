@@ -1,9 +1,7 @@
 package cn.edu.tsinghua.iotdb.kairosdb.rollup;
 
-import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
-import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
+import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -12,34 +10,50 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Stores the roll-up tasks and their progress in root.SYSTEM.ROLLUP. The store is used at the same
+ * time by the roll-up workers, the backfills and the REST requests, so every call borrows its own
+ * connection from the pool rather than sharing one.
+ */
 public class RollUpStoreImpl implements RollUpStore {
 
-  private static final Config config = ConfigDescriptor.getInstance().getConfig();
   private static final Logger LOGGER = LoggerFactory.getLogger(RollUpStoreImpl.class);
-  private static final String URL = "jdbc:iotdb://%s:%s/";
-  private static Connection connection;
-  private static final String USER = "root";
-  private static final String PWD = "root";
   private RollUpParser parser = new RollUpParser();
 
+  private interface StatementCallback<T> {
 
-  public RollUpStoreImpl() {
+    T apply(Statement statement) throws SQLException, RollUpException;
+  }
+
+  private static <T> T execute(StatementCallback<T> callback)
+      throws SQLException, ClassNotFoundException, RollUpException {
+    Connection connection = null;
+    // The connection is given back only if it is still usable
+    boolean broken = true;
     try {
-      Class.forName("org.apache.iotdb.jdbc.IoTDBDriver");
-      connection = DriverManager
-          .getConnection(String.format(URL, config.HOST, config.PORT), USER, PWD);
-    } catch (Exception e) {
-      LOGGER.error("Initialize RollUpStoreImpl IoTDB connection failed because ", e);
+      connection = IoTDBUtil.borrowConnection();
+      T result;
+      try (Statement statement = connection.createStatement()) {
+        result = callback.apply(statement);
+      }
+      broken = false;
+      return result;
+    } finally {
+      if (broken) {
+        IoTDBUtil.discardConnection(connection);
+      } else {
+        IoTDBUtil.releaseConnection(connection);
+      }
     }
   }
 
   @Override
   public void write(String rollUpJson, String id) throws RollUpException {
-    try (Statement statement = connection.createStatement()) {
-      statement.execute(String.format(
+    try {
+      execute(statement -> statement.execute(String.format(
           "insert into root.SYSTEM.ROLLUP(timestamp, json) values(%s, %s);", id,
-          "'" + rollUpJson + "'"));
-    } catch (SQLException e) {
+          "'" + rollUpJson + "'")));
+    } catch (SQLException | ClassNotFoundException e) {
       LOGGER.error("Write rollup JSON to IoTDB failed because ", e);
       throw new RollUpException(e);
     }
@@ -48,19 +62,22 @@ public class RollUpStoreImpl implements RollUpStore {
   @Override
   public Map<String, RollUp> read() throws RollUpException {
     Map<String, RollUp> allTasks = new HashMap<>();
-    try (Statement statement = connection.createStatement()) {
-      // Read the rollup tasks
-      statement.execute(String.format("SELECT %s FROM %s", "json", "root.SYSTEM.ROLLUP"));
-      try (ResultSet resultSet = statement.getResultSet()) {
-        while (resultSet.next()) {
-          String id = resultSet.getString(1);
-          String json = resultSet.getString(2);
-          if (!json.equals("NULL")) {
-            RollUp rollUp = parser.parseRollupTask(json, id);
-            allTasks.put(id, rollUp);
+    try {
+      execute(statement -> {
+        // Read the rollup tasks
+        statement.execute(String.format("SELECT %s FROM %s", "json", "root.SYSTEM.ROLLUP"));
+        try (ResultSet resultSet = statement.getResultSet()) {
+          while (resultSet.next()) {
+            String id = resultSet.getString(1);
+            String json = resultSet.getString(2);
+            if (!json.equals("NULL")) {
+              RollUp rollUp = parser.parseRollupTask(json, id);
+              allTasks.put(id, rollUp);
+            }
           }
         }
-      }
+        return null;
+      });
     } catch (Exception e) {
       throw new RollUpException(e);
     }
@@ -69,9 +86,9 @@ public class RollUpStoreImpl implements RollUpStore {
 
   @Override
   public void remove(String id) throws RollUpException {
-    try (Statement statement = connection.createStatement()) {
-      statement.execute(String.format(
-          "insert into root.SYSTEM.ROLLUP(timestamp, json) values(%s, %s);", id, "\"NULL\""));
+    try {
+      execute(statement -> statement.execute(String.format(
+          "insert into root.SYSTEM.ROLLUP(timestamp, json) values(%s, %s);", id, "\"NULL\"")));
     } catch (Exception e) {
       throw new RollUpException(e);
     }
@@ -79,23 +96,107 @@ public class RollUpStoreImpl implements RollUpStore {
 
   @Override
   public RollUp read(String id) throws RollUpException {
-    RollUp rollUp = null;
-    try (Statement statement = connection.createStatement()) {
-      // Read the rollup tasks
-      statement.execute(
-          String.format("SELECT %s FROM %s WHERE time = %s ", "json", "root.SYSTEM.ROLLUP", id));
-      try (ResultSet resultSet = statement.getResultSet()) {
-        while (resultSet.next()) {
-          String json = resultSet.getString(2);
-          if (!json.equals("NULL")) {
-            rollUp = parser.parseRollupTask(json, id);
+    try {
+      return execute(statement -> {
+        RollUp rollUp = null;
+        // Read the rollup tasks
+        statement.execute(
+            String.format("SELECT %s FROM %s WHERE time = %s ", "json", "root.SYSTEM.ROLLUP", id));
+        try (ResultSet resultSet = statement.getResultSet()) {
+          while (resultSet.next()) {
+            String json = resultSet.getString(2);
+            if (!json.equals("NULL")) {
+              rollUp = parser.parseRollupTask(json, id);
+            }
           }
         }
-      }
+        return rollUp;
+      });
+    } catch (Exception e) {
+      throw new RollUpException(e);
+    }
+  }
+
+  @Override
+  public void writeWatermark(String id, long watermark) throws RollUpException {
+    try {
+      execute(statement -> statement.execute(String.format(
+          "insert into root.SYSTEM.ROLLUP(timestamp, watermark) values(%s, %s);", id, watermark)));
+    } catch (SQLException | ClassNotFoundException e) {
+      LOGGER.error("Write rollup watermark to IoTDB failed because ", e);
+      throw new RollUpException(e);
+    }
+  }
+
+  @Override
+  public Long readWatermark(String id) throws RollUpException {
+    try {
+      return execute(statement -> {
+        Long watermark = null;
+        statement.execute(String
+            .format("SELECT %s FROM %s WHERE time = %s ", "watermark", "root.SYSTEM.ROLLUP", id));
+        try (ResultSet resultSet = statement.getResultSet()) {
+          while (resultSet.next()) {
+            String value = resultSet.getString(2);
+            if (value != null && !value.equals("null")) {
+              watermark = Long.parseLong(value);
+            }
+          }
+        }
+        return watermark;
+      });
+    } catch (Exception e) {
+      throw new RollUpException(e);
+    }
+  }
+
+  @Override
+  public void writeBackfill(String id, long start, long end, long done) throws RollUpException {
+    try {
+      execute(statement -> statement.execute(String.format(
+          "insert into root.SYSTEM.ROLLUP(timestamp, backfill_start, backfill_end, backfill_done) "
+              + "values(%s, %s, %s, %s);", id, start, end, done)));
+    } catch (SQLException | ClassNotFoundException e) {
+      LOGGER.error("Write rollup backfill to IoTDB failed because ", e);
+      throw new RollUpException(e);
+    }
+  }
+
+  @Override
+  public void writeBackfillDone(String id, long done) throws RollUpException {
+    try {
+      execute(statement -> statement.execute(String.format(
+          "insert into root.SYSTEM.ROLLUP(timestamp, backfill_done) values(%s, %s);", id, done)));
+    } catch (SQLException | ClassNotFoundException e) {
+      LOGGER.error("Write rollup backfill progress to IoTDB failed because ", e);
+      throw new RollUpException(e);
+    }
+  }
+
+  @Override
+  public RollUpBackfill readBackfill(String id) throws RollUpException {
+    try {
+      return execute(statement -> {
+        RollUpBackfill backfill = null;
+        statement.execute(String.format("SELECT %s FROM %s WHERE time = %s ",
+            "backfill_start,backfill_end,backfill_done", "root.SYSTEM.ROLLUP", id));
+        try (ResultSet resultSet = statement.getResultSet()) {
+          while (resultSet.next()) {
+            String start = resultSet.getString(2);
+            String end = resultSet.getString(3);
+            String done = resultSet.getString(4);
+            if (start != null && !start.equals("null") && end != null && !end.equals("null")
+                && done != null && !done.equals("null")) {
+              backfill = new RollUpBackfill(id, Long.parseLong(start), Long.parseLong(end),
+                  Long.parseLong(done));
+            }
+          }
+        }
+        return backfill;
+      });
     } catch (Exception e) {
       throw new RollUpException(e);
     }
-    return rollUp;
   }
 
 }
@@ -2,20 +2,38 @@ package cn.edu.tsinghua.iotdb.kairosdb.rollup;
 
 import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
 import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
-import cn.edu.tsinghua.iotdb.kairosdb.datastore.Duration;
-import cn.edu.tsinghua.iotdb.kairosdb.datastore.TimeUnit;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Schedules the roll-up tasks. A single timer thread only triggers the tasks, which are run by a
+ * small pool of ROLLUP_THREADS workers, so no more roll-ups than that query IoTDB at the same
+ * time. Waiting tasks are run by priority, then in the order they have been triggered.
+ *
+ * <p>Every task is started at a phase of its interval derived from its id, so tasks with the same
+ * interval don't fire in the same second. A task triggered while it is still waiting is not
+ * queued again, and one triggered while it runs is run once more afterwards: missed runs are
+ * coalesced, which loses nothing since a run rolls up all the windows closed since its watermark.
+ */
 public class RollUpsExecutor {
 
   private static final Config config = ConfigDescriptor.getInstance().getConfig();
-  private Map<String, ScheduledFuture> rollUpTasks = new HashMap<>();
-  private ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) Executors
-      .newScheduledThreadPool(config.MAX_ROLLUP);
+
+  private final Map<String, ScheduledRollUp> rollUpTasks = new ConcurrentHashMap<>();
+
+  private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+      new RollUpThreadFactory("rollup-timer-"));
+
+  private final ThreadPoolExecutor workers = new ThreadPoolExecutor(config.ROLLUP_THREADS,
+      config.ROLLUP_THREADS, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+      new RollUpThreadFactory("rollup-worker-"));
 
   private static class RollUpsExecutorHolder {
 
@@ -32,36 +50,204 @@ public class RollUpsExecutor {
 
   public void create(RollUp rollUp) throws RollUpException {
     if (rollUpTasks.size() <= config.MAX_ROLLUP) {
-      long intervalValue = getIntervalValue(rollUp.getInterval());
-      ScheduledFuture scheduledFuture = executor.scheduleAtFixedRate(rollUp, 1, intervalValue,
-          TimeUnit.getUnitTimeInRollUp(rollUp.getInterval().getUnit()));
-      rollUpTasks.put(rollUp.getId(), scheduledFuture);
+      schedule(rollUp, prepare(rollUp));
     } else {
       throw new RollUpException("Rollup tasks pool has reached maximum capacity.");
     }
   }
 
-  private long getIntervalValue(Duration duration) {
-    switch (duration.getUnit()) {
-      case WEEKS:
-        return duration.getValue() * 7;
-      case MONTHS:
-        return duration.getValue() * 30;
-      case YEARS:
-        return duration.getValue() * 365;
-      default:
-        return duration.getValue();
+  /**
+   * Check the task and build the accumulator of a continuous one, before anything is scheduled.
+   *
+   * @return the accumulator of the task, or null if it is not continuous
+   * @throws RollUpException if the task can't be run
+   */
+  private static RollUpAccumulator prepare(RollUp rollUp) throws RollUpException {
+    rollUp.validate();
+    return rollUp.isContinuous() ? new RollUpAccumulator(rollUp) : null;
+  }
+
+  private void schedule(RollUp rollUp, RollUpAccumulator accumulator) {
+    if (accumulator != null) {
+      ContinuousRollUps.getInstance().register(rollUp.getId(), accumulator);
+    }
+    long period = Math.max(1L, rollUp.getInterval().toTimestamp());
+    ScheduledRollUp task = new ScheduledRollUp(rollUp);
+    task.timerFuture = timer.scheduleAtFixedRate(task::trigger, getPhase(rollUp.getId(), period),
+        period, TimeUnit.MILLISECONDS);
+    rollUpTasks.put(rollUp.getId(), task);
+  }
+
+  /**
+   * Trigger a task now, as its timer does at every interval.
+   */
+  void trigger(String id) {
+    ScheduledRollUp task = rollUpTasks.get(id);
+    if (task != null) {
+      task.trigger();
+    }
+  }
+
+  /**
+   * @return the task saving a roll-up with the name, or null if there is none
+   */
+  RollUp getRollUpSaving(String saveAs) {
+    for (ScheduledRollUp task : rollUpTasks.values()) {
+      for (RollUpQuery rollUpQuery : task.rollUp.getRollups()) {
+        if (saveAs.equals(rollUpQuery.getSaveAs())) {
+          return task.rollUp;
+        }
+      }
     }
+    return null;
+  }
+
+  /**
+   * @return whether a task reads the bucket states of the roll-up with the name, which are saved
+   * only for such a source
+   */
+  boolean isSource(String saveAs) {
+    for (ScheduledRollUp task : rollUpTasks.values()) {
+      for (RollUpQuery rollUpQuery : task.rollUp.getRollups()) {
+        if (saveAs.equals(rollUpQuery.getSource())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Spread the first executions of the tasks over their interval. The phase only depends on the
+   * id, so a task keeps it across restarts.
+   */
+  private static long getPhase(String id, long period) {
+    long hash = id.hashCode() * 0x9E3779B97F4A7C15L;
+    return Math.floorMod(hash ^ (hash >>> 32), period);
   }
 
   public void delete(String id) {
-    rollUpTasks.get(id).cancel(true);
-    rollUpTasks.remove(id);
+    ScheduledRollUp task = rollUpTasks.remove(id);
+    if (task != null) {
+      task.cancel();
+    }
+    ContinuousRollUps.getInstance().unregister(id);
   }
 
+  /**
+   * Replace a task by its new definition. The definition is checked before the running task is
+   * deleted, so an invalid one leaves the task scheduled as it was.
+   */
   public void update(RollUp rollUp) throws RollUpException {
+    RollUpAccumulator accumulator = prepare(rollUp);
     delete(rollUp.getId());
-    create(rollUp);
+    schedule(rollUp, accumulator);
+  }
+
+  private class ScheduledRollUp implements Runnable, Comparable<ScheduledRollUp> {
+
+    private final RollUp rollUp;
+
+    private volatile ScheduledFuture<?> timerFuture;
+
+    private volatile boolean cancelled;
+
+    // Guarded by this: whether the task is waiting or running, and triggered while running
+    private boolean pending;
+    private boolean triggeredWhileRunning;
+    private Thread runner;
+
+    // When the task has been queued, which orders the tasks of the same priority
+    private volatile long queuedTime;
+
+    ScheduledRollUp(RollUp rollUp) {
+      this.rollUp = rollUp;
+    }
+
+    void trigger() {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        if (pending) {
+          if (runner != null) {
+            triggeredWhileRunning = true;
+          }
+          return;
+        }
+        pending = true;
+      }
+      queue();
+    }
+
+    private void queue() {
+      queuedTime = System.nanoTime();
+      workers.execute(this);
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        runner = Thread.currentThread();
+      }
+      try {
+        rollUp.run();
+      } finally {
+        boolean again;
+        synchronized (this) {
+          runner = null;
+          again = triggeredWhileRunning && !cancelled;
+          triggeredWhileRunning = false;
+          pending = again;
+        }
+        // A cancelled task may have been interrupted, which must not leak into the next task
+        Thread.interrupted();
+        if (again) {
+          queue();
+        }
+      }
+    }
+
+    void cancel() {
+      synchronized (this) {
+        cancelled = true;
+        // Interrupted under the lock, so the runner can't have moved on to another task yet
+        if (runner != null) {
+          runner.interrupt();
+        }
+      }
+      if (timerFuture != null) {
+        timerFuture.cancel(false);
+      }
+      workers.remove(this);
+    }
+
+    @Override
+    public int compareTo(ScheduledRollUp other) {
+      int compare = Integer.compare(other.rollUp.getPriority(), rollUp.getPriority());
+      return compare != 0 ? compare : Long.compare(queuedTime - other.queuedTime, 0L);
+    }
+  }
+
+  private static class RollUpThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    RollUpThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 
 }
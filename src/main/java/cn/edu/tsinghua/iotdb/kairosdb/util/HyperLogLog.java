@@ -0,0 +1,116 @@
+package cn.edu.tsinghua.iotdb.kairosdb.util;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al., with the 64-bit hashes of HLL++ by Heule et al.), which
+ * estimates the number of distinct values of a stream in 2^precision bytes. The relative standard
+ * error is about 1.04 / sqrt(2^precision), e.g. 1.6% with a precision of 12. Small cardinalities
+ * are estimated by linear counting over the empty registers.
+ *
+ * <p>Two sketches of the same precision can be merged, and the result is exactly the sketch of
+ * all the values, so sketches of parts of the data can be computed separately.
+ */
+public class HyperLogLog {
+
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 18;
+
+  // Non-canonical NaN bits, which doubleToLongBits never returns, so no value hashes to 0
+  private static final long SEED = 0x7ff0000000000001L;
+
+  private final int precision;
+
+  private final byte[] registers;
+
+  public HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException(String.format(
+          "The precision of a HyperLogLog must be in [%d, %d]", MIN_PRECISION, MAX_PRECISION));
+    }
+    this.precision = precision;
+    registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Hash a value for the sketch. Equal numbers have equal hashes, whether they have been read as
+   * integers or doubles, and the hash is never 0.
+   */
+  public static long hash(double value) {
+    // 0.0 and -0.0 are the same value
+    long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+    // The finalizer of MurmurHash3, a bijection which mixes every bit into every other bit
+    long hash = bits ^ SEED;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Add a value by its hash.
+   */
+  public void add(long hash) {
+    // The first bits choose the register, the rest give the rank
+    int index = (int) (hash >>> (64 - precision));
+    // The sentinel bit bounds the rank when the rest of the bits are 0
+    long rest = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  /**
+   * Add all the values of another sketch.
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException(
+          "Cannot merge HyperLogLogs of different precisions");
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values added
+   */
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  private static double alpha(int m) {
+    switch (m) {
+      case 16:
+        return 0.673;
+      case 32:
+        return 0.697;
+      case 64:
+        return 0.709;
+      default:
+        return 0.7213 / (1 + 1.079 / m);
+    }
+  }
+
+}
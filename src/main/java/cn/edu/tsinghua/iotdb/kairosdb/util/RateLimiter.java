@@ -0,0 +1,40 @@
+package cn.edu.tsinghua.iotdb.kairosdb.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces the work of background tasks so that no more than a given number of units, e.g. series
+ * or data points, are processed per second by all the threads sharing the limiter. A thread
+ * acquiring units waits until the units acquired before have been paid for.
+ */
+public class RateLimiter {
+
+  private final long unitsPerSecond;
+
+  // The time the next units may be processed at, in nanoseconds
+  private long next = System.nanoTime();
+
+  /**
+   * @param unitsPerSecond the limit, 0 or less for no limit
+   */
+  public RateLimiter(long unitsPerSecond) {
+    this.unitsPerSecond = unitsPerSecond;
+  }
+
+  public void acquire(long units) throws InterruptedException {
+    if (unitsPerSecond <= 0 || units <= 0) {
+      return;
+    }
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      next = Math.max(next, now);
+      wait = next - now;
+      next += (long) (units * 1_000_000_000.0 / unitsPerSecond);
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+}
@@ -0,0 +1,246 @@
+package cn.edu.tsinghua.iotdb.kairosdb.util;
+
+import java.util.Arrays;
+
+/**
+ * A merging t-digest (Dunning and Ertl), which estimates the quantiles of a stream of values in
+ * constant memory. The values are summarized by weighted centroids, which are small near the
+ * extremes and large near the median, so the error on the tails stays small. The number of
+ * centroids is bounded by the compression: a larger compression is more accurate and uses more
+ * memory.
+ *
+ * <p>Two digests can be merged, and the result is about as accurate as a digest built from all the
+ * values, so digests of parts of the data can be computed separately.
+ */
+public class TDigest {
+
+  private final double compression;
+
+  // The centroids, in ascending order of their means
+  private double[] means;
+  private double[] weights;
+  private int centroidCount;
+
+  // The values and centroids added since the last compression, in any order
+  private double[] bufferMeans;
+  private double[] bufferWeights;
+  private int bufferSize;
+
+  private double totalWeight;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * @param compression the accuracy of the digest, at most about this many centroids are kept
+   */
+  public TDigest(double compression) {
+    if (compression < 10) {
+      throw new IllegalArgumentException("The compression of a t-digest must be at least 10");
+    }
+    this.compression = compression;
+    int capacity = (int) Math.ceil(compression) + 10;
+    means = new double[capacity];
+    weights = new double[capacity];
+    bufferMeans = new double[capacity * 4];
+    bufferWeights = new double[capacity * 4];
+  }
+
+  public double getCompression() {
+    return compression;
+  }
+
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  public void add(double value, double weight) {
+    if (Double.isNaN(value)) {
+      throw new IllegalArgumentException("Cannot add NaN to a t-digest");
+    }
+    if (bufferSize == bufferMeans.length) {
+      compress();
+    }
+    bufferMeans[bufferSize] = value;
+    bufferWeights[bufferSize] = weight;
+    bufferSize++;
+    totalWeight += weight;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add all the values summarized by another digest.
+   */
+  public void merge(TDigest other) {
+    other.compress();
+    for (int i = 0; i < other.centroidCount; i++) {
+      add(other.means[i], other.weights[i]);
+    }
+    // The centroids only bound the values, the extremes are kept exactly
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * @return the number of values added
+   */
+  public double size() {
+    return totalWeight;
+  }
+
+  public void clear() {
+    centroidCount = 0;
+    bufferSize = 0;
+    totalWeight = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Estimate a quantile of the values.
+   *
+   * @param q the quantile, in [0, 1]
+   * @return the estimated value, or NaN if the digest is empty
+   */
+  public double quantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("The quantile must be in [0, 1]");
+    }
+    compress();
+    if (centroidCount == 0) {
+      return Double.NaN;
+    }
+    if (q == 0) {
+      return min;
+    }
+    if (q == 1) {
+      return max;
+    }
+    if (centroidCount == 1) {
+      return means[0];
+    }
+
+    // Every centroid is taken to be centered on its mean, the values between the centers of two
+    // centroids are interpolated
+    double index = q * totalWeight;
+    double left = weights[0] / 2;
+    if (index < left) {
+      return min + (means[0] - min) * index / left;
+    }
+    double weightSoFar = left;
+    for (int i = 0; i < centroidCount - 1; i++) {
+      double gap = (weights[i] + weights[i + 1]) / 2;
+      if (weightSoFar + gap > index) {
+        double fraction = (index - weightSoFar) / gap;
+        return means[i] + fraction * (means[i + 1] - means[i]);
+      }
+      weightSoFar += gap;
+    }
+    double right = weights[centroidCount - 1] / 2;
+    double fraction = Math.min(1, (index - weightSoFar) / right);
+    return means[centroidCount - 1] + fraction * (max - means[centroidCount - 1]);
+  }
+
+  /**
+   * Merge the buffer into the centroids. Neighbouring centroids are combined as long as the
+   * combined centroid spans at most one unit of the scale function, which bounds the number of
+   * centroids. The limit is turned into a weight once per centroid, so the scale function is not
+   * computed for every value.
+   */
+  private void compress() {
+    if (bufferSize == 0) {
+      return;
+    }
+    int size = centroidCount + bufferSize;
+    double[] allMeans = Arrays.copyOf(bufferMeans, size);
+    double[] allWeights = Arrays.copyOf(bufferWeights, size);
+    System.arraycopy(means, 0, allMeans, bufferSize, centroidCount);
+    System.arraycopy(weights, 0, allWeights, bufferSize, centroidCount);
+    sort(allMeans, allWeights, 0, size - 1);
+
+    int count = 0;
+    double mean = allMeans[0];
+    double weight = allWeights[0];
+    double weightSoFar = 0;
+    // The largest weight before the end of the current centroid
+    double weightLimit = totalWeight * inverseScale(scale(0) + 1);
+    for (int i = 1; i < size; i++) {
+      double proposed = weight + allWeights[i];
+      if (weightSoFar + proposed <= weightLimit) {
+        mean += (allMeans[i] - mean) * allWeights[i] / proposed;
+        weight = proposed;
+      } else {
+        count = addCentroid(count, mean, weight);
+        weightSoFar += weight;
+        weightLimit = totalWeight * inverseScale(scale(weightSoFar / totalWeight) + 1);
+        mean = allMeans[i];
+        weight = allWeights[i];
+      }
+    }
+    centroidCount = addCentroid(count, mean, weight);
+    bufferSize = 0;
+  }
+
+  private int addCentroid(int count, double mean, double weight) {
+    if (count == means.length) {
+      means = Arrays.copyOf(means, count * 2);
+      weights = Arrays.copyOf(weights, count * 2);
+    }
+    means[count] = mean;
+    weights[count] = weight;
+    return count + 1;
+  }
+
+  /**
+   * The k1 scale function, which maps a quantile to the number of centroids before it.
+   */
+  private double scale(double q) {
+    q = Math.max(0, Math.min(1, q));
+    return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+  }
+
+  private double inverseScale(double k) {
+    double angle = Math.min(k * 2 * Math.PI / compression, Math.PI / 2);
+    return (Math.sin(angle) + 1) / 2;
+  }
+
+  /**
+   * Sort the keys in [low, high] in ascending order, moving the values along with them.
+   */
+  private static void sort(double[] keys, double[] values, int low, int high) {
+    while (low < high) {
+      double pivot = keys[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, i, j);
+          swap(values, i, j);
+          i++;
+          j--;
+        }
+      }
+      // Recurse into the smaller part, so the depth of the recursion stays logarithmic
+      if (j - low < high - i) {
+        sort(keys, values, low, j);
+        low = i;
+      } else {
+        sort(keys, values, i, high);
+        high = j;
+      }
+    }
+  }
+
+  private static void swap(double[] array, int i, int j) {
+    double tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+
+}
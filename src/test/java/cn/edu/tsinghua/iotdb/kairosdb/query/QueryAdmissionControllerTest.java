@@ -0,0 +1,82 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class QueryAdmissionControllerTest {
+
+  // The default per-request budget is 100000000 points and the global one 500000000 points
+  private static final long POINTS = 90000000L;
+
+  @Test
+  public void rejectQueryOverRequestBudget() throws QueryException {
+    try {
+      QueryAdmissionController.admit(createCost(2 * POINTS), new QueryContext(0)).close();
+      fail("Query over the per-request budget has been admitted");
+    } catch (QueryRejectedException e) {
+      assertFalse(e.isRetryable());
+    }
+  }
+
+  @Test
+  public void waitNoLongerThanDeadline() throws QueryException {
+    List<QueryAdmissionController.Ticket> tickets = new ArrayList<>();
+    try {
+      for (int i = 0; i < 5; i++) {
+        tickets.add(QueryAdmissionController.admit(createCost(POINTS), new QueryContext(0)));
+      }
+
+      long start = System.currentTimeMillis();
+      try {
+        QueryAdmissionController.admit(createCost(POINTS), new QueryContext(100)).close();
+        fail("Query over the global budget has been admitted");
+      } catch (QueryCancelledException e) {
+        assertTrue(e.isTimedOut());
+      }
+      // QUERY_ADMISSION_TIMEOUT is 30 seconds
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    } finally {
+      for (QueryAdmissionController.Ticket ticket : tickets) {
+        ticket.close();
+      }
+    }
+  }
+
+  @Test
+  public void admitOnceBudgetIsReleased() throws Exception {
+    List<QueryAdmissionController.Ticket> tickets = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      tickets.add(QueryAdmissionController.admit(createCost(POINTS), new QueryContext(0)));
+    }
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException ignored) {
+        // Released at once
+      }
+      tickets.get(0).close();
+    });
+    releaser.start();
+
+    try {
+      QueryAdmissionController.admit(createCost(POINTS), new QueryContext(10000)).close();
+    } finally {
+      releaser.join();
+      for (QueryAdmissionController.Ticket ticket : tickets) {
+        ticket.close();
+      }
+    }
+  }
+
+  private static QueryCost createCost(long points) {
+    QueryCost cost = new QueryCost(3600000L);
+    cost.add(1, points);
+    return cost;
+  }
+
+}
@@ -0,0 +1,56 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class QueryChunkPlannerTest {
+
+  private static final long HOUR = 3600000L;
+
+  private static final long MINUTE = 60000L;
+
+  @Test
+  public void splitUnknownQuery() {
+    assertNull(QueryChunkPlanner.getDensity("unknown"));
+    assertArrayEquals(new long[]{0, HOUR}, QueryChunkPlanner.split("unknown", 0, HOUR, 1));
+  }
+
+  @Test
+  public void splitSparseQuery() {
+    // 1000 points per second fill a chunk in 200 seconds, so a minute isn't split
+    QueryChunkPlanner.recordDensity("sparse", 60000, 0, MINUTE);
+    assertArrayEquals(new long[]{0, MINUTE}, QueryChunkPlanner.split("sparse", 0, MINUTE, 1));
+  }
+
+  @Test
+  public void splitDenseQuery() {
+    // 100000 points per second, so chunks are capped at QUERY_MAX_CHUNKS of 225 seconds, which
+    // are rounded up to 4 steps of a minute
+    QueryChunkPlanner.recordDensity("dense", 360000000L, 0, HOUR);
+    assertEquals(100000, QueryChunkPlanner.getDensity("dense"), 0.001);
+
+    long[] boundaries = QueryChunkPlanner.split("dense", 1000, 1000 + HOUR, MINUTE);
+    assertEquals(16, boundaries.length);
+    for (int i = 0; i < boundaries.length - 1; i++) {
+      assertEquals(1000 + i * 4 * MINUTE, boundaries[i]);
+    }
+    assertEquals(1000 + HOUR, boundaries[boundaries.length - 1]);
+  }
+
+  @Test
+  public void splitRangeOfOneStep() {
+    QueryChunkPlanner.recordDensity("one_step", 360000000L, 0, HOUR);
+    assertArrayEquals(new long[]{0, HOUR}, QueryChunkPlanner.split("one_step", 0, HOUR, HOUR));
+  }
+
+  @Test
+  public void recordMovingAverage() {
+    QueryChunkPlanner.recordDensity("average", 1000, 0, 1000);
+    QueryChunkPlanner.recordDensity("average", 3000, 0, 1000);
+    assertEquals(2000, QueryChunkPlanner.getDensity("average"), 0.001);
+  }
+
+}
@@ -0,0 +1,115 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class QueryContextTest {
+
+  @Test
+  public void checkDeadline() throws Exception {
+    QueryContext context = new QueryContext(50);
+    context.check();
+    Thread.sleep(100);
+    try {
+      context.check();
+      fail("Query has not been stopped after its deadline");
+    } catch (QueryCancelledException e) {
+      assertTrue(e.isTimedOut());
+    }
+  }
+
+  @Test
+  public void checkWithoutDeadline() throws QueryCancelledException {
+    QueryContext context = new QueryContext(0);
+    assertEquals(Long.MAX_VALUE, context.getRemainingMillis());
+    context.check();
+  }
+
+  @Test
+  public void cancelRegisteredStatements() throws Exception {
+    AtomicInteger cancelled = new AtomicInteger();
+    AtomicInteger queryTimeout = new AtomicInteger();
+    Statement statement = createStatement(cancelled, queryTimeout);
+
+    QueryContext context = new QueryContext(10000);
+    context.register(statement);
+    // The statement may run for the rest of the deadline, rounded up to seconds
+    assertEquals(10, queryTimeout.get());
+
+    context.cancel("Client has disconnected");
+    assertEquals(1, cancelled.get());
+    try {
+      context.check();
+      fail("Query has not been stopped");
+    } catch (QueryCancelledException e) {
+      assertFalse(e.isTimedOut());
+      assertEquals("Client has disconnected", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectStatementsOfStoppedQuery() throws Exception {
+    AtomicInteger cancelled = new AtomicInteger();
+    QueryContext context = new QueryContext(0);
+    context.timeout();
+    try {
+      context.register(createStatement(cancelled, new AtomicInteger()));
+      fail("Statement of a stopped query has been registered");
+    } catch (QueryCancelledException e) {
+      assertTrue(e.isTimedOut());
+    }
+  }
+
+  @Test
+  public void shareScan() throws QueryException {
+    QueryContext context = new QueryContext(0);
+    context.addScan("paths@1", "metric1");
+    context.addScan("paths@1", "metric2");
+    context.addScan("other@1", "metric3");
+    assertTrue(context.isSharedScan("paths@1"));
+    assertFalse(context.isSharedScan("other@1"));
+    assertEquals(2, context.getScanMetrics("paths@1", "metric1").size());
+    assertEquals(1, context.getScanMetrics("other@1", "metric3").size());
+
+    AtomicInteger runs = new AtomicInteger();
+    ScanResult first = context.shareScan("sql", () -> {
+      runs.incrementAndGet();
+      return ScanResult.EMPTY;
+    });
+    ScanResult second = context.shareScan("sql", () -> {
+      runs.incrementAndGet();
+      return ScanResult.EMPTY;
+    });
+    assertSame(first, second);
+    assertEquals(1, runs.get());
+  }
+
+  private static Statement createStatement(AtomicInteger cancelled, AtomicInteger queryTimeout) {
+    return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+        new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "cancel":
+              cancelled.incrementAndGet();
+              return null;
+            case "setQueryTimeout":
+              queryTimeout.set((Integer) args[0]);
+              return null;
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              return null;
+          }
+        });
+  }
+
+}
@@ -0,0 +1,76 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.group_by;
+
+import static org.junit.Assert.assertEquals;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.MetricValueResult;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PointGrouperTest {
+
+  @Test
+  public void groupByTime() {
+    // Ranges of 1 second, profiled over 2 groups: even and odd seconds
+    GroupByTime groupBy = new GroupByTime();
+    groupBy.setRangeSize(1, "seconds");
+    groupBy.setGroupCount(2);
+
+    List<MetricValueResult> grouped = PointGrouper.group(
+        createResults(new long[]{1000, 1500, 2000, 3000, 4999}, new double[]{1, 2, 3, 4, 5}),
+        Collections.singletonList(groupBy), 1000);
+
+    assertEquals(2, grouped.size());
+    assertGroup(grouped.get(0), "time:0", 1000, 1500, 3000);
+    assertGroup(grouped.get(1), "time:1", 2000, 4999);
+  }
+
+  @Test
+  public void groupByValue() {
+    GroupByValue groupBy = new GroupByValue();
+    groupBy.setRangeSize(10);
+
+    List<MetricValueResult> grouped = PointGrouper.group(
+        createResults(new long[]{1, 2, 3, 4}, new double[]{25, -3, 9, 21}),
+        Collections.singletonList(groupBy), 0);
+
+    assertEquals(3, grouped.size());
+    assertGroup(grouped.get(0), "value:-1", 2);
+    assertGroup(grouped.get(1), "value:0", 3);
+    assertGroup(grouped.get(2), "value:2", 1, 4);
+  }
+
+  @Test
+  public void groupByBin() {
+    GroupByBin groupBy = new GroupByBin();
+    groupBy.addBin("10");
+    groupBy.addBin("2");
+
+    List<MetricValueResult> grouped = PointGrouper.group(
+        createResults(new long[]{1, 2, 3, 4}, new double[]{1, 2, 12, 10}),
+        Collections.singletonList(groupBy), 0);
+
+    assertEquals(3, grouped.size());
+    assertGroup(grouped.get(0), "bin:0", 1);
+    assertGroup(grouped.get(1), "bin:1", 2);
+    assertGroup(grouped.get(2), "bin:2", 3, 4);
+  }
+
+  private static List<MetricValueResult> createResults(long[] timestamps, double[] values) {
+    MetricValueResult result = new MetricValueResult("test");
+    for (int i = 0; i < timestamps.length; i++) {
+      result.addDataPoint(new QueryDataPoint(timestamps[i], values[i]));
+    }
+    return Collections.singletonList(result);
+  }
+
+  private static void assertGroup(MetricValueResult result, String group, long... timestamps) {
+    assertEquals(Collections.singletonList(group), PointGrouper.getGroupKey(result));
+    assertEquals(timestamps.length, result.getDatapoints().size());
+    for (int i = 0; i < timestamps.length; i++) {
+      assertEquals(timestamps[i], result.getDatapoints().get(i).getTimestamp());
+    }
+  }
+
+}
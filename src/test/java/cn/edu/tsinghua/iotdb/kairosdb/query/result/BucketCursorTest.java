@@ -0,0 +1,81 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.aggregator.QueryAggregatorAlign;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class BucketCursorTest {
+
+  @Test
+  public void walkBuckets() {
+    // Buckets [100, 110), [110, 120) and [130, 140), the point at 95 is before the start
+    BucketCursor cursor = new BucketCursor(createPoints(95, 100, 105, 110, 131, 139), 100, 10,
+        QueryAggregatorAlign.NO_ALIGN);
+
+    assertTrue(cursor.next());
+    assertEquals(1, cursor.getStart());
+    assertEquals(3, cursor.getEnd());
+    assertEquals(100, cursor.getBucketStart());
+    assertEquals(100, cursor.getTimestamp());
+
+    assertTrue(cursor.next());
+    assertEquals(1, cursor.size());
+    assertEquals(110, cursor.getBucketStart());
+
+    assertTrue(cursor.next());
+    assertEquals(2, cursor.size());
+    assertEquals(130, cursor.getBucketStart());
+    assertEquals(131, cursor.getTimestamp());
+
+    assertFalse(cursor.next());
+    assertEquals(0, cursor.size());
+  }
+
+  @Test
+  public void alignToStartAndEndTime() {
+    BucketCursor start = new BucketCursor(createPoints(104), 100, 10,
+        QueryAggregatorAlign.ALIGN_START_TIME);
+    assertTrue(start.next());
+    assertEquals(100, start.getTimestamp());
+
+    BucketCursor end = new BucketCursor(createPoints(104), 100, 10,
+        QueryAggregatorAlign.ALIGN_END_TIME);
+    assertTrue(end.next());
+    assertEquals(110, end.getTimestamp());
+  }
+
+  @Test
+  public void alignToSampling() {
+    // The buckets start at the first point instead of the start time
+    BucketCursor cursor = new BucketCursor(createPoints(103, 112, 113), 100, 10,
+        QueryAggregatorAlign.ALIGN_SAMPLING);
+
+    assertTrue(cursor.next());
+    assertEquals(103, cursor.getBucketStart());
+    assertEquals(2, cursor.size());
+    assertTrue(cursor.next());
+    assertEquals(113, cursor.getBucketStart());
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void walkNoPoints() {
+    BucketCursor cursor = new BucketCursor(Collections.emptyList(), 100, 10, null);
+    assertFalse(cursor.next());
+  }
+
+  private static List<QueryDataPoint> createPoints(long... timestamps) {
+    List<QueryDataPoint> points = new ArrayList<>();
+    for (long timestamp : timestamps) {
+      points.add(new QueryDataPoint(timestamp, 1));
+    }
+    return points;
+  }
+
+}
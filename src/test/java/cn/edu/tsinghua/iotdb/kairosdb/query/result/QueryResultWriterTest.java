@@ -0,0 +1,81 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryParser;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class QueryResultWriterTest {
+
+  @Test
+  public void writeMetricResults() throws IOException {
+    StringWriter out = new StringWriter();
+    QueryResultWriter writer = new QueryResultWriter(out);
+    writer.writeMetricResult(createMetricResult(1.5));
+    writer.endQueries();
+    writer.close();
+
+    assertEquals("{\"queries\":[{\"sample_size\":2,\"results\":[{\"name\":\"test\",\"group_by\":"
+        + "[],\"tags\":{},\"values\":[[1400000000000,1.5],[1400000001000,2]]}]}]}", out.toString());
+  }
+
+  @Test
+  public void writeSameJsonAsGson() throws IOException {
+    StringWriter out = new StringWriter();
+    QueryResultWriter writer = new QueryResultWriter(out);
+    writer.writeMetricResult(createMetricResult(1.5));
+    writer.endQueries();
+    writer.close();
+
+    QueryResult queryResult = new QueryResult();
+    queryResult.addMetricResult(createMetricResult(1.5));
+    assertEquals(new QueryParser().parseResultToJson(queryResult), out.toString());
+  }
+
+  @Test
+  public void writeEmptyResult() throws IOException {
+    StringWriter out = new StringWriter();
+    QueryResultWriter writer = new QueryResultWriter(out);
+    writer.endQueries();
+    writer.close();
+
+    assertEquals("{\"queries\":[]}", out.toString());
+  }
+
+  @Test
+  public void writeNothingBeforeFirstMetric() {
+    StringWriter out = new StringWriter();
+    QueryResultWriter writer = new QueryResultWriter(out);
+
+    assertFalse(writer.isStarted());
+    assertEquals("", out.toString());
+  }
+
+  @Test
+  public void rejectNonFiniteValues() throws IOException {
+    StringWriter out = new StringWriter();
+    QueryResultWriter writer = new QueryResultWriter(out);
+    try {
+      writer.writeMetricResult(createMetricResult(Double.NaN));
+    } catch (IllegalArgumentException e) {
+      assertTrue(writer.isStarted());
+      return;
+    }
+    throw new AssertionError("NaN has been written as " + out);
+  }
+
+  private static MetricResult createMetricResult(double value) {
+    MetricValueResult valueResult = new MetricValueResult("test");
+    valueResult.addDataPoint(new QueryDataPoint(1400000000000L, value));
+    valueResult.addDataPoint(new QueryDataPoint(1400000001000L, 2));
+    MetricResult result = new MetricResult();
+    result.addResult(valueResult);
+    result.setSampleSize(2L);
+    return result;
+  }
+
+}
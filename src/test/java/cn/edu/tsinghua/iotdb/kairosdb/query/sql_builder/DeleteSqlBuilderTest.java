@@ -0,0 +1,78 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class DeleteSqlBuilderTest {
+
+  @Test
+  public void batchSeriesByStorageGroup() {
+    DeleteSqlBuilder builder = new DeleteSqlBuilder();
+    builder.appendSeries("root.sg2.a.m");
+    builder.appendSeries("root.sg1.a.m");
+    builder.appendSeries("root.sg1.b.m");
+    builder.appendSeries("root.sg1.c.m");
+    // Added twice, deleted once
+    builder.appendSeries("root.sg1.a.m");
+    assertEquals(4, builder.size());
+
+    Map<String, List<List<String>>> batches = builder.batch(2);
+    assertEquals(Arrays.asList("sg1", "sg2"), new ArrayList<>(batches.keySet()));
+    assertEquals(Arrays.asList(Arrays.asList("root.sg1.a.m", "root.sg1.b.m"),
+        Arrays.asList("root.sg1.c.m")), batches.get("sg1"));
+    assertEquals(Arrays.asList(Arrays.asList("root.sg2.a.m")), batches.get("sg2"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectSeriesOutOfStorageGroup() {
+    new DeleteSqlBuilder().appendSeries("root.m");
+  }
+
+  @Test
+  public void deleteSeries() {
+    DeleteSqlBuilder builder = new DeleteSqlBuilder();
+    assertFalse(builder.hasLowerBound());
+    assertEquals("DELETE TIMESERIES root.sg.a.m,root.sg.b.m",
+        builder.toSql(Arrays.asList("root.sg.a.m", "root.sg.b.m")));
+  }
+
+  @Test
+  public void deleteUpToTime() {
+    DeleteSqlBuilder builder = new DeleteSqlBuilder(0, 1000);
+    assertFalse(builder.hasLowerBound());
+    assertEquals("DELETE FROM root.sg.a.m WHERE time<1000",
+        builder.toSql(Arrays.asList("root.sg.a.m")));
+  }
+
+  @Test
+  public void deleteTimeRange() {
+    DeleteSqlBuilder builder = new DeleteSqlBuilder(500, 1000);
+    assertTrue(builder.hasLowerBound());
+    assertEquals("DELETE FROM root.sg.a.m,root.sg.b.m WHERE time>500 and time<1000",
+        builder.toSql(Arrays.asList("root.sg.a.m", "root.sg.b.m")));
+  }
+
+  @Test
+  public void overwriteTimeRangeByTombstones() {
+    DeleteSqlBuilder builder = new DeleteSqlBuilder(500, 1000);
+    assertEquals("SELECT m FROM root.sg.a WHERE time>500 and time<1000",
+        builder.toSelectSql("root.sg.a.m"));
+    assertEquals("insert into root.sg.a(timestamp, m) values(600, 2147483646)",
+        DeleteSqlBuilder.toTombstoneSql("root.sg.a.m", "600", Types.DOUBLE));
+    assertEquals("insert into root.sg.a(timestamp, m) values(600, \"2147483646\")",
+        DeleteSqlBuilder.toTombstoneSql("root.sg.a.m", "600", Types.VARCHAR));
+
+    assertTrue(DeleteSqlBuilder.isTombstone("2147483646"));
+    assertTrue(DeleteSqlBuilder.isTombstone("2.147483646E9"));
+    assertFalse(DeleteSqlBuilder.isTombstone("2147483645"));
+  }
+
+}
@@ -0,0 +1,23 @@
+package cn.edu.tsinghua.iotdb.kairosdb.query.sql_builder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class QuerySqlBuilderTest {
+
+  @Test
+  public void matchSeriesPathByNode() {
+    QuerySqlBuilder builder = new QuerySqlBuilder("user").append("*")
+        .append(Arrays.asList("h1", "h2"));
+    assertTrue(builder.isSeriesPath("root.sg.a.h1.user"));
+    assertTrue(builder.isSeriesPath("root.sg.b.h2.user"));
+    assertFalse(builder.isSeriesPath("root.sg.a.h3.user"));
+    // Another metric ending with the name of this one
+    assertFalse(builder.isSeriesPath("root.sg.a.h1.cpu_user"));
+    assertFalse(builder.isSeriesPath("root.sg.a.h1.cpu.user"));
+  }
+
+}
@@ -0,0 +1,96 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cn.edu.tsinghua.iotdb.kairosdb.query.QueryException;
+import cn.edu.tsinghua.iotdb.kairosdb.query.result.QueryDataPoint;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollUpAccumulatorTest {
+
+  private static final long MINUTE = 60000L;
+
+  private RollUpAccumulator accumulator;
+
+  private RollUpAccumulator.Target target;
+
+  // The start of the first window the accumulator has seen all the points of
+  private long trusted;
+
+  @Before
+  public void before() throws RollUpException {
+    RollUp rollUp = new RollUpParser().parseRollupTask("{\"name\":\"continuous\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"minutes\"},\"continuous\":true,"
+        + "\"rollups\":[{\"save_as\":\"continuous_1m\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":\"m\","
+        + "\"aggregators\":[{\"name\":\"sum\",\"sampling\":{\"value\":1,\"unit\":\"minutes\"}}]}]}}"
+        + "]}", "1");
+    accumulator = new RollUpAccumulator(rollUp);
+    target = accumulator.getTargets().get(0);
+    trusted = accumulator.getTrustedFrom();
+  }
+
+  @Test
+  public void flushClosedWindows() throws QueryException {
+    assertEquals(0, trusted % MINUTE);
+    target.add(trusted + 1000, 1, true);
+    target.add(trusted + 2000, 2, true);
+    target.add(trusted + MINUTE, 5, true);
+
+    // Only the windows before the end are taken
+    assertValues(accumulator.flush(trusted + MINUTE), trusted, 3);
+    assertTrue(accumulator.flush(trusted + MINUTE).isEmpty());
+    assertValues(accumulator.flush(trusted + 2 * MINUTE), trusted + MINUTE, 5);
+    assertNull(accumulator.takeDirty(Long.MAX_VALUE, 0));
+  }
+
+  @Test
+  public void markLatePointsDirty() {
+    accumulator.flush(trusted + 2 * MINUTE);
+    // Arrives after its window has been flushed, so it isn't accumulated
+    target.add(trusted + MINUTE + 30000, 1, true);
+    assertTrue(accumulator.flush(trusted + 3 * MINUTE).isEmpty());
+
+    // Not repaired before the repair interval has elapsed since the last repair
+    assertNull(accumulator.takeDirty(System.currentTimeMillis(), 600000));
+    assertArrayEquals(new long[]{trusted + MINUTE, trusted + 2 * MINUTE},
+        accumulator.takeDirty(Long.MAX_VALUE, 0));
+    // Taken once
+    assertNull(accumulator.takeDirty(Long.MAX_VALUE, 0));
+  }
+
+  @Test
+  public void widenDirtyRangeToWindows() {
+    accumulator.markDirty(trusted + 5, trusted + MINUTE + 1);
+    accumulator.markDirty(trusted + 3 * MINUTE, trusted + 3 * MINUTE + 1);
+    assertArrayEquals(new long[]{trusted, trusted + 4 * MINUTE},
+        accumulator.takeDirty(Long.MAX_VALUE, 0));
+  }
+
+  @Test
+  public void treatWindowsBeforeAdvanceAsWritten() {
+    accumulator.advance(trusted + MINUTE);
+    target.add(trusted + 1000, 1, true);
+    assertArrayEquals(new long[]{trusted, trusted + MINUTE},
+        accumulator.takeDirty(Long.MAX_VALUE, 0));
+  }
+
+  private static void assertValues(Map<RollUpAccumulator.Target, RollUpBuckets> flushed,
+      long windowStart, double value) throws QueryException {
+    assertEquals(1, flushed.size());
+    List<QueryDataPoint> points = flushed.values().iterator().next().getPoints().getResults()
+        .get(0).getDatapoints();
+    assertEquals(1, points.size());
+    // Not aligned to the sampling, so at the first point of the window
+    assertTrue(points.get(0).getTimestamp() >= windowStart);
+    assertTrue(points.get(0).getTimestamp() < windowStart + MINUTE);
+    assertEquals(value, points.get(0).getAsDouble(), 0);
+  }
+
+}
@@ -0,0 +1,75 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RollUpBackfillTest {
+
+  @Test
+  public void splitRangeIntoChunks() {
+    RollUpBackfill backfill = new RollUpBackfill("1", 0, 250, 0);
+    assertEquals(3, backfill.start(100));
+    assertEquals(200, backfill.getChunkStart(2));
+    // The last chunk ends with the range
+    assertEquals(250, backfill.getChunkEnd(2));
+  }
+
+  @Test
+  public void moveDonePastChunksWithoutGap() {
+    RollUpBackfill backfill = new RollUpBackfill("1", 0, 300, 0);
+    backfill.start(100);
+
+    // A chunk after a gap doesn't move done
+    assertFalse(backfill.completeChunk(1, 10));
+    assertEquals(0, backfill.getDone());
+    // Closing the gap moves done past both
+    assertTrue(backfill.completeChunk(0, 20));
+    assertEquals(200, backfill.getDone());
+    assertFalse(backfill.isComplete());
+
+    assertTrue(backfill.completeChunk(2, 30));
+    assertEquals(300, backfill.getDone());
+    assertTrue(backfill.isComplete());
+    assertEquals(20, backfill.getPointsPerChunk());
+
+    backfill.finish();
+    assertEquals(RollUpBackfill.Status.DONE, backfill.getStatus());
+  }
+
+  @Test
+  public void finishWithFailedChunks() {
+    RollUpBackfill backfill = new RollUpBackfill("1", 0, 200, 0);
+    backfill.start(100);
+    backfill.recordFailure("Failed to backfill from 0 to 100");
+    assertFalse(backfill.completeChunk(1, 10));
+    // A failed chunk leaves a gap, where a resumed backfill starts again
+    assertEquals(0, backfill.getDone());
+    assertTrue(backfill.isComplete());
+
+    backfill.finish();
+    assertEquals(RollUpBackfill.Status.FAILED, backfill.getStatus());
+  }
+
+  @Test
+  public void resumeFromDone() {
+    RollUpBackfill backfill = new RollUpBackfill("1", 0, 500, 200);
+    assertEquals(3, backfill.start(100));
+    assertEquals(200, backfill.getChunkStart(0));
+    assertTrue(backfill.completeChunk(0, 0));
+    assertEquals(300, backfill.getDone());
+  }
+
+  @Test
+  public void keepCancelledStatus() {
+    RollUpBackfill backfill = new RollUpBackfill("1", 0, 100, 0);
+    backfill.start(100);
+    backfill.cancel();
+    backfill.completeChunk(0, 0);
+    backfill.finish();
+    assertEquals(RollUpBackfill.Status.CANCELLED, backfill.getStatus());
+  }
+
+}
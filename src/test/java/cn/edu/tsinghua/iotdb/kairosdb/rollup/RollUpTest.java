@@ -0,0 +1,40 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RollUpTest {
+
+  private static final long MINUTE = 60000L;
+
+  @Test
+  public void alignWindowsWithEverySampling() throws RollUpException {
+    RollUp rollUp = parse("{\"name\":\"step\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"hours\"},"
+        + "\"rollups\":[{\"save_as\":\"step_2m\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":\"m\","
+        + "\"aggregators\":[{\"name\":\"sum\",\"sampling\":{\"value\":2,\"unit\":\"minutes\"}}]}]}},"
+        + "{\"save_as\":\"step_3m\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":\"m\","
+        + "\"aggregators\":[{\"name\":\"max\",\"sampling\":{\"value\":3,\"unit\":\"minutes\"}}]}]}}"
+        + "]}");
+
+    assertEquals(6 * MINUTE, rollUp.getWindowStep());
+  }
+
+  @Test
+  public void useIntervalWithoutSampling() throws RollUpException {
+    RollUp rollUp = parse("{\"name\":\"step\","
+        + "\"execution_interval\":{\"value\":10,\"unit\":\"minutes\"},"
+        + "\"rollups\":[{\"save_as\":\"step_raw\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":\"m\"}]}}]}");
+
+    assertEquals(10 * MINUTE, rollUp.getWindowStep());
+  }
+
+  private static RollUp parse(String json) throws RollUpException {
+    return new RollUpParser().parseRollupTask(json, "1");
+  }
+
+}
@@ -0,0 +1,143 @@
+package cn.edu.tsinghua.iotdb.kairosdb.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollUpsExecutorTest {
+
+  // The names of the tasks in the order they have started to run
+  private static final List<String> started = new CopyOnWriteArrayList<>();
+
+  private static final Semaphore startedPermits = new Semaphore(0);
+
+  // Every run waits for a permit before it returns
+  private static final Semaphore proceed = new Semaphore(0);
+
+  private final List<String> ids = new CopyOnWriteArrayList<>();
+
+  private final RollUpsExecutor executor = RollUpsExecutor.getInstance();
+
+  @Before
+  public void before() {
+    started.clear();
+    startedPermits.drainPermits();
+    proceed.drainPermits();
+  }
+
+  @After
+  public void after() {
+    for (String id : ids) {
+      executor.delete(id);
+    }
+  }
+
+  @Test
+  public void coalesceTriggers() throws Exception {
+    String id = create("coalesce", 0);
+
+    executor.trigger(id);
+    awaitStarted(1);
+    // Triggered while running: the task runs once more afterwards, not three times
+    executor.trigger(id);
+    executor.trigger(id);
+    executor.trigger(id);
+
+    proceed.release();
+    awaitStarted(1);
+    proceed.release();
+    Thread.sleep(200);
+    assertEquals(Arrays.asList("coalesce", "coalesce"), started);
+  }
+
+  @Test
+  public void runByPriorityThenTriggerOrder() throws Exception {
+    // Occupy the ROLLUP_THREADS (2) workers, so the next tasks wait in the queue
+    executor.trigger(create("busy1", 0));
+    executor.trigger(create("busy2", 0));
+    awaitStarted(2);
+
+    String low = create("low", 0);
+    executor.trigger(low);
+    executor.trigger(create("high", 5));
+    executor.trigger(create("low2", 0));
+    // Already waiting, so not queued twice
+    executor.trigger(low);
+
+    // Free one worker at a time, which takes the head of the queue
+    for (int i = 0; i < 3; i++) {
+      proceed.release();
+      awaitStarted(1);
+    }
+    proceed.release(2);
+    Thread.sleep(200);
+    assertEquals(Arrays.asList("high", "low", "low2"), started.subList(2, started.size()));
+  }
+
+  @Test
+  public void keepTaskUpdatedWithInvalidDefinition() throws Exception {
+    String id = create("valid", 0);
+    // Computed from a source, so it can't be continuous
+    RollUp invalid = new RollUpParser().parseRollupTask("{\"name\":\"invalid\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"days\"},\"continuous\":true,"
+        + "\"rollups\":[{\"save_as\":\"invalid_2m\",\"source\":\"invalid_1m\",\"query\":"
+        + "{\"start_relative\":{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":"
+        + "\"m\",\"aggregators\":[{\"name\":\"sum\",\"sampling\":{\"value\":2,"
+        + "\"unit\":\"minutes\"}}]}]}}]}", id);
+    try {
+      executor.update(invalid);
+      fail("A continuous roll-up computed from a source must be rejected");
+    } catch (RollUpException e) {
+      // Expected
+    }
+
+    assertTrue(executor.containsRollup(id));
+    assertFalse(executor.isSource("invalid_1m"));
+    executor.trigger(id);
+    awaitStarted(1);
+    proceed.release();
+    assertEquals(Arrays.asList("valid"), started);
+  }
+
+  private String create(String name, int priority) throws RollUpException {
+    String id = String.valueOf(System.nanoTime());
+    // A day long interval, so only the test triggers the task
+    BlockingRollUp rollUp = new RollUpParser().getGson().fromJson(String.format(
+        "{\"name\":\"%s\",\"execution_interval\":{\"value\":1,\"unit\":\"days\"},"
+            + "\"priority\":%d,\"rollups\":[]}", name, priority), BlockingRollUp.class);
+    rollUp.setId(id);
+    executor.create(rollUp);
+    ids.add(id);
+    return id;
+  }
+
+  private static void awaitStarted(int runs) throws InterruptedException {
+    assertTrue(startedPermits.tryAcquire(runs, 5, TimeUnit.SECONDS));
+  }
+
+  private static class BlockingRollUp extends RollUp {
+
+    @Override
+    public void run() {
+      started.add(getName());
+      startedPermits.release();
+      try {
+        proceed.acquire();
+      } catch (InterruptedException e) {
+        // Deleted while running
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+package cn.edu.tsinghua.iotdb.kairosdb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void countSmallCardinalityExactly() {
+    HyperLogLog sketch = new HyperLogLog(12);
+    assertEquals(0, sketch.cardinality());
+    for (int i = 0; i < 10; i++) {
+      // Duplicates don't count
+      sketch.add(HyperLogLog.hash(i));
+      sketch.add(HyperLogLog.hash(i));
+    }
+    assertEquals(10, sketch.cardinality());
+  }
+
+  @Test
+  public void estimateLargeCardinality() {
+    HyperLogLog sketch = new HyperLogLog(12);
+    for (int i = 0; i < 1000000; i++) {
+      sketch.add(HyperLogLog.hash(i * 0.5));
+    }
+    // The standard error is 1.6%
+    assertEquals(1000000, sketch.cardinality(), 50000);
+  }
+
+  @Test
+  public void mergeSketches() {
+    HyperLogLog low = new HyperLogLog(10);
+    HyperLogLog high = new HyperLogLog(10);
+    HyperLogLog all = new HyperLogLog(10);
+    for (int i = 0; i < 20000; i++) {
+      (i < 15000 ? low : high).add(HyperLogLog.hash(i));
+      // The sketches overlap on [10000, 15000)
+      if (i >= 10000 && i < 15000) {
+        high.add(HyperLogLog.hash(i));
+      }
+      all.add(HyperLogLog.hash(i));
+    }
+
+    low.merge(high);
+    assertEquals(all.cardinality(), low.cardinality());
+  }
+
+  @Test
+  public void hashEqualNumbersEqually() {
+    assertEquals(HyperLogLog.hash(0.0), HyperLogLog.hash(-0.0));
+    assertEquals(HyperLogLog.hash(3), HyperLogLog.hash(3.0));
+    assertTrue(HyperLogLog.hash(1) != HyperLogLog.hash(2));
+    assertTrue(HyperLogLog.hash(0) != 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectPrecisionOutOfRange() {
+    new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectMergeOfDifferentPrecisions() {
+    new HyperLogLog(10).merge(new HyperLogLog(12));
+  }
+
+}
@@ -0,0 +1,69 @@
+package cn.edu.tsinghua.iotdb.kairosdb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class TDigestTest {
+
+  @Test
+  public void estimateQuantilesOfUniformValues() {
+    TDigest digest = new TDigest(100);
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      digest.add(random.nextDouble());
+    }
+
+    assertEquals(100000, digest.size(), 0);
+    assertEquals(0.5, digest.quantile(0.5), 0.01);
+    assertEquals(0.9, digest.quantile(0.9), 0.01);
+    // The tails are the most accurate
+    assertEquals(0.001, digest.quantile(0.001), 0.0005);
+    assertEquals(0.999, digest.quantile(0.999), 0.0005);
+  }
+
+  @Test
+  public void keepExtremesExactly() {
+    TDigest digest = new TDigest(20);
+    for (int i = 1; i <= 1000; i++) {
+      digest.add(i);
+    }
+
+    assertEquals(1, digest.quantile(0), 0);
+    assertEquals(1000, digest.quantile(1), 0);
+  }
+
+  @Test
+  public void mergeDigests() {
+    TDigest low = new TDigest(100);
+    TDigest high = new TDigest(100);
+    for (int i = 0; i < 10000; i++) {
+      low.add(i);
+      high.add(10000 + i);
+    }
+
+    low.merge(high);
+    assertEquals(20000, low.size(), 0);
+    assertEquals(10000, low.quantile(0.5), 100);
+    assertEquals(19999, low.quantile(1), 0);
+  }
+
+  @Test
+  public void estimateEmptyDigest() {
+    TDigest digest = new TDigest(100);
+    assertTrue(Double.isNaN(digest.quantile(0.5)));
+
+    digest.add(3);
+    digest.clear();
+    assertEquals(0, digest.size(), 0);
+    assertTrue(Double.isNaN(digest.quantile(0.5)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectNaN() {
+    new TDigest(100).add(Double.NaN);
+  }
+
+}
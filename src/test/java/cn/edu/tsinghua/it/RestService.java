@@ -1,12 +1,17 @@
 package cn.edu.tsinghua.it;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
 import cn.edu.tsinghua.iotdb.kairosdb.Main;
 import cn.edu.tsinghua.iotdb.kairosdb.conf.Config;
 import cn.edu.tsinghua.iotdb.kairosdb.conf.ConfigDescriptor;
 import cn.edu.tsinghua.iotdb.kairosdb.util.AddressUtil;
 import cn.edu.tsinghua.util.HttpUtil;
+import com.google.gson.JsonParser;
 import java.io.IOException;
 import java.net.ConnectException;
+import okhttp3.Response;
 
 public class RestService extends Thread {
 
@@ -54,4 +59,29 @@ public class RestService extends Thread {
   public String getDeleteUrl() {
     return getUrlPrefix() + DELETE_URL;
   }
+
+  /**
+   * Poll the status of the delete job until it is done.
+   *
+   * @param submitResponse the body of the response to the submit of the job
+   */
+  public void waitForDeleteJob(String submitResponse) throws IOException {
+    String id = new JsonParser().parse(submitResponse).getAsJsonObject().get("id").getAsString();
+    String status = "queued";
+    for (int i = 0; i < 100 && (status.equals("queued") || status.equals("running")); i++) {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      Response response = new HttpUtil(getDeleteUrl() + "/" + id).get();
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      status = new JsonParser().parse(response.body().string()).getAsJsonObject().get("status")
+          .getAsString();
+    }
+    assertEquals("done", status);
+  }
+
 }
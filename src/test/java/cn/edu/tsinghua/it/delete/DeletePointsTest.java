@@ -90,7 +90,9 @@ public class DeletePointsTest {
 
     try {
       Response response = new HttpUtil(restService.getDeleteUrl()).post(data);
-      assertEquals(204, response.code());
+      assertEquals(202, response.code());
+      assertNotNull(response.body());
+      restService.waitForDeleteJob(response.body().string());
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -127,7 +129,9 @@ public class DeletePointsTest {
 
     try {
       Response response = new HttpUtil(restService.getDeleteUrl()).post(data);
-      assertEquals(204, response.code());
+      assertEquals(202, response.code());
+      assertNotNull(response.body());
+      restService.waitForDeleteJob(response.body().string());
     } catch (IOException e) {
       e.printStackTrace();
     }
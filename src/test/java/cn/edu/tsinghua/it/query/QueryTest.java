@@ -34,7 +34,9 @@ public class QueryTest {
 
     try {
       Response response = new HttpUtil(restService.getDeleteUrl()).post(data);
-      assertEquals(204, response.code());
+      assertEquals(202, response.code());
+      assertNotNull(response.body());
+      restService.waitForDeleteJob(response.body().string());
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -67,7 +69,9 @@ public class QueryTest {
 
     try {
       Response response = new HttpUtil(restService.getDeleteUrl()).post(data);
-      assertEquals(204, response.code());
+      assertEquals(202, response.code());
+      assertNotNull(response.body());
+      restService.waitForDeleteJob(response.body().string());
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -287,14 +291,15 @@ public class QueryTest {
 
     String expect = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
         + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\","
-        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":[[1400000000000,0.0],[1400000001000,"
-        + "7.000357133746822],[1400000003000,0.07071067811865576],[1400000005000,"
-        + "0.07071067811865576],[1400000007000,0.07071067811865576],[1400000009000,"
-        + "0.07071067811865325],[1400000011000,0.07071067811865325],[1400000013000,"
-        + "0.07071067811865576],[1400000015000,0.07071067811865576],[1400000017000,"
-        + "0.07071067811865576],[1400000019000,0.07071067811865325],[1400000021000,"
-        + "0.07071067811865325],[1400000023000,0.07071067811865576],[1400000025000,"
-        + "0.07071067811865576],[1400000027000,0.0]]}]}]}";
+        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,0.0],[1400000001000,4.950000000000002],"
+        + "[1400000003000,0.05000000000000071],[1400000005000,0.05000000000000071],"
+        + "[1400000007000,0.05000000000000071],[1400000009000,0.04999999999999982],"
+        + "[1400000011000,0.049999999999998046],[1400000013000,0.05000000000000071],"
+        + "[1400000015000,0.05000000000000071],[1400000017000,0.05000000000000071],"
+        + "[1400000019000,0.04999999999999982],[1400000021000,0.049999999999998046],"
+        + "[1400000023000,0.05000000000000071],[1400000025000,0.05000000000000071],"
+        + "[1400000027000,0.0]]}]}]}";
 
     try {
       Response response = new HttpUtil(url).post(String.format(data, "value"));
@@ -308,14 +313,11 @@ public class QueryTest {
 
     String expect2 = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
         + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\","
-        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":[[1400000000000,12.3],[1400000001000"
-        + ",25.15035713374682],[1400000003000,24.120710678118655],[1400000005000,"
-        + "24.320710678118655],[1400000007000,24.520710678118654],[1400000009000,"
-        + "24.720710678118653],[1400000011000,24.920710678118656],[1400000013000,"
-        + "25.120710678118655],[1400000015000,25.320710678118655],[1400000017000,"
-        + "25.520710678118654],[1400000019000,25.720710678118653],[1400000021000,"
-        + "25.920710678118656],[1400000023000,26.120710678118655],[1400000025000,"
-        + "26.320710678118655],[1400000027000,26.4]]}]}]}";
+        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,12.3],[1400000001000,23.1],[1400000003000,24.1],[1400000005000,24.3],"
+        + "[1400000007000,24.5],[1400000009000,24.7],[1400000011000,24.9],[1400000013000,25.1],"
+        + "[1400000015000,25.3],[1400000017000,25.5],[1400000019000,25.7],[1400000021000,25.9],"
+        + "[1400000023000,26.1],[1400000025000,26.3],[1400000027000,26.4]]}]}]}";
 
     try {
       Response response = new HttpUtil(url).post(String.format(data, "pos_sd"));
@@ -329,14 +331,13 @@ public class QueryTest {
 
     String expect3 = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
         + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\","
-        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":[[1400000000000,12.3],"
-        + "[1400000001000,11.149642866253178],[1400000003000,23.979289321881346],"
-        + "[1400000005000,24.179289321881345],[1400000007000,24.379289321881345],"
-        + "[1400000009000,24.579289321881344],[1400000011000,24.779289321881347],"
-        + "[1400000013000,24.979289321881346],[1400000015000,25.179289321881345],"
-        + "[1400000017000,25.379289321881345],[1400000019000,25.579289321881344],"
-        + "[1400000021000,25.779289321881347],[1400000023000,25.979289321881346],"
-        + "[1400000025000,26.179289321881345],[1400000027000,26.4]]}]}]}";
+        + "\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,12.3],[1400000001000,13.199999999999996],[1400000003000,24.0],"
+        + "[1400000005000,24.2],[1400000007000,24.4],[1400000009000,24.599999999999998],"
+        + "[1400000011000,24.800000000000004],[1400000013000,25.0],[1400000015000,25.2],"
+        + "[1400000017000,25.4],[1400000019000,25.599999999999998],"
+        + "[1400000021000,25.800000000000004],[1400000023000,26.0],[1400000025000,26.2],"
+        + "[1400000027000,26.4]]}]}]}";
 
     try {
       Response response = new HttpUtil(url).post(String.format(data, "neg_sd"));
@@ -483,6 +484,115 @@ public class QueryTest {
     }
   }
 
+  @Test
+  public void queryByCountDistinct() {
+    String data = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\"ti"
+        + "me_zone\":\"Asia/Kabul\",\"metrics\":[{\"name\":\"test_query\",\"aggregators\":[{\"name"
+        + "\":\"count_distinct\",\"sampling\":{\"value\":10,\"unit\":\"seconds\"}}]}]}";
+
+    String expect = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
+        + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\""
+        + ",\"server2\"],\"data_center\":[\"DC1\"]},\"values\":[[1400000000000,1],"
+        + "[1400000001000,10],[1400000011000,10],[1400000021000,7]]}]}]}";
+
+    try {
+      Response response = new HttpUtil(url).post(data);
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      String result = response.body().string();
+      assertEquals(expect, result);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  public void queryByM4() {
+    String data = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\"ti"
+        + "me_zone\":\"Asia/Kabul\",\"metrics\":[{\"name\":\"test_query\",\"aggregators\":[{\"name"
+        + "\":\"m4\",\"sampling\":{\"value\":10,\"unit\":\"seconds\"}}]}]}";
+
+    String expect = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
+        + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\""
+        + ",\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,12.3],[1400000001000,13.2],[1400000010000,24.7],[1400000011000,24.8],"
+        + "[1400000020000,25.7],[1400000021000,25.8],[1400000027000,26.4]]}]}]}";
+
+    try {
+      Response response = new HttpUtil(url).post(data);
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      String result = response.body().string();
+      assertEquals(expect, result);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  public void queryByLttb() {
+    String data = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\"ti"
+        + "me_zone\":\"Asia/Kabul\",\"metrics\":[{\"name\":\"test_query\",\"aggregators\":[{\"name"
+        + "\":\"lttb\",\"max_points\":6}]}]}";
+
+    String expect = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
+        + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\""
+        + ",\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,12.3],[1400000002000,23.1],[1400000007000,24.4],[1400000014000,25.1],"
+        + "[1400000024000,26.1],[1400000027000,26.4]]}]}]}";
+
+    try {
+      Response response = new HttpUtil(url).post(data);
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      String result = response.body().string();
+      assertEquals(expect, result);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  public void queryWithMaxDataPoints() {
+    String data = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\"ti"
+        + "me_zone\":\"Asia/Kabul\",\"max_data_points\":6,\"metrics\":[{\"name\":\"test_query\"}]}";
+
+    String expect = "{\"queries\":[{\"sample_size\":28,\"results\":[{\"name\":\"test_query\",\""
+        + "group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"host\":[\"server1\""
+        + ",\"server2\"],\"data_center\":[\"DC1\"]},\"values\":["
+        + "[1400000000000,12.3],[1400000002000,23.1],[1400000007000,24.4],[1400000014000,25.1],"
+        + "[1400000024000,26.1],[1400000027000,26.4]]}]}]}";
+
+    try {
+      Response response = new HttpUtil(url).post(data);
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      String result = response.body().string();
+      assertEquals(expect, result);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  public void queryWithErrorInExecution() {
+    String data = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\"ti"
+        + "me_zone\":\"Asia/Kabul\",\"metrics\":[{\"name\":\"test_query\",\"aggregators\":[{\"name"
+        + "\":\"div\",\"divisor\":\"0\"}]}]}";
+
+    String expect = "{\"errors\":[\"Among div aggregator, divisor can't be zero\"]}";
+
+    try {
+      Response response = new HttpUtil(url).post(data);
+      assertEquals(400, response.code());
+      assertNotNull(response.body());
+      String result = response.body().string();
+      assertEquals(expect, result);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   @Test
   public void queryBySaveAs() {
     String query1 = "{\"start_absolute\":1,\"end_relative\":{\"value\":\"5\",\"unit\":\"days\"},\""
@@ -1,6 +1,8 @@
 package cn.edu.tsinghua.it.rollup;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import cn.edu.tsinghua.iotdb.kairosdb.dao.IoTDBUtil;
 import cn.edu.tsinghua.iotdb.kairosdb.rollup.RollUpStoreImpl;
@@ -10,6 +12,7 @@ import com.alibaba.fastjson.JSON;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Map;
 import okhttp3.Response;
 import org.junit.After;
@@ -270,4 +273,160 @@ public class RollupTest {
     }
   }
 
+  @Test
+  public void testRollupWatermark() throws Exception {
+    String id = sendRollupTaskJson(rollupJson);
+    long start = System.currentTimeMillis();
+
+    // The task runs every 2 seconds and saves the end of the windows it has rolled up
+    Long watermark = waitForWatermark(id);
+    assertNotNull(watermark);
+    // The windows are aligned with the sampling of 5 minutes and closed before the run
+    assertEquals(0, watermark % 300000);
+    assertTrue(watermark <= System.currentTimeMillis());
+    assertTrue(watermark > start - 300000);
+
+    // The next runs don't roll up the same windows again, nor move back
+    Thread.sleep(3000);
+    assertTrue(new RollUpStoreImpl().readWatermark(id) >= watermark);
+  }
+
+  @Test
+  public void testBackfillRollup() throws Exception {
+    // Two minutes long ago, before any roll-up task has run
+    long t0 = 1399999980000L;
+    insert("[{\"name\":\"test_backfill\",\"datapoints\":[[" + t0 + ",1],[" + (t0 + 10000)
+        + ",2],[" + (t0 + 60000) + ",3],[" + (t0 + 70000) + ",4]],\"tags\":{\"host\":"
+        + "\"server1\"}}]");
+    String id = sendRollupTaskJson("{\"name\":\"BackfillRollup\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"hours\"},"
+        + "\"rollups\":[{\"save_as\":\"test_backfill_1m\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"hours\"},\"metrics\":[{\"name\":\"test_backfill\","
+        + "\"tags\":{},\"aggregators\":[{\"name\":\"sum\",\"sampling\":{\"value\":1,"
+        + "\"unit\":\"minutes\"}}]}]}}]}");
+
+    String url = restService.getUrlPrefix() + "/api/v1/rollups/" + id + "/backfill";
+    Response response = new HttpUtil(url).post(
+        "{\"start_absolute\":" + t0 + ",\"end_absolute\":" + (t0 + 120000) + "}");
+    assertEquals(202, response.code());
+
+    Map backfill = waitForBackfill(url);
+    assertEquals("done", backfill.get("status"));
+    assertEquals(t0 + 120000, ((Number) backfill.get("done")).longValue());
+    assertEquals(4, ((Number) backfill.get("points_read")).intValue());
+
+    // One sum per minute
+    List values = queryValues("test_backfill_1m", t0, t0 + 120000);
+    assertEquals(2, values.size());
+    assertEquals(3.0, ((Number) ((List) values.get(0)).get(1)).doubleValue(), 0);
+    assertEquals(7.0, ((Number) ((List) values.get(1)).get(1)).doubleValue(), 0);
+  }
+
+  @Test
+  public void testContinuousRollup() throws Exception {
+    sendRollupTaskJson("{\"name\":\"ContinuousRollup\",\"continuous\":true,"
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"seconds\"},"
+        + "\"rollups\":[{\"save_as\":\"test_continuous_1s\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"minutes\"},\"metrics\":[{\"name\":"
+        + "\"test_continuous\",\"tags\":{},\"aggregators\":[{\"name\":\"sum\","
+        + "\"sampling\":{\"value\":1,\"unit\":\"seconds\"}}]}]}}]}");
+
+    // A window after the task has been registered, which is computed at ingestion
+    long window = (System.currentTimeMillis() / 1000 + 2) * 1000;
+    insert("[{\"name\":\"test_continuous\",\"datapoints\":[[" + (window + 100) + ",1],["
+        + (window + 200) + ",2]],\"tags\":{\"host\":\"server1\"}}]");
+
+    List values = null;
+    for (int i = 0; i < 100 && (values == null || values.isEmpty()); i++) {
+      Thread.sleep(100);
+      values = queryValues("test_continuous_1s", window, window + 999);
+    }
+    assertNotNull(values);
+    assertEquals(1, values.size());
+    assertEquals(3, ((Number) ((List) values.get(0)).get(1)).longValue());
+  }
+
+  @Test
+  public void testHierarchicalRollup() throws Exception {
+    sendRollupTaskJson("{\"name\":\"FineRollup\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"seconds\"},"
+        + "\"rollups\":[{\"save_as\":\"test_hierarchy_1s\",\"query\":{\"start_relative\":"
+        + "{\"value\":\"1\",\"unit\":\"minutes\"},\"metrics\":[{\"name\":"
+        + "\"test_hierarchy\",\"tags\":{},\"aggregators\":[{\"name\":\"sum\","
+        + "\"sampling\":{\"value\":1,\"unit\":\"seconds\"}}]}]}}]}");
+    // Reads the states of the fine task, and waits for it if it runs first
+    String coarse = sendRollupTaskJson("{\"name\":\"CoarseRollup\","
+        + "\"execution_interval\":{\"value\":1,\"unit\":\"seconds\"},"
+        + "\"rollups\":[{\"save_as\":\"test_hierarchy_2s\",\"source\":\"test_hierarchy_1s\","
+        + "\"query\":{\"start_relative\":{\"value\":\"1\",\"unit\":\"minutes\"},"
+        + "\"metrics\":[{\"name\":\"test_hierarchy\",\"aggregators\":[{\"name\":\"sum\","
+        + "\"sampling\":{\"value\":2,\"unit\":\"seconds\"}}]}]}}]}");
+
+    // Two windows of the fine task in one window of the coarse task
+    long window = (System.currentTimeMillis() / 2000 + 2) * 2000;
+    insert("[{\"name\":\"test_hierarchy\",\"datapoints\":[[" + (window + 100) + ",1],["
+        + (window + 1100) + ",2]],\"tags\":{\"host\":\"server1\"}}]");
+
+    List values = null;
+    for (int i = 0; i < 150 && (values == null || values.isEmpty()); i++) {
+      Thread.sleep(100);
+      values = queryValues("test_hierarchy_2s", window, window + 1999);
+    }
+    assertNotNull(values);
+    assertEquals(1, values.size());
+    assertEquals(3, ((Number) ((List) values.get(0)).get(1)).longValue());
+    // The coarse task hasn't started from the epoch while its source wasn't ready
+    assertTrue(new RollUpStoreImpl().readWatermark(coarse) > window - 60000);
+  }
+
+  private void insert(String json) throws IOException {
+    Response response = new HttpUtil(restService.getInsertUrl()).post(json);
+    assertEquals(204, response.code());
+  }
+
+  /**
+   * @return the values of the first result of a query of the metric
+   */
+  private List queryValues(String metricName, long startTime, long endTime) throws IOException {
+    Response response = new HttpUtil(restService.getQueryUrl()).post(String.format(
+        "{\"start_absolute\":%d,\"end_absolute\":%d,\"metrics\":[{\"name\":\"%s\"}]}",
+        startTime, endTime, metricName));
+    assertEquals(200, response.code());
+    assertNotNull(response.body());
+    Map result = (Map) JSON.parse(response.body().string());
+    Map query = (Map) ((List) result.get("queries")).get(0);
+    return (List) ((Map) ((List) query.get("results")).get(0)).get("values");
+  }
+
+  /**
+   * Poll the progress of a backfill until it has finished.
+   */
+  private Map waitForBackfill(String url) throws Exception {
+    Map backfill = null;
+    for (int i = 0; i < 100; i++) {
+      Thread.sleep(100);
+      Response response = new HttpUtil(url).get();
+      assertEquals(200, response.code());
+      assertNotNull(response.body());
+      backfill = (Map) JSON.parse(response.body().string());
+      if (!"running".equals(backfill.get("status"))) {
+        break;
+      }
+    }
+    return backfill;
+  }
+
+  /**
+   * Poll the watermark of a roll-up task until it has run once.
+   */
+  private Long waitForWatermark(String id) throws Exception {
+    RollUpStoreImpl rollUpStore = new RollUpStoreImpl();
+    Long watermark = null;
+    for (int i = 0; i < 100 && watermark == null; i++) {
+      Thread.sleep(100);
+      watermark = rollUpStore.readWatermark(id);
+    }
+    return watermark;
+  }
+
 }